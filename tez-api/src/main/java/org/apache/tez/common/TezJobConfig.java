@@ -56,6 +56,40 @@ public class TezJobConfig {
   public static final int TEZ_RUNTIME_IFILE_READAHEAD_BYTES_DEFAULT =
       4 * 1024 * 1024;
 
+  /**
+   * Configuration key to read uncompressed IFiles on the local filesystem,
+   * such as spills and fetched map outputs, through memory mappings instead
+   * of streams. Keys and values are served from a window copied out of the
+   * mapping, and checksums are verified a window at a time.
+   */
+  public static final String TEZ_RUNTIME_IFILE_MMAP =
+      "tez.runtime.ifile.mmap";
+  public static final boolean TEZ_RUNTIME_IFILE_MMAP_DEFAULT = false;
+
+  /**
+   * Configuration key to set the number of bytes covered by each checksum
+   * in IFiles. With a positive value, a CRC32C follows every block of data,
+   * and readers verify, and fail on, one block at a time. 0 writes a single
+   * CRC32 at the end of the file, which cannot be checked before the whole
+   * file has been read. Like compression, this must be set the same way for
+   * the producer and the consumers of an edge.
+   */
+  public static final String TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE =
+      "tez.runtime.ifile.checksum.block-size";
+  public static final int TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE_DEFAULT = 0;
+
+  /**
+   * Configuration key to enable front coding of keys in the IFiles written
+   * by this task: a key which shares a prefix with the previous key is
+   * written as the length of that prefix and the remaining bytes. Readers
+   * decode either form. The memory to memory merge of the shuffle is not
+   * used when this is set, since its output is sized from its inputs and
+   * re-encoding merged records may take more space.
+   */
+  public static final String TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS =
+      "tez.runtime.ifile.front-code-keys";
+  public static final boolean TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS_DEFAULT = false;
+
   /**
    * TODO Maybe move this over from IFile into this file. -1 for now means ignore.
    */
@@ -96,6 +130,26 @@ public class TezJobConfig {
       "tez.runtime.io.sort.factor";
   public static final int DEFAULT_TEZ_RUNTIME_IO_SORT_FACTOR = 100;
 
+  /**
+   * Number of threads used by a merge. With more than one thread,
+   * intermediate merge passes over on-disk segments are split into groups
+   * which are merged concurrently, and the final merge reads and decompresses
+   * the on-disk segments ahead of the merge on background threads.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_MERGE_PARALLEL_THREADS =
+      "tez.runtime.merge.parallel.threads";
+  public static final int DEFAULT_TEZ_RUNTIME_MERGE_PARALLEL_THREADS = 1;
+
+  /**
+   * Size of the blocks of records read ahead for each on-disk segment of a
+   * final merge, when the merge runs with more than one thread.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_MERGE_PREFETCH_BYTES =
+      "tez.runtime.merge.prefetch.bytes";
+  public static final int DEFAULT_TEZ_RUNTIME_MERGE_PREFETCH_BYTES = 256 * 1024;
+
   /**
    * 
    */
@@ -131,6 +185,89 @@ public class TezJobConfig {
 	      "tez.runtime.sort.threads";
   public static final int DEFAULT_TEZ_RUNTIME_SORT_THREADS = 1;
 
+  /**
+   * Whether the PipelinedSorter allocates its sort buffer off-heap, as direct
+   * ByteBuffers. The JVM must be started with a sufficient
+   * -XX:MaxDirectMemorySize when this is enabled.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_PIPELINED_SORTER_DIRECT_BUFFERS =
+      "tez.runtime.pipelined.sorter.direct-buffers";
+  public static final boolean DEFAULT_TEZ_RUNTIME_PIPELINED_SORTER_DIRECT_BUFFERS = false;
+
+  /**
+   * Size of each chunk of the PipelinedSorter sort buffer, in MB. The sort
+   * buffer is allocated as a chain of chunks of at most this size, which
+   * allows sort buffers larger than 2 GB. 0 allocates a single chunk.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_CHUNK_MB =
+      "tez.runtime.pipelined.sorter.buffer.chunk.mb";
+  public static final int DEFAULT_TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_CHUNK_MB = 0;
+
+  /**
+   * Whether the sorters should compare normalized key prefixes, kept in the
+   * sort metadata, before falling back to the key comparator. A built-in
+   * prefix is used for Text, BytesWritable, IntWritable and LongWritable keys
+   * sorted with their default comparators, unless a prefix class is
+   * configured.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_ENABLED =
+      "tez.runtime.sort.normalized-key-prefix.enabled";
+  public static final boolean DEFAULT_TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_ENABLED = false;
+
+  /**
+   * A NormalizedKeyPrefix implementation matching the intermediate output key
+   * comparator. Only used if normalized key prefixes are enabled.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_CLASS =
+      "tez.runtime.sort.normalized-key-prefix.class";
+
+  /**
+   * Whether the DefaultSorter groups records by partition with a counting
+   * pass before each spill, and then sorts every partition independently.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_PARTITION_FIRST =
+      "tez.runtime.sort.partition-first.enabled";
+  public static final boolean DEFAULT_TEZ_RUNTIME_SORT_PARTITION_FIRST = false;
+
+  /**
+   * Number of threads used to sort partitions concurrently when partition
+   * first sorting is enabled. The configured IndexedSorter must be stateless.
+   * Each thread uses its own instance of the key comparator, so partitions
+   * are only sorted concurrently when the comparator class can be
+   * instantiated, and is not the generic WritableComparator.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_PARTITION_FIRST_THREADS =
+      "tez.runtime.sort.partition-first.threads";
+  public static final int DEFAULT_TEZ_RUNTIME_SORT_PARTITION_FIRST_THREADS = 1;
+
+  /**
+   * Number of threads the DefaultSorter uses to compress and serialize the
+   * partitions of a spill. Combiners are not thread safe, so partitions are
+   * still combined one at a time. With more than one thread, spill files are
+   * also written asynchronously, overlapping with the sort of the next spill.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_SPILL_THREADS =
+      "tez.runtime.sort.spill.threads";
+  public static final int DEFAULT_TEZ_RUNTIME_SORT_SPILL_THREADS = 1;
+
+  /**
+   * Fraction of the sort memory which the DefaultSorter sets aside for the
+   * partitions serialized by concurrent spills, when
+   * {@link #TEZ_RUNTIME_SORT_SPILL_THREADS} is more than one. The sort
+   * buffer is smaller by the same amount.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SORT_SPILL_BUFFER_PERCENT =
+      "tez.runtime.sort.spill.buffer-percent";
+  public static final float DEFAULT_TEZ_RUNTIME_SORT_SPILL_BUFFER_PERCENT = 0.1f;
+
   /**
    * Specifies a partitioner class, which is used in Tez Runtime components
    * like OnFileSortedOutput
@@ -141,6 +278,71 @@ public class TezJobConfig {
    * Specifies a combiner class (primarily for Shuffle)
    */
   public static final String TEZ_RUNTIME_COMBINER_CLASS = "tez.runtime.combiner.class";
+
+  /**
+   * Whether the combiner is turned off for the rest of a task once it is seen
+   * not to reduce the number of records. The ratio of records written to
+   * records read is sampled every time the combiner runs.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_COMBINER_ADAPTIVE =
+      "tez.runtime.combiner.adaptive";
+  public static final boolean DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE = false;
+
+  /**
+   * Number of records an adaptive combiner reads before deciding whether it
+   * is worth running.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS =
+      "tez.runtime.combiner.adaptive.min-records";
+  public static final long DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS =
+      10000;
+
+  /**
+   * Ratio of records written to records read above which an adaptive
+   * combiner is turned off.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO =
+      "tez.runtime.combiner.adaptive.max-ratio";
+  public static final float DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO =
+      0.9f;
+
+  /**
+   * Specifies a pre-aggregator class, which folds the values of equal keys
+   * written to a sorted output in a hash table, ahead of the sort buffer.
+   * With {@link #TEZ_RUNTIME_COMBINER_ADAPTIVE} set, the pre-aggregation is
+   * turned off in the same way as the combiner when it does not reduce the
+   * number of records. If a combiner is configured as well, the
+   * pre-aggregation only starts once the combiner has read
+   * {@link #TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS} records and is seen to
+   * reduce them.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_PRE_AGGREGATOR_CLASS =
+      "tez.runtime.pre-aggregator.class";
+
+  /**
+   * Number of distinct keys held by the pre-aggregation table. The table is
+   * written to the sorter when it is full.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES =
+      "tez.runtime.pre-aggregator.max-entries";
+  public static final int DEFAULT_TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES =
+      64 * 1024;
+
+  /**
+   * Bytes of serialized keys held by the pre-aggregation table. This memory,
+   * and the key and value objects of the table, are in addition to the sort
+   * buffer.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_PRE_AGGREGATOR_MAX_KEY_BYTES =
+      "tez.runtime.pre-aggregator.max-key-bytes";
+  public static final int DEFAULT_TEZ_RUNTIME_PRE_AGGREGATOR_MAX_KEY_BYTES =
+      4 * 1024 * 1024;
   
   public static final String TEZ_RUNTIME_NUM_EXPECTED_PARTITIONS = "tez.runtime.num.expected.partitions";
   
@@ -237,6 +439,70 @@ public class TezJobConfig {
   public final static int DEFAULT_TEZ_RUNTIME_SHUFFLE_BUFFER_SIZE = 
       8 * 1024;
 
+  /**
+   * Size of the buffer each fetcher reuses to copy map outputs which are
+   * shuffled to disk.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_SIZE =
+      "tez.runtime.shuffle.transfer.buffer.size";
+  public final static int DEFAULT_TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_SIZE =
+      64 * 1024;
+
+  /**
+   * Whether the fetcher transfer buffer is allocated off-heap.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_DIRECT =
+      "tez.runtime.shuffle.transfer.buffer.direct";
+  public static final boolean DEFAULT_TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_DIRECT =
+      false;
+
+  /**
+   * Whether buffers for in-memory shuffle inputs are taken from a pool of
+   * size-classed arrays, and returned to it once the input has been merged
+   * or consumed, instead of being left to the garbage collector.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED =
+      "tez.runtime.shuffle.buffer-pool.enabled";
+  public static final boolean DEFAULT_TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED =
+      false;
+
+  /**
+   * Whether compressed map outputs shuffled to memory are kept compressed,
+   * and accounted for at their compressed size, instead of being decompressed
+   * when fetched. They are decompressed as they are read by the merge. The
+   * memory to memory merge is not used when this is set.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_MEMORY_KEEP_COMPRESSED =
+      "tez.runtime.shuffle.memory.keep-compressed";
+  public static final boolean DEFAULT_TEZ_RUNTIME_SHUFFLE_MEMORY_KEEP_COMPRESSED =
+      false;
+
+  /**
+   * Number of fetched inputs an unordered reader decodes ahead of the
+   * consumer, on as many background threads. On-disk inputs are read and
+   * decompressed into memory ahead of time; 0 reads every input on the
+   * consuming thread.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_UNORDERED_READER_PREFETCH_INPUTS =
+      "tez.runtime.unordered.reader.prefetch.inputs";
+  public static final int DEFAULT_TEZ_RUNTIME_UNORDERED_READER_PREFETCH_INPUTS = 0;
+
+  /**
+   * Memory for inputs decoded ahead by an unordered reader, in addition to
+   * the shuffle buffers. Inputs larger than this are read on the consuming
+   * thread.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_UNORDERED_READER_PREFETCH_BUFFER_BYTES =
+      "tez.runtime.unordered.reader.prefetch.buffer.bytes";
+  public static final long DEFAULT_TEZ_RUNTIME_UNORDERED_READER_PREFETCH_BUFFER_BYTES =
+      64 * 1024 * 1024;
+
   /**
    * 
    */
@@ -281,6 +547,29 @@ public class TezJobConfig {
   public static final boolean DEFAULT_TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM = 
       false;
 
+  /**
+   * Map-outputs shuffled to memory which are no larger than this many bytes
+   * are held back by the fetcher, and merged with the others fetched from the
+   * same host into a single in-memory map-output. 0 disables coalescing.
+   */
+  @Private
+  @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_OUTPUT_BYTES =
+      "tez.runtime.shuffle.fetch.coalesce.output-bytes";
+  public static final long DEFAULT_TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_OUTPUT_BYTES =
+      0;
+
+  /**
+   * Upper bound on the bytes of small map-outputs coalesced into a single
+   * in-memory map-output. Capped by the single shuffle limit.
+   */
+  @Private
+  @Unstable
+  public static final String TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_BATCH_BYTES =
+      "tez.runtime.shuffle.fetch.coalesce.batch-bytes";
+  public static final long DEFAULT_TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_BATCH_BYTES =
+      1024 * 1024;
+
   /**
    * 
    */
@@ -335,6 +624,17 @@ public class TezJobConfig {
   public static final String TEZ_RUNTIME_INTERMEDIATE_INPUT_KEY_SECONDARY_COMPARATOR_CLASS = 
       "tez.runtime.intermediate-input.key.secondary.comparator.class";
 
+  /**
+   * Whether the values of every key of a sorted input are returned through a
+   * single Iterable and Iterator, instead of new ones per key. With reuse, a
+   * values iterator which is used after moving to the next key returns the
+   * values of the new key rather than failing.
+   */
+  @Private @Unstable
+  public static final String TEZ_RUNTIME_VALUES_ITERATOR_REUSE =
+      "tez.runtime.values-iterator.reuse";
+  public static final boolean DEFAULT_TEZ_RUNTIME_VALUES_ITERATOR_REUSE = false;
+
   public static final String TEZ_RUNTIME_EMPTY_PARTITION_INFO_VIA_EVENTS_ENABLED =
       "tez.runtime.empty.partitions.info-via-events.enabled";
   public static final boolean TEZ_RUNTIME_EMPTY_PARTITION_INFO_VIA_EVENTS_ENABLED_DEFAULT = true;
@@ -77,6 +77,18 @@ public class TezConfiguration extends Configuration {
       TEZ_AM_PREFIX + "task.listener.thread-count";
   public static final int TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT = 30;
 
+  /**
+   * How long the AM may hold a heartbeat which has no events to return, in
+   * case events for the attempt arrive meanwhile. Only heartbeats of attempts
+   * with source vertices yet to succeed are held, and at most half of the
+   * listener threads hold heartbeats at a time. Events the task sends while
+   * its heartbeat is held, including its completion, wait for the reply.
+   * 0 replies right away.
+   */
+  public static final String TEZ_AM_TASK_LISTENER_LONG_POLL_MS =
+      TEZ_AM_PREFIX + "task.listener.long-poll-ms";
+  public static final long TEZ_AM_TASK_LISTENER_LONG_POLL_MS_DEFAULT = 0;
+
   /*
    * MR AM Service Authorization
    * These are the same as MR which allows Tez to run in secure
@@ -114,6 +126,28 @@ public class TezConfiguration extends Configuration {
       TEZ_AM_PREFIX + "max.task.attempts";
   public static final int TEZ_AM_MAX_TASK_ATTEMPTS_DEFAULT = 4;
 
+  /**
+   * Whether the AM stores the data movement events of scatter-gather edges
+   * once per edge, and routes them when a task asks for its events, instead
+   * of keeping the routed events of every destination task. Cannot be used
+   * with {@link #TEZ_AM_TASK_LISTENER_LONG_POLL_MS}.
+   */
+  public static final String TEZ_AM_EDGE_ROUTE_ON_DEMAND = TEZ_AM_PREFIX
+      + "edge.route-on-demand";
+  public static final boolean TEZ_AM_EDGE_ROUTE_ON_DEMAND_DEFAULT = false;
+
+  /**
+   * Number of threads handling vertex, task and task attempt events in the
+   * AM, each owning the events of a subset of the vertices. DAG events and
+   * container events then get a thread of their own. 0 handles all events on
+   * a single thread. As the events of different vertices are handled
+   * concurrently, and apart from the DAG events, this is experimental. See
+   * VertexShardedDispatcher for the order in which locks are taken.
+   */
+  public static final String TEZ_AM_DISPATCHER_VERTEX_SHARDS = TEZ_AM_PREFIX
+      + "dispatcher.vertex-shards";
+  public static final int TEZ_AM_DISPATCHER_VERTEX_SHARDS_DEFAULT = 0;
+
   public static final String TEZ_AM_NODE_BLACKLISTING_ENABLED = TEZ_AM_PREFIX
       + "node-blacklisting.enabled";
   public static final boolean TEZ_AM_NODE_BLACKLISTING_ENABLED_DEFAULT = true;
@@ -171,6 +205,16 @@ public class TezConfiguration extends Configuration {
       + "am.heartbeat.interval-ms.max";
   public static final int TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT = 100;
 
+  /**
+   * Upper bound to which a task doubles its heartbeat interval while
+   * heartbeats carry no events either way. Events to send end the wait
+   * early. Values up to the heartbeat interval keep it fixed. Together with
+   * the AM long poll, this must be at most half of the task timeout.
+   */
+  public static final String TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX =
+      TEZ_TASK_PREFIX + "am.heartbeat.idle.interval-ms.max";
+  public static final int TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX_DEFAULT = 0;
+
   public static final String TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT = TEZ_TASK_PREFIX
       + "max-events-per-heartbeat.max";
   public static final int TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT_DEFAULT = 100;
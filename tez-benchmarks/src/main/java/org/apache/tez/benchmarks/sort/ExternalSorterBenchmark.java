@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks.sort;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.tez.benchmarks.sort.SyntheticRecords.KeyDistribution;
+import org.apache.tez.benchmarks.sort.SyntheticRecords.KeyType;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.api.TezOutputContext;
+import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
+import org.apache.tez.runtime.library.common.sort.impl.PipelinedSorter;
+import org.apache.tez.runtime.library.common.sort.impl.dflt.DefaultSorter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drives {@link ExternalSorter#write(Object, Object)} followed by
+ * {@link ExternalSorter#flush()} - i.e. collect, sort, spill and the final
+ * merge - over synthetic key distributions.
+ *
+ * Every invocation sorts {@link #records} records with a freshly constructed
+ * sorter. The primary score is complete sorts per second; the
+ * {@link Throughput} counters report records/s and serialized bytes/s.
+ * Allocation rate is reported by running with <code>-prof gc</code>, e.g.
+ *
+ * <pre>
+ * java -jar tez-benchmarks/target/benchmarks.jar ExternalSorterBenchmark \
+ *   -p sorter=default -p keyType=TEXT -p sortMb=32 -prof gc
+ * </pre>
+ *
+ * Lowering <code>sortMb</code> below the serialized data size forces
+ * multiple spills and therefore exercises the TezMerger / IFile read path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ExternalSorterBenchmark {
+
+  @Param({"default", "pipelined"})
+  public String sorter;
+
+  @Param({"TEXT", "BYTES", "LONG"})
+  public KeyType keyType;
+
+  @Param({"UNIFORM", "SKEWED", "DUPLICATES"})
+  public KeyDistribution distribution;
+
+  /** "none" for uncompressed output, otherwise a CompressionCodec class name. */
+  @Param({"none", "org.apache.hadoop.io.compress.DefaultCodec"})
+  public String codec;
+
+  @Param({"false", "true"})
+  public boolean combiner;
+
+  @Param({"1000000"})
+  public int records;
+
+  @Param({"100"})
+  public int sortMb;
+
+  @Param({"10"})
+  public int partitions;
+
+  private Configuration conf;
+  private SyntheticRecords data;
+  private File workDir;
+  private TezCounters counters;
+  private ExternalSorter externalSorter;
+  private int invocation = 0;
+
+  /**
+   * Secondary metrics, reported by JMH as rates over the measurement time.
+   */
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class Throughput {
+    public long records;
+    public long bytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setupTrial() throws IOException {
+    data = new SyntheticRecords(keyType, distribution, records, 0x7e2L);
+    workDir = new File(System.getProperty("java.io.tmpdir"),
+        "tez-benchmarks-" + System.nanoTime());
+    if (!workDir.mkdirs()) {
+      throw new IOException("Unable to create " + workDir);
+    }
+
+    conf = new Configuration();
+    conf.set("fs.defaultFS", "file:///");
+    conf.setStrings(TezJobConfig.LOCAL_DIRS, workDir.getAbsolutePath());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_CLASS,
+        data.getKeyClass().getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_VALUE_CLASS,
+        data.getValueClass().getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_PARTITIONER_CLASS,
+        HashPartitioner.class.getName());
+    conf.setInt(TezJobConfig.TEZ_RUNTIME_IO_SORT_MB, sortMb);
+    if (!"none".equals(codec)) {
+      conf.setBoolean(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_SHOULD_COMPRESS, true);
+      conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_COMPRESS_CODEC, codec);
+    }
+    if (combiner) {
+      conf.set(TezJobConfig.TEZ_RUNTIME_COMBINER_CLASS,
+          LongSumCombiner.class.getName());
+    }
+    if ("pipelined".equals(sorter)) {
+      conf.setInt(TezJobConfig.TEZ_RUNTIME_SORT_THREADS, 2);
+    }
+    // Loaded once so the first invocation does not pay for it.
+    FileSystem.getLocal(conf);
+  }
+
+  @Setup(Level.Invocation)
+  public void setupInvocation() throws IOException {
+    counters = new TezCounters();
+    TezOutputContext outputContext = mock(TezOutputContext.class);
+    when(outputContext.getCounters()).thenReturn(counters);
+    when(outputContext.getUniqueIdentifier()).thenReturn(
+        "benchmark_" + (invocation++));
+    when(outputContext.getDestinationVertexName()).thenReturn("benchmark");
+    when(outputContext.getWorkDirs()).thenReturn(
+        new String[] { workDir.getAbsolutePath() });
+
+    long memory = ((long) sortMb) << 20;
+    if ("pipelined".equals(sorter)) {
+      externalSorter = new PipelinedSorter(outputContext, conf, partitions, memory);
+    } else {
+      externalSorter = new DefaultSorter(outputContext, conf, partitions, memory);
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() throws IOException {
+    externalSorter.close();
+    externalSorter = null;
+    FileUtil.fullyDelete(workDir);
+    workDir.mkdirs();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    FileUtil.fullyDelete(workDir);
+  }
+
+  @Benchmark
+  public long writeAndFlush(Throughput throughput) throws IOException {
+    final int n = data.size();
+    for (int i = 0; i < n; i++) {
+      externalSorter.write(data.getKey(i), data.getValue(i));
+    }
+    externalSorter.flush();
+    throughput.records += n;
+    long bytes = counters.findCounter(TaskCounter.OUTPUT_BYTES).getValue();
+    throughput.bytes += bytes;
+    return bytes;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks.sort;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.tez.runtime.api.TezTaskContext;
+import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+
+/**
+ * A raw-bytes combiner which sums {@link org.apache.hadoop.io.LongWritable}
+ * values of byte-identical keys, i.e. a WordCount style combiner without any
+ * deserialization of keys.
+ */
+public class LongSumCombiner implements Combiner {
+
+  private final DataOutputBuffer previousKey = new DataOutputBuffer();
+  private final DataOutputBuffer valueOut = new DataOutputBuffer();
+  private final DataInputBuffer keyIn = new DataInputBuffer();
+  private final DataInputBuffer valueIn = new DataInputBuffer();
+
+  public LongSumCombiner(TezTaskContext taskContext) {
+  }
+
+  @Override
+  public void combine(TezRawKeyValueIterator rawIter, Writer writer)
+      throws InterruptedException, IOException {
+    boolean havePrevious = false;
+    long sum = 0;
+    while (rawIter.next()) {
+      DataInputBuffer key = rawIter.getKey();
+      DataInputBuffer value = rawIter.getValue();
+      int keyLength = key.getLength() - key.getPosition();
+      long current = WritableComparator.readLong(value.getData(), value.getPosition());
+      if (havePrevious
+          && WritableComparator.compareBytes(previousKey.getData(), 0,
+              previousKey.getLength(), key.getData(), key.getPosition(), keyLength) == 0) {
+        sum += current;
+        continue;
+      }
+      if (havePrevious) {
+        emit(writer, sum);
+      }
+      previousKey.reset();
+      previousKey.write(key.getData(), key.getPosition(), keyLength);
+      sum = current;
+      havePrevious = true;
+    }
+    if (havePrevious) {
+      emit(writer, sum);
+    }
+  }
+
+  private void emit(Writer writer, long sum) throws IOException {
+    keyIn.reset(previousKey.getData(), previousKey.getLength());
+    valueOut.reset();
+    valueOut.writeLong(sum);
+    valueIn.reset(valueOut.getData(), valueOut.getLength());
+    writer.append(keyIn, valueIn);
+  }
+}
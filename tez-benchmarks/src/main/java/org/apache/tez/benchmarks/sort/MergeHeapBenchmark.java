@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.PriorityQueue;
+import org.apache.tez.runtime.library.common.sort.impl.LoserTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares the k-way merge structures behind TezMerger and PipelinedSorter:
+ * the {@link LoserTree} against the binary heap of
+ * {@link org.apache.hadoop.util.PriorityQueue} which it replaced.
+ *
+ * Every invocation merges {@link #records} raw keys spread over
+ * {@link #segments} sorted runs. The keys share a long prefix, as in
+ * {@link SyntheticRecords}, so that each comparison does real work. The
+ * {@link Counters} report merged records/s and key comparisons/s; their ratio
+ * is the number of comparisons per record, e.g.
+ *
+ * <pre>
+ * java -jar tez-benchmarks/target/benchmarks.jar MergeHeapBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class MergeHeapBenchmark {
+
+  private static final byte[] KEY_PREFIX =
+      "tez-benchmark-merge-key-".getBytes(Charsets.UTF_8);
+
+  private static final Comparator<byte[]> RAW_ORDER = new Comparator<byte[]>() {
+    @Override
+    public int compare(byte[] k1, byte[] k2) {
+      return WritableComparator.compareBytes(k1, 0, k1.length,
+          k2, 0, k2.length);
+    }
+  };
+
+  @Param({"loser", "heap"})
+  public String structure;
+
+  @Param({"10", "100", "1000"})
+  public int segments;
+
+  @Param({"1000000"})
+  public int records;
+
+  private byte[][][] runs;
+
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class Counters {
+    public long records;
+    public long comparisons;
+  }
+
+  /** A sorted run of keys, positioned at its current key. */
+  private static final class Cursor {
+    final byte[][] keys;
+    int pos = 0;
+
+    Cursor(byte[][] keys) {
+      this.keys = keys;
+    }
+
+    byte[] key() {
+      return keys[pos];
+    }
+
+    boolean next() {
+      return ++pos < keys.length;
+    }
+  }
+
+  private long comparisons;
+
+  private boolean less(Cursor a, Cursor b) {
+    comparisons++;
+    byte[] k1 = a.key();
+    byte[] k2 = b.key();
+    return WritableComparator.compareBytes(k1, 0, k1.length,
+        k2, 0, k2.length) < 0;
+  }
+
+  private final class CursorTree extends LoserTree<Cursor> {
+    @Override
+    protected boolean lessThan(Cursor a, Cursor b) {
+      return less(a, b);
+    }
+  }
+
+  private final class CursorHeap extends PriorityQueue<Cursor> {
+    CursorHeap(int size) {
+      initialize(size);
+    }
+
+    @Override
+    protected boolean lessThan(Object a, Object b) {
+      return less((Cursor) a, (Cursor) b);
+    }
+  }
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0x10e5L);
+    runs = new byte[segments][][];
+    int perRun = records / segments;
+    for (int i = 0; i < segments; i++) {
+      byte[][] keys = new byte[perRun][];
+      for (int j = 0; j < perRun; j++) {
+        keys[j] = key(random.nextInt(Integer.MAX_VALUE));
+      }
+      Arrays.sort(keys, RAW_ORDER);
+      runs[i] = keys;
+    }
+  }
+
+  private static byte[] key(int id) {
+    byte[] key = Arrays.copyOf(KEY_PREFIX, KEY_PREFIX.length + 4);
+    for (int i = 0; i < 4; i++) {
+      key[KEY_PREFIX.length + i] = (byte) (id >>> (24 - 8 * i));
+    }
+    return key;
+  }
+
+  @Benchmark
+  public long merge(Counters counters) {
+    comparisons = 0;
+    long merged = 0;
+    long checksum = 0;
+    if ("loser".equals(structure)) {
+      CursorTree tree = new CursorTree();
+      tree.initialize(segments);
+      for (byte[][] run : runs) {
+        tree.put(new Cursor(run));
+      }
+      Cursor top;
+      while ((top = tree.top()) != null) {
+        checksum += top.key()[KEY_PREFIX.length];
+        merged++;
+        if (top.next()) {
+          tree.adjustTop();
+        } else {
+          tree.pop();
+        }
+      }
+    } else {
+      CursorHeap heap = new CursorHeap(segments);
+      for (byte[][] run : runs) {
+        heap.put(new Cursor(run));
+      }
+      Cursor top;
+      while ((top = heap.top()) != null) {
+        checksum += top.key()[KEY_PREFIX.length];
+        merged++;
+        if (top.next()) {
+          heap.adjustTop();
+        } else {
+          heap.pop();
+        }
+      }
+    }
+    counters.records += merged;
+    counters.comparisons += comparisons;
+    return checksum;
+  }
+}
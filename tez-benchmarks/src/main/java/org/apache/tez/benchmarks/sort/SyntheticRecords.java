@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.benchmarks.sort;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Deterministic, allocation-free source of key/value pairs for the sort
+ * benchmarks. Key ids are drawn up front from the requested distribution so
+ * that generating a record during the measured section only mutates a reused
+ * {@link Writable}. Values are always {@link LongWritable} ones, which keeps
+ * them combinable by {@link LongSumCombiner}.
+ */
+public class SyntheticRecords {
+
+  /**
+   * Shared by every TEXT / BYTES key, so comparisons cannot be decided on the
+   * first few bytes - this is the common case for ETL style string keys.
+   */
+  private static final byte[] KEY_PREFIX =
+      "tez-benchmark-synthetic-key-".getBytes(Charsets.UTF_8);
+  private static final int TEXT_ID_DIGITS = 10;
+
+  public enum KeyType {
+    TEXT(Text.class),
+    BYTES(BytesWritable.class),
+    LONG(LongWritable.class);
+
+    private final Class<? extends Writable> keyClass;
+
+    private KeyType(Class<? extends Writable> keyClass) {
+      this.keyClass = keyClass;
+    }
+
+    public Class<? extends Writable> getKeyClass() {
+      return keyClass;
+    }
+  }
+
+  public enum KeyDistribution {
+    /** Every key id is equally likely; almost all keys are distinct. */
+    UNIFORM {
+      @Override
+      int nextId(Random random, int keySpace) {
+        return random.nextInt(keySpace);
+      }
+    },
+    /** Power-law skew: a small set of ids receives most of the records. */
+    SKEWED {
+      @Override
+      int nextId(Random random, int keySpace) {
+        double d = random.nextDouble();
+        return (int) (keySpace * d * d * d * d);
+      }
+    },
+    /** A handful of distinct keys, each repeated many times. */
+    DUPLICATES {
+      @Override
+      int nextId(Random random, int keySpace) {
+        return random.nextInt(Math.min(keySpace, 64));
+      }
+    };
+
+    abstract int nextId(Random random, int keySpace);
+  }
+
+  private final KeyType keyType;
+  private final int[] ids;
+  private final byte[] scratch;
+
+  private final Text textKey = new Text();
+  private final BytesWritable bytesKey = new BytesWritable();
+  private final LongWritable longKey = new LongWritable();
+  private final LongWritable value = new LongWritable(1);
+
+  public SyntheticRecords(KeyType keyType, KeyDistribution distribution,
+      int numRecords, long seed) {
+    this.keyType = keyType;
+    this.ids = new int[numRecords];
+    Random random = new Random(seed);
+    for (int i = 0; i < numRecords; i++) {
+      ids[i] = distribution.nextId(random, numRecords);
+    }
+    this.scratch = new byte[KEY_PREFIX.length + TEXT_ID_DIGITS];
+    System.arraycopy(KEY_PREFIX, 0, scratch, 0, KEY_PREFIX.length);
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public Class<? extends Writable> getKeyClass() {
+    return keyType.getKeyClass();
+  }
+
+  public Class<? extends Writable> getValueClass() {
+    return LongWritable.class;
+  }
+
+  /**
+   * Returns the key for record <code>i</code>. The returned object is reused
+   * by the next call.
+   */
+  public Writable getKey(int i) {
+    int id = ids[i];
+    switch (keyType) {
+    case TEXT:
+      for (int pos = scratch.length - 1; pos >= KEY_PREFIX.length; pos--) {
+        scratch[pos] = (byte) ('0' + (id % 10));
+        id /= 10;
+      }
+      textKey.set(scratch, 0, scratch.length);
+      return textKey;
+    case BYTES:
+      int pos = KEY_PREFIX.length;
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        scratch[pos++] = (byte) (id >>> shift);
+      }
+      bytesKey.set(scratch, 0, pos);
+      return bytesKey;
+    case LONG:
+      longKey.set(id);
+      return longKey;
+    default:
+      throw new IllegalStateException("Unknown key type: " + keyType);
+    }
+  }
+
+  public Writable getValue(int i) {
+    return value;
+  }
+}
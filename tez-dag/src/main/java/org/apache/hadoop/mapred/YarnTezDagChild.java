@@ -111,6 +111,10 @@ public class YarnTezDagChild {
       new LinkedBlockingQueue<TezEvent>();
   private static AtomicLong requestCounter = new AtomicLong(0);
   private static long amPollInterval;
+  // the interval doubles up to this while heartbeats carry no events
+  private static long amMaxIdlePollInterval;
+  private static long idlePollInterval;
+  private static volatile boolean lastHeartbeatIdle = false;
   private static TezTaskUmbilicalProtocol umbilical;
   private static ReentrantReadWriteLock taskLock = new ReentrantReadWriteLock();
   private static LogicalIOProcessorRuntimeTask currentTask = null;
@@ -162,6 +166,7 @@ public class YarnTezDagChild {
               break;
             }
             Thread.sleep(amPollInterval);
+            waitWhileIdle();
           } catch (InterruptedException e) {
             // we were interrupted so that we will stop.
             LOG.info("Heartbeat thread interrupted. " +
@@ -193,6 +198,28 @@ public class YarnTezDagChild {
     return heartbeatThread;
   }
 
+  /**
+   * Back off from the heartbeat interval while heartbeats carry no events,
+   * until there are events to send.
+   */
+  private static void waitWhileIdle() throws InterruptedException {
+    if (!lastHeartbeatIdle) {
+      idlePollInterval = amPollInterval;
+      return;
+    }
+    idlePollInterval = Math.min(Math.max(idlePollInterval, 1) * 2,
+        amMaxIdlePollInterval);
+    long waitTime = idlePollInterval - amPollInterval;
+    if (waitTime <= 0) {
+      return;
+    }
+    synchronized (eventsToSend) {
+      if (eventsToSend.isEmpty()) {
+        eventsToSend.wait(waitTime);
+      }
+    }
+  }
+
   private static synchronized boolean heartbeat() throws TezException, IOException {
     return heartbeat(null);
   }
@@ -249,6 +276,7 @@ public class YarnTezDagChild {
       }
     }
 
+    boolean sentEvents = events.size() > (updateEvent == null ? 0 : 1);
     long reqId = requestCounter.incrementAndGet();
     TezHeartbeatRequest request = new TezHeartbeatRequest(reqId, events,
         containerIdStr, taskAttemptID, eventCounter, eventsRange);
@@ -270,6 +298,8 @@ public class YarnTezDagChild {
           + ", responseReqId=" + response.getLastRequestId()
           + ", expectedReqId=" + reqId);
     }
+    lastHeartbeatIdle = !sentEvents
+        && (response.getEvents() == null || response.getEvents().isEmpty());
     try {
       taskLock.readLock().lock();
       if (taskAttemptID == null
@@ -344,6 +374,10 @@ public class YarnTezDagChild {
     amPollInterval = defaultConf.getLong(
         TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS,
         TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT);
+    amMaxIdlePollInterval = defaultConf.getLong(
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX,
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX_DEFAULT);
+    idlePollInterval = amPollInterval;
     maxEventsToGet = defaultConf.getInt(
         TezConfiguration.TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT,
         TezConfiguration.TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT_DEFAULT);
@@ -375,6 +409,10 @@ public class YarnTezDagChild {
       @Override
       public void addEvents(Collection<TezEvent> events) {
         eventsToSend.addAll(events);
+        synchronized (eventsToSend) {
+          // end an idle wait of the heartbeat thread
+          eventsToSend.notifyAll();
+        }
       }
 
       @Override
@@ -418,6 +418,14 @@ public class DAGAppMaster extends AbstractService {
   
   @VisibleForTesting
   protected Dispatcher createDispatcher() {
+    int numShards = amConf.getInt(
+        TezConfiguration.TEZ_AM_DISPATCHER_VERTEX_SHARDS,
+        TezConfiguration.TEZ_AM_DISPATCHER_VERTEX_SHARDS_DEFAULT);
+    if (numShards > 0) {
+      LOG.info("Handling vertex, task and attempt events on " + numShards
+          + " threads");
+      return new VertexShardedDispatcher(numShards);
+    }
     return new AsyncDispatcher();
   }
 
@@ -501,6 +509,7 @@ public class DAGAppMaster extends AbstractService {
           if (!sessionStopped.get()) {
             LOG.info("Waiting for next DAG to be submitted.");
             this.taskSchedulerEventHandler.dagCompleted();
+            this.taskAttemptListener.dagCompleted();
             state = DAGAppMasterState.IDLE;
           } else {
             LOG.info("Session shutting down now.");
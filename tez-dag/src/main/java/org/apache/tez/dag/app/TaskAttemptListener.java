@@ -22,6 +22,7 @@ import java.net.InetSocketAddress;
 
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezVertexID;
 /**
  * This class listens for changes to the state of a Task.
  */
@@ -41,6 +42,17 @@ public interface TaskAttemptListener {
 //  void unregisterRunningJvm(WrappedJvmID jvmID);
   
   void unregisterTaskAttempt(TezTaskAttemptID attemptID);
+
+  /**
+   * Drop the state kept for a vertex which reached a final state.
+   */
+  void vertexCompleted(TezVertexID vertexId);
+
+  /**
+   * Drop the state kept for the vertices of the DAG which completed.
+   */
+  void dagCompleted();
+
   /**
    * Register a JVM with the listener.  This should be called as soon as a 
    * JVM ID is assigned to a task attempt, before it has been launched.
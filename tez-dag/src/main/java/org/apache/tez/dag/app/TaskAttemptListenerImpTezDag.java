@@ -20,11 +20,14 @@ package org.apache.tez.dag.app;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,8 +50,12 @@ import org.apache.tez.common.TezConverterUtils;
 import org.apache.tez.common.TezLocalResource;
 import org.apache.tez.common.TezTaskUmbilicalProtocol;
 import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
 import org.apache.tez.dag.app.dag.DAG;
 import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.VertexState;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventStartedRemotely;
 import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
 import org.apache.tez.dag.app.rm.container.AMContainerImpl;
@@ -81,6 +88,11 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
   private InetSocketAddress address;
   private Server server;
 
+  // heartbeats without events may wait this long for events to arrive
+  private long longPollMillis;
+  private int maxHeldHeartbeats;
+  private final AtomicInteger heldHeartbeats = new AtomicInteger();
+
   class ContainerInfo {
     ContainerInfo(ContainerId containerId) {
       this.containerId = containerId;
@@ -100,6 +112,59 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
   private ConcurrentHashMap<ContainerId, ContainerInfo> registeredContainers =
       new ConcurrentHashMap<ContainerId, ContainerInfo>();
 
+  // events from heartbeats, per vertex, not yet taken by a route event
+  private final ConcurrentMap<TezVertexID, RouteEventBatch> routeEventBatches =
+      new ConcurrentHashMap<TezVertexID, RouteEventBatch>();
+
+  // states in which a vertex ignores route events, so a batch is never taken
+  private static final EnumSet<VertexState> ROUTE_EVENTS_IGNORED =
+      EnumSet.of(VertexState.TERMINATING, VertexState.FAILED,
+          VertexState.KILLED, VertexState.ERROR);
+
+  private static class RouteEventBatch {
+    private List<TezEvent> events = new ArrayList<TezEvent>();
+
+    /**
+     * @return whether the batch was empty, and a route event has to be sent
+     *         to take the events
+     */
+    synchronized boolean add(List<TezEvent> newEvents) {
+      boolean wasEmpty = events.isEmpty();
+      events.addAll(newEvents);
+      return wasEmpty;
+    }
+
+    synchronized List<TezEvent> take() {
+      List<TezEvent> taken = events;
+      events = new ArrayList<TezEvent>();
+      return taken;
+    }
+  }
+
+  /**
+   * Routes the events batched for a vertex when it is handled, so heartbeats
+   * arriving while it is queued add to it rather than send route events of
+   * their own.
+   */
+  private static class BatchedVertexEventRouteEvent extends
+      VertexEventRouteEvent {
+    private final RouteEventBatch batch;
+    private List<TezEvent> takenEvents;
+
+    BatchedVertexEventRouteEvent(TezVertexID vertexId, RouteEventBatch batch) {
+      super(vertexId, null);
+      this.batch = batch;
+    }
+
+    @Override
+    public synchronized List<TezEvent> getEvents() {
+      if (takenEvents == null) {
+        takenEvents = batch.take();
+      }
+      return takenEvents;
+    }
+  }
+
   public TaskAttemptListenerImpTezDag(AppContext context,
       TaskHeartbeatHandler thh, ContainerHeartbeatHandler chh,
       JobTokenSecretManager jobTokenSecretManager) {
@@ -110,6 +175,42 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     this.containerHeartbeatHandler = chh;
   }
 
+  @Override
+  public void serviceInit(Configuration conf) {
+    longPollMillis = conf.getLong(
+        TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS_DEFAULT);
+    maxHeldHeartbeats = conf.getInt(
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT) / 2;
+    // events routed on demand stay with their edge, and do not wake up a
+    // held heartbeat, which would only ever time out
+    if (longPollMillis > 0 && conf.getBoolean(
+        TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND,
+        TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND_DEFAULT)) {
+      throw new TezUncheckedException("Invalid configuration: "
+          + TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS
+          + " cannot be used with "
+          + TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND);
+    }
+    // a task is taken as lost when not heard from within the timeout, leave
+    // room for a heartbeat to be missed while idle and held
+    int taskTimeout = conf.getInt(TezConfiguration.TASK_TIMEOUT, 5 * 60 * 1000);
+    long maxIdleInterval = conf.getLong(
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX,
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX_DEFAULT);
+    if (taskTimeout > 0
+        && Math.max(longPollMillis, 0) + Math.max(maxIdleInterval, 0)
+            > taskTimeout / 2) {
+      throw new TezUncheckedException("Invalid configuration: "
+          + TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX + "="
+          + maxIdleInterval + " and "
+          + TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS + "="
+          + longPollMillis + " must add up to at most half of "
+          + TezConfiguration.TASK_TIMEOUT + "=" + taskTimeout);
+    }
+  }
+
   @Override
   public void serviceStart() {
     startRpcServer();
@@ -117,15 +218,16 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
 
   protected void startRpcServer() {
     Configuration conf = getConfig();
+    int numHandlers = conf.getInt(
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT);
     try {
       server = new RPC.Builder(conf)
           .setProtocol(TezTaskUmbilicalProtocol.class)
           .setBindAddress("0.0.0.0")
           .setPort(0)
           .setInstance(this)
-          .setNumHandlers(
-              conf.getInt(TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
-                  TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT))
+          .setNumHandlers(numHandlers)
           .setSecretManager(jobTokenSecretManager).build();
 
       // Enable service authorization?
@@ -487,18 +589,23 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
           LOG.debug("Ping from " + taskAttemptID.toString() +
               " events: " + (inEvents != null? inEvents.size() : -1));
         }
+        Vertex vertex = context.getCurrentDAG().getVertex(
+            taskAttemptID.getTaskID().getVertexID());
         if(inEvents!=null && !inEvents.isEmpty()) {
-          TezVertexID vertexId = taskAttemptID.getTaskID().getVertexID();
-          context.getEventHandler().handle(
-              new VertexEventRouteEvent(vertexId, inEvents));
+          routeEvents(vertex, inEvents);
         }
         taskHeartbeatHandler.pinged(taskAttemptID);
-        List<TezEvent> outEvents = context
-            .getCurrentDAG()
-            .getVertex(taskAttemptID.getTaskID().getVertexID())
-            .getTask(taskAttemptID.getTaskID())
-            .getTaskAttemptTezEvents(taskAttemptID, request.getStartIndex(),
-                request.getMaxEvents());
+        Task task = vertex.getTask(taskAttemptID.getTaskID());
+        List<TezEvent> outEvents = task.getTaskAttemptTezEvents(taskAttemptID,
+            request.getStartIndex(), request.getMaxEvents());
+        if (outEvents.isEmpty() && longPollMillis > 0
+            && (inEvents == null || inEvents.isEmpty())
+            && isRunning(task, taskAttemptID)
+            && hasIncompleteInputs(vertex)
+            && waitForTezEvents(task, request.getStartIndex())) {
+          outEvents = task.getTaskAttemptTezEvents(taskAttemptID,
+              request.getStartIndex(), request.getMaxEvents());
+        }
         response.setEvents(outEvents);
       }
       containerInfo.lastRequestId = requestId;
@@ -507,6 +614,83 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     }
   }
 
+  // only idle heartbeats of running attempts are held, a heartbeat carrying
+  // events, such as the completion of the attempt, is answered at once
+  private boolean isRunning(Task task, TezTaskAttemptID attemptId) {
+    TaskAttempt attempt = task.getAttempt(attemptId);
+    return attempt != null && attempt.getState() == TaskAttemptState.RUNNING;
+  }
+
+  // only attempts which may still get events from their source vertices are
+  // held. Attempts of vertices with root inputs alone, or whose sources all
+  // succeeded, only produce events, which holding would delay
+  private boolean hasIncompleteInputs(Vertex vertex) {
+    for (Vertex sourceVertex : vertex.getInputVertices().keySet()) {
+      if (sourceVertex.getState() != VertexState.SUCCEEDED) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Hold the heartbeat until there are events for the attempt, unless too
+   * many heartbeats are held already.
+   * 
+   * @return whether the heartbeat was held
+   */
+  private boolean waitForTezEvents(Task task, int fromEventId) {
+    if (heldHeartbeats.incrementAndGet() > maxHeldHeartbeats) {
+      heldHeartbeats.decrementAndGet();
+      return false;
+    }
+    try {
+      task.waitForTaskAttemptTezEvents(fromEventId, longPollMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      heldHeartbeats.decrementAndGet();
+    }
+    return true;
+  }
+
+  private void routeEvents(Vertex vertex, List<TezEvent> events) {
+    TezVertexID vertexId = vertex.getVertexId();
+    if (ROUTE_EVENTS_IGNORED.contains(vertex.getState())) {
+      // a batch posted before the vertex got here is never taken, drop it
+      // rather than add to it
+      routeEventBatches.remove(vertexId);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Dropping " + events.size() + " events for vertex "
+            + vertexId + " in state " + vertex.getState());
+      }
+      return;
+    }
+    RouteEventBatch batch = routeEventBatches.get(vertexId);
+    if (batch == null) {
+      RouteEventBatch newBatch = new RouteEventBatch();
+      batch = routeEventBatches.putIfAbsent(vertexId, newBatch);
+      if (batch == null) {
+        batch = newBatch;
+      }
+    }
+    if (batch.add(events)) {
+      context.getEventHandler().handle(
+          new BatchedVertexEventRouteEvent(vertexId, batch));
+    }
+  }
+
+  @Override
+  public void vertexCompleted(TezVertexID vertexId) {
+    // a route event still queued holds on to its batch, and takes it as usual
+    routeEventBatches.remove(vertexId);
+  }
+
+  @Override
+  public void dagCompleted() {
+    routeEventBatches.clear();
+  }
+
   private Map<String, TezLocalResource> convertLocalResourceMap(Map<String, LocalResource> ylrs)
       throws IOException {
     Map<String, TezLocalResource> tlrs = Maps.newHashMap();
@@ -0,0 +1,209 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.dag.app;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.service.CompositeService;
+import org.apache.hadoop.yarn.event.AsyncDispatcher;
+import org.apache.hadoop.yarn.event.Dispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.dag.app.dag.event.DAGAppMasterEventType;
+import org.apache.tez.dag.app.dag.event.DAGEventType;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEvent;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventType;
+import org.apache.tez.dag.app.dag.event.TaskEvent;
+import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.app.dag.event.VertexEvent;
+import org.apache.tez.dag.app.dag.event.VertexEventType;
+import org.apache.tez.dag.app.rm.container.AMContainerEventType;
+import org.apache.tez.dag.app.rm.node.AMNodeEventType;
+import org.apache.tez.dag.records.TezVertexID;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A {@link Dispatcher} which handles vertex, task and task attempt events on
+ * a number of threads, keyed by the vertex they belong to, so the events of a
+ * vertex are handled in the order they were sent. DAG events, container and
+ * node events, and all other events are each handled on a thread of their
+ * own.
+ * <p>
+ * A vertex, its tasks and their attempts are only changed on the thread of
+ * the vertex, so their write locks are never held by two threads at once.
+ * Locks are taken in the order DAG, vertex, task, task attempt. Calls made
+ * into another object while holding a write lock do not lock in the other
+ * direction:
+ * <ul>
+ * <li>the DAG reads its vertices and tasks, for counters and progress, under
+ * its write lock. {@link org.apache.tez.dag.app.dag.DAG#getVertex} does not
+ * lock, for vertices and tasks to look up vertices.</li>
+ * <li>a vertex reads the tasks of another vertex through their edge, e.g. to
+ * route an input read error to the source task.
+ * {@link org.apache.tez.dag.app.dag.Vertex#getTask} and
+ * {@link org.apache.tez.dag.app.dag.Vertex#getTotalTasks} do not lock.</li>
+ * <li>an {@link org.apache.tez.dag.app.dag.impl.Edge} is read on the threads
+ * of both its vertices, and replaces its edge manager only once initialized.
+ * </li>
+ * </ul>
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class VertexShardedDispatcher extends CompositeService implements
+    Dispatcher {
+
+  private static final Log LOG =
+      LogFactory.getLog(VertexShardedDispatcher.class);
+
+  private final AsyncDispatcher dagDispatcher;
+  private final AsyncDispatcher containerDispatcher;
+  private final AsyncDispatcher defaultDispatcher;
+  private final AsyncDispatcher[] shardDispatchers;
+  private final EventHandler[] shardHandlers;
+  private final BlockingQueue<Event>[] shardQueues;
+  private final AtomicIntegerArray maxShardQueueSizes;
+  private final EventHandler handlerInstance = new ShardingEventHandler();
+
+  public VertexShardedDispatcher(int numShards) {
+    super(VertexShardedDispatcher.class.getName());
+    if (numShards <= 0) {
+      throw new IllegalArgumentException("Invalid number of shards: "
+          + numShards);
+    }
+    dagDispatcher = new AsyncDispatcher();
+    containerDispatcher = new AsyncDispatcher();
+    defaultDispatcher = new AsyncDispatcher();
+    addService(dagDispatcher);
+    addService(containerDispatcher);
+    addService(defaultDispatcher);
+    shardDispatchers = new AsyncDispatcher[numShards];
+    shardHandlers = new EventHandler[numShards];
+    shardQueues = new BlockingQueue[numShards];
+    maxShardQueueSizes = new AtomicIntegerArray(numShards);
+    for (int i = 0; i < numShards; i++) {
+      shardQueues[i] = new LinkedBlockingQueue<Event>();
+      shardDispatchers[i] = new AsyncDispatcher(shardQueues[i]);
+      shardHandlers[i] = shardDispatchers[i].getEventHandler();
+      addService(shardDispatchers[i]);
+    }
+  }
+
+  @Override
+  public EventHandler getEventHandler() {
+    return handlerInstance;
+  }
+
+  @Override
+  public void register(Class<? extends Enum> eventType, EventHandler handler) {
+    if (isSharded(eventType)) {
+      for (AsyncDispatcher shardDispatcher : shardDispatchers) {
+        shardDispatcher.register(eventType, handler);
+      }
+    } else {
+      getDispatcher(eventType).register(eventType, handler);
+    }
+  }
+
+  public int getNumShards() {
+    return shardDispatchers.length;
+  }
+
+  /**
+   * @return the number of events waiting to be handled by a shard
+   */
+  public int getShardQueueSize(int shard) {
+    return shardQueues[shard].size();
+  }
+
+  /**
+   * @return the largest number of events seen waiting for a shard
+   */
+  public int getMaxShardQueueSize(int shard) {
+    return maxShardQueueSizes.get(shard);
+  }
+
+  @Override
+  protected void serviceStop() throws Exception {
+    for (int i = 0; i < shardDispatchers.length; i++) {
+      LOG.info("Event queue of shard " + i + " peaked at "
+          + maxShardQueueSizes.get(i) + " events");
+    }
+    super.serviceStop();
+  }
+
+  private static boolean isSharded(Class<? extends Enum> eventType) {
+    return eventType == VertexEventType.class
+        || eventType == TaskEventType.class
+        || eventType == TaskAttemptEventType.class;
+  }
+
+  private AsyncDispatcher getDispatcher(Class<? extends Enum> eventType) {
+    if (eventType == DAGEventType.class
+        || eventType == DAGAppMasterEventType.class) {
+      return dagDispatcher;
+    }
+    if (eventType == AMContainerEventType.class
+        || eventType == AMNodeEventType.class) {
+      return containerDispatcher;
+    }
+    return defaultDispatcher;
+  }
+
+  @VisibleForTesting
+  int getShard(Event event) {
+    TezVertexID vertexId;
+    if (event instanceof VertexEvent) {
+      vertexId = ((VertexEvent) event).getVertexId();
+    } else if (event instanceof TaskEvent) {
+      vertexId = ((TaskEvent) event).getTaskID().getVertexID();
+    } else if (event instanceof TaskAttemptEvent) {
+      vertexId = ((TaskAttemptEvent) event).getTaskAttemptID().getTaskID()
+          .getVertexID();
+    } else {
+      throw new IllegalArgumentException("No vertex for event " + event);
+    }
+    return vertexId.getId() % shardDispatchers.length;
+  }
+
+  private class ShardingEventHandler implements EventHandler<Event> {
+    @Override
+    public void handle(Event event) {
+      Class<? extends Enum> eventType = event.getType().getDeclaringClass();
+      if (!isSharded(eventType)) {
+        getDispatcher(eventType).getEventHandler().handle(event);
+        return;
+      }
+      int shard = getShard(event);
+      shardHandlers[shard].handle(event);
+      int queueSize = shardQueues[shard].size();
+      int maxQueueSize = maxShardQueueSizes.get(shard);
+      while (queueSize > maxQueueSize
+          && !maxShardQueueSizes.compareAndSet(shard, maxQueueSize, queueSize)) {
+        maxQueueSize = maxShardQueueSizes.get(shard);
+      }
+      if (queueSize != 0 && queueSize % 1000 == 0) {
+        LOG.info("Size of event-queue of shard " + shard + " is " + queueSize);
+      }
+    }
+  }
+}
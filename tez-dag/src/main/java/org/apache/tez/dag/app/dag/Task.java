@@ -78,6 +78,13 @@ public interface Task {
   
   public List<TezEvent> getTaskAttemptTezEvents(TezTaskAttemptID attemptID,
       int fromEventId, int maxEvents);
+
+  /**
+   * Wait until the task has events for its attempts after fromEventId, or
+   * until the timeout expires. May return early if the task cannot tell.
+   */
+  public void waitForTaskAttemptTezEvents(int fromEventId, long timeoutMillis)
+      throws InterruptedException;
   
   public List<String> getDiagnostics();
 
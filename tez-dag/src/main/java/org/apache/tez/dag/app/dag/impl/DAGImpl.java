@@ -466,12 +466,10 @@ public class DAGImpl implements org.apache.tez.dag.app.dag.DAG,
 
   @Override
   public Vertex getVertex(TezVertexID vertexID) {
-    readLock.lock();
-    try {
-      return vertices.get(vertexID);
-    } finally {
-      readLock.unlock();
-    }
+    // the vertices are all added on init, before any of their events are
+    // handled, and not changed after. Not taking the lock lets vertices and
+    // tasks look up a vertex while holding their own write lock
+    return vertices.get(vertexID);
   }
 
   @Override
@@ -1242,7 +1240,9 @@ public class DAGImpl implements org.apache.tez.dag.app.dag.DAG,
 
       // edge manager may be also set via API when using custom edge type
       dag.edges.put(edgePlan.getId(),
-          new Edge(edgeProperty, dag.getEventHandler()));
+          new Edge(edgeProperty, dag.getEventHandler(), dag.conf.getBoolean(
+              TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND,
+              TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND_DEFAULT)));
     }
   }
 
@@ -85,9 +85,11 @@ public class Edge {
     }
   }
 
-  private EdgeProperty edgeProperty;
-  private EdgeManagerContext edgeManagerContext;
-  private EdgeManager edgeManager;
+  // replaced by setCustomEdgeManager on the thread of the destination vertex,
+  // and read on the threads of the source vertex and of heartbeats
+  private volatile EdgeProperty edgeProperty;
+  private volatile EdgeManagerContext edgeManagerContext;
+  private volatile EdgeManager edgeManager;
   @SuppressWarnings("rawtypes")
   private EventHandler eventHandler;
   private AtomicBoolean bufferEvents = new AtomicBoolean(false);
@@ -95,30 +97,42 @@ public class Edge {
   private List<TezEvent> sourceEventBuffer = new ArrayList<TezEvent>();
   private Vertex sourceVertex;
   private Vertex destinationVertex; // this may end up being a list for shared edge
-  private EventMetaData destinationMetaInfo;
+  private volatile EventMetaData destinationMetaInfo;
+  // source events stored once, and routed when a destination task asks for
+  // its events, instead of being sent to every destination task
+  private final boolean routeOnDemand;
+  private final List<TezEvent> storedEvents = new ArrayList<TezEvent>();
 
   @SuppressWarnings("rawtypes")
   public Edge(EdgeProperty edgeProperty, EventHandler eventHandler) {
+    this(edgeProperty, eventHandler, false);
+  }
+
+  /**
+   * @param routeOnDemand store the data movement events of a scatter-gather
+   *          edge, see {@link #routeStoredEvents(int, int, int, List)}
+   */
+  @SuppressWarnings("rawtypes")
+  public Edge(EdgeProperty edgeProperty, EventHandler eventHandler,
+      boolean routeOnDemand) {
     this.edgeProperty = edgeProperty;
     this.eventHandler = eventHandler;
-    createEdgeManager();
+    this.routeOnDemand = routeOnDemand
+        && edgeProperty.getDataMovementType() == DataMovementType.SCATTER_GATHER;
+    this.edgeManager = createEdgeManager(edgeProperty);
   }
 
-  private void createEdgeManager() {
+  private static EdgeManager createEdgeManager(EdgeProperty edgeProperty) {
     switch (edgeProperty.getDataMovementType()) {
       case ONE_TO_ONE:
-        edgeManager = new OneToOneEdgeManager();
-        break;
+        return new OneToOneEdgeManager();
       case BROADCAST:
-        edgeManager = new BroadcastEdgeManager();
-        break;
+        return new BroadcastEdgeManager();
       case SCATTER_GATHER:
-        edgeManager = new ScatterGatherEdgeManager();
-        break;
+        return new ScatterGatherEdgeManager();
       case CUSTOM:
         String edgeManagerClassName = edgeProperty.getEdgeManagerDescriptor().getClassName();
-        edgeManager = RuntimeUtils.createClazzInstance(edgeManagerClassName);
-        break;
+        return RuntimeUtils.createClazzInstance(edgeManagerClassName);
       default:
         String message = "Unknown edge data movement type: "
             + edgeProperty.getDataMovementType();
@@ -127,17 +141,28 @@ public class Edge {
   }
 
   public void initialize() {
+    initialize(edgeProperty, edgeManager);
+  }
+
+  /**
+   * Initialize the edge manager, and only then publish it with its property,
+   * so no other thread routes events with an uninitialized edge manager.
+   */
+  private void initialize(EdgeProperty property, EdgeManager manager) {
     byte[] bb = null;
-    if (edgeProperty.getDataMovementType() == DataMovementType.CUSTOM) {
-      bb = edgeProperty.getEdgeManagerDescriptor().getUserPayload();
+    if (property.getDataMovementType() == DataMovementType.CUSTOM) {
+      bb = property.getEdgeManagerDescriptor().getUserPayload();
     }
-    edgeManagerContext = new EdgeManagerContextImpl(sourceVertex.getName(),
-        destinationVertex.getName(), bb);
-    edgeManager.initialize(edgeManagerContext);
+    EdgeManagerContext context = new EdgeManagerContextImpl(
+        sourceVertex.getName(), destinationVertex.getName(), bb);
+    manager.initialize(context);
     destinationMetaInfo = new EventMetaData(EventProducerConsumerType.INPUT, 
         destinationVertex.getName(), 
         sourceVertex.getName(), 
         null);
+    edgeManagerContext = context;
+    edgeProperty = property;
+    edgeManager = manager;
   }
 
   public synchronized void setCustomEdgeManager(EdgeManagerDescriptor descriptor) {
@@ -147,9 +172,7 @@ public class Edge {
             edgeProperty.getSchedulingType(),
             edgeProperty.getEdgeSource(),
             edgeProperty.getEdgeDestination());
-    this.edgeProperty = modifiedEdgeProperty;
-    createEdgeManager();
-    initialize();
+    initialize(modifiedEdgeProperty, createEdgeManager(modifiedEdgeProperty));
   }
 
   public EdgeProperty getEdgeProperty() {
@@ -305,12 +328,20 @@ public class Edge {
       boolean isDataMovementEvent = true;
       switch (tezEvent.getEventType()) {
       case COMPOSITE_DATA_MOVEMENT_EVENT:
+        if (routeOnDemand) {
+          storeEvent(tezEvent);
+          break;
+        }
         handleCompositeDataMovementEvent(tezEvent);
         break;
       case INPUT_FAILED_EVENT:
         isDataMovementEvent = false;
         // fall through
       case DATA_MOVEMENT_EVENT:
+        if (routeOnDemand) {
+          storeEvent(tezEvent);
+          break;
+        }
         Map<Integer, List<Integer>> inputIndicesToTaskIndices = Maps
         .newHashMap();
         TezTaskAttemptID srcAttemptId = tezEvent.getSourceInfo()
@@ -345,6 +376,102 @@ public class Edge {
     }
   }
   
+  public boolean isRoutedOnDemand() {
+    return routeOnDemand;
+  }
+
+  private synchronized void storeEvent(TezEvent tezEvent) {
+    storedEvents.add(tezEvent);
+  }
+
+  /**
+   * Route the stored events, starting at fromIndex, to a destination task
+   * until events holds maxEvents events. Composite events are stored as they
+   * were sent, and expanded here.
+   * 
+   * @return the index of the first stored event not routed
+   */
+  synchronized int routeStoredEvents(int destTaskIndex, int fromIndex,
+      int maxEvents, List<TezEvent> events) {
+    int numDestTasks = destinationVertex.getTotalTasks();
+    Map<Integer, List<Integer>> inputIndicesToTaskIndices = Maps.newHashMap();
+    int index = fromIndex;
+    while (index < storedEvents.size() && events.size() < maxEvents) {
+      TezEvent tezEvent = storedEvents.get(index++);
+      int srcTaskIndex = tezEvent.getSourceInfo().getTaskAttemptID()
+          .getTaskID().getId();
+      switch (tezEvent.getEventType()) {
+      case COMPOSITE_DATA_MOVEMENT_EVENT:
+        CompositeDataMovementEvent compEvent =
+            (CompositeDataMovementEvent) tezEvent.getEvent();
+        if (edgeManager instanceof ScatterGatherEdgeManager) {
+          // the partition of each destination task is its index
+          if (destTaskIndex >= compEvent.getSourceIndexStart()
+              && destTaskIndex < compEvent.getSourceIndexEnd()) {
+            events.add(newRoutedEvent(tezEvent, new DataMovementEvent(
+                destTaskIndex, srcTaskIndex, compEvent.getVersion(),
+                compEvent.getUserPayload())));
+          }
+          break;
+        }
+        for (DataMovementEvent dmEvent : compEvent.getEvents()) {
+          inputIndicesToTaskIndices.clear();
+          edgeManager.routeDataMovementEventToDestination(dmEvent,
+              srcTaskIndex, numDestTasks, inputIndicesToTaskIndices);
+          routeToTask(tezEvent, dmEvent, destTaskIndex,
+              inputIndicesToTaskIndices, events);
+        }
+        break;
+      case DATA_MOVEMENT_EVENT:
+        DataMovementEvent dmEvent = (DataMovementEvent) tezEvent.getEvent();
+        inputIndicesToTaskIndices.clear();
+        edgeManager.routeDataMovementEventToDestination(dmEvent,
+            srcTaskIndex, numDestTasks, inputIndicesToTaskIndices);
+        routeToTask(tezEvent, dmEvent, destTaskIndex,
+            inputIndicesToTaskIndices, events);
+        break;
+      case INPUT_FAILED_EVENT:
+        inputIndicesToTaskIndices.clear();
+        edgeManager.routeInputSourceTaskFailedEventToDestination(srcTaskIndex,
+            numDestTasks, inputIndicesToTaskIndices);
+        routeToTask(tezEvent, null, destTaskIndex, inputIndicesToTaskIndices,
+            events);
+        break;
+      default:
+        throw new TezUncheckedException("Unhandled tez event type: "
+            + tezEvent.getEventType());
+      }
+    }
+    return index;
+  }
+
+  private void routeToTask(TezEvent tezEvent, DataMovementEvent dmEvent,
+      int destTaskIndex, Map<Integer, List<Integer>> inputIndicesToTaskIndices,
+      List<TezEvent> events) {
+    for (Map.Entry<Integer, List<Integer>> entry : inputIndicesToTaskIndices
+        .entrySet()) {
+      if (!entry.getValue().contains(destTaskIndex)) {
+        continue;
+      }
+      int targetIndex = entry.getKey().intValue();
+      Event e;
+      if (dmEvent != null) {
+        e = new DataMovementEvent(dmEvent.getSourceIndex(), targetIndex,
+            dmEvent.getVersion(), dmEvent.getUserPayload());
+      } else {
+        e = new InputFailedEvent(targetIndex,
+            ((InputFailedEvent) tezEvent.getEvent()).getVersion());
+      }
+      events.add(newRoutedEvent(tezEvent, e));
+    }
+  }
+
+  private TezEvent newRoutedEvent(TezEvent tezEvent, Event event) {
+    TezEvent routedEvent = new TezEvent(event, tezEvent.getSourceInfo());
+    routedEvent.setDestinationInfo(destinationMetaInfo);
+    return routedEvent;
+  }
+
   @SuppressWarnings("unchecked")
   private void sendEventToTask(TezTaskID taskId, TezEvent tezEvent) {
     eventHandler.handle(new TaskEventAddTezEvent(taskId, tezEvent));
@@ -19,12 +19,14 @@
 package org.apache.tez.dag.app.dag.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -120,9 +122,66 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
 
   protected TaskLocationHint locationHint;
 
-  private List<TezEvent> tezEventsForTaskAttempts = new ArrayList<TezEvent>();
+  private final EventLog tezEventsForTaskAttempts = new EventLog();
   private static final List<TezEvent> EMPTY_TASK_ATTEMPT_TEZ_EVENTS =
       new ArrayList(0);
+  // events of input edges which route on demand are not sent to the task,
+  // each attempt reads them through a cursor of its own
+  private final boolean routeEventsOnDemand;
+  private final Map<TezTaskAttemptID, EventCursor> eventCursors =
+      new ConcurrentHashMap<TezTaskAttemptID, EventCursor>();
+
+  /**
+   * Events of the task, appended by the dispatcher, and read by heartbeats
+   * without locking. The slots of an array are never written twice, so
+   * readers get views instead of copies.
+   */
+  private static class EventLog {
+    private volatile TezEvent[] events = new TezEvent[16];
+    private volatile int size = 0;
+
+    // only called from state transitions, under the write lock
+    void add(TezEvent event) {
+      TezEvent[] current = events;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, current.length * 2);
+        current[size] = event;
+        events = current;
+      } else {
+        current[size] = event;
+      }
+      size = size + 1;
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    synchronized void awaitSize(int minSize, long timeoutMillis)
+        throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      long remaining = timeoutMillis;
+      while (size < minSize && remaining > 0) {
+        wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    List<TezEvent> subList(int fromIndex, int toIndex) {
+      // an array at least as recent as the size
+      return Collections.unmodifiableList(
+          Arrays.asList(events).subList(fromIndex, toIndex));
+    }
+  }
+
+  private static class EventCursor {
+    int nextEventId = 0;
+    int taskEventIndex = 0;
+    final Map<Edge, Integer> edgeEventIndex = new LinkedHashMap<Edge, Integer>();
+  }
 
   // counts the number of attempts that are either running or in a state where
   //  they will come to be running when they get a Container
@@ -341,6 +400,9 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     // TODO Avoid reading this from configuration for each task.
     maxAttempts = this.conf.getInt(TezConfiguration.TEZ_AM_MAX_TASK_ATTEMPTS,
                               TezConfiguration.TEZ_AM_MAX_TASK_ATTEMPTS_DEFAULT);
+    routeEventsOnDemand = this.conf.getBoolean(
+        TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND,
+        TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND_DEFAULT);
     taskId = TezTaskID.getInstance(vertexId, taskIndex);
     this.taskAttemptListener = taskAttemptListener;
     this.taskHeartbeatHandler = thh;
@@ -459,36 +521,100 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
       int fromEventId, int maxEvents) {
     List<TezEvent> events = EMPTY_TASK_ATTEMPT_TEZ_EVENTS;
     readLock.lock();
-
-    if (!attempts.containsKey(attemptID)) {
-      throw new TezUncheckedException("Unknown TA: " + attemptID
-          + " asking for events from task:" + getTaskId());
-    }
-
     try {
-      if (tezEventsForTaskAttempts.size() > fromEventId) {
-        int actualMax = Math.min(maxEvents,
-            (tezEventsForTaskAttempts.size() - fromEventId));
-        int toEventId = actualMax + fromEventId;
-        events = Collections.unmodifiableList(new ArrayList<TezEvent>(
-            tezEventsForTaskAttempts.subList(fromEventId, toEventId)));
-        LOG.info("TaskAttempt:" + attemptID + " sent events: (" + fromEventId
-            + "-" + toEventId + ")");
-        // currently not modifying the events so that we dont have to create
-        // copies of events. e.g. if we have to set taskAttemptId into the TezEvent
-        // destination metadata then we will need to create a copy of the TezEvent
-        // and then modify the metadata and then send the copy on the RPC. This
-        // is important because TezEvents are only routed in the AM and not copied
-        // during routing. So e.g. a broadcast edge will send the same event to
-        // all consumers (like it should). If copies were created then re-routing
-        // the events on parallelism changes would be difficult. We would have to
-        // buffer the events in the Vertex until the parallelism was set and then
-        // route the events.
+      if (!attempts.containsKey(attemptID)) {
+        throw new TezUncheckedException("Unknown TA: " + attemptID
+            + " asking for events from task:" + getTaskId());
+      }
+      if (routeEventsOnDemand) {
+        return getRoutedTezEvents(attemptID, fromEventId, maxEvents);
       }
-      return events;
     } finally {
       readLock.unlock();
     }
+
+    // the events are only ever appended, no lock needed to read them
+    int numEvents = tezEventsForTaskAttempts.size();
+    if (numEvents > fromEventId) {
+      int actualMax = Math.min(maxEvents, (numEvents - fromEventId));
+      int toEventId = actualMax + fromEventId;
+      events = tezEventsForTaskAttempts.subList(fromEventId, toEventId);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("TaskAttempt:" + attemptID + " sent events: ("
+            + fromEventId + "-" + toEventId + ")");
+      }
+      // currently not modifying the events so that we dont have to create
+      // copies of events. e.g. if we have to set taskAttemptId into the TezEvent
+      // destination metadata then we will need to create a copy of the TezEvent
+      // and then modify the metadata and then send the copy on the RPC. This
+      // is important because TezEvents are only routed in the AM and not copied
+      // during routing. So e.g. a broadcast edge will send the same event to
+      // all consumers (like it should). If copies were created then re-routing
+      // the events on parallelism changes would be difficult. We would have to
+      // buffer the events in the Vertex until the parallelism was set and then
+      // route the events.
+    }
+    return events;
+  }
+
+  @Override
+  public void waitForTaskAttemptTezEvents(int fromEventId, long timeoutMillis)
+      throws InterruptedException {
+    if (routeEventsOnDemand) {
+      // events routed by edges do not pass through the task
+      return;
+    }
+    tezEventsForTaskAttempts.awaitSize(fromEventId + 1, timeoutMillis);
+  }
+
+  /**
+   * Events sent to the task come first, followed by those of each edge which
+   * routes on demand. As events keep arriving, the order is only defined by
+   * the reads of the attempt, so each attempt keeps a cursor and reads on from
+   * where it stopped.
+   */
+  private List<TezEvent> getRoutedTezEvents(TezTaskAttemptID attemptID,
+      int fromEventId, int maxEvents) {
+    EventCursor cursor = eventCursors.get(attemptID);
+    if (cursor == null && fromEventId != 0) {
+      // dropped as the attempt finished, while this heartbeat was on its way
+      return EMPTY_TASK_ATTEMPT_TEZ_EVENTS;
+    }
+    if (cursor == null || fromEventId == 0) {
+      cursor = new EventCursor();
+      eventCursors.put(attemptID, cursor);
+    }
+    if (fromEventId != cursor.nextEventId) {
+      throw new TezUncheckedException("TaskAttempt:" + attemptID
+          + " asked for events from " + fromEventId + ", expected "
+          + cursor.nextEventId);
+    }
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    int toTaskEventIndex = Math.min(tezEventsForTaskAttempts.size(),
+        cursor.taskEventIndex + maxEvents);
+    events.addAll(tezEventsForTaskAttempts.subList(cursor.taskEventIndex,
+        toTaskEventIndex));
+    cursor.taskEventIndex = toTaskEventIndex;
+    for (Edge edge : getVertex().getInputVertices().values()) {
+      if (events.size() >= maxEvents) {
+        break;
+      }
+      if (!edge.isRoutedOnDemand()) {
+        continue;
+      }
+      Integer fromIndex = cursor.edgeEventIndex.get(edge);
+      cursor.edgeEventIndex.put(edge, edge.routeStoredEvents(taskId.getId(),
+          fromIndex == null ? 0 : fromIndex.intValue(), maxEvents, events));
+    }
+    if (events.isEmpty()) {
+      return EMPTY_TASK_ATTEMPT_TEZ_EVENTS;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("TaskAttempt:" + attemptID + " sent events: (" + fromEventId
+          + "-" + (fromEventId + events.size()) + ")");
+    }
+    cursor.nextEventId += events.size();
+    return Collections.unmodifiableList(events);
   }
 
   @Override
@@ -874,6 +1000,8 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
   // always called inside a transition, in turn inside the Write Lock
   private void handleTaskAttemptCompletion(TezTaskAttemptID attemptId,
       TaskAttemptStateInternal attemptState) {
+    // the attempt reads no more events
+    eventCursors.remove(attemptId);
     this.sendTaskAttemptCompletionEvent(attemptId, attemptState);
   }
 
@@ -635,34 +635,27 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
 
   @Override
   public Task getTask(TezTaskID taskID) {
-    readLock.lock();
-    try {
-      return tasks.get(taskID);
-    } finally {
-      readLock.unlock();
-    }
+    // lock-free, as the edges of other vertices look up tasks while holding
+    // the write lock of their own vertex. tasks is replaced, not changed, by
+    // createTasks and setParallelism
+    return tasks.get(taskID);
   }
 
   @Override
   public Task getTask(int taskIndex) {
-    readLock.lock();
-    try {
-      // does it matter to create a duplicate list for efficiency
-      // instead of traversing the map
-      // local assign to LinkedHashMap to ensure that sequential traversal
-      // assumption is satisfied
-      LinkedHashMap<TezTaskID, Task> taskList = tasks;
-      int i=0;
-      for(Map.Entry<TezTaskID, Task> entry : taskList.entrySet()) {
-        if(taskIndex == i) {
-          return entry.getValue();
-        }
-        ++i;
-      }
-      return null;
-    } finally {
-      readLock.unlock();
+    // does it matter to create a duplicate list for efficiency
+    // instead of traversing the map
+    // local assign to LinkedHashMap to ensure that sequential traversal
+    // assumption is satisfied
+    LinkedHashMap<TezTaskID, Task> taskList = tasks;
+    int i=0;
+    for(Map.Entry<TezTaskID, Task> entry : taskList.entrySet()) {
+      if(taskIndex == i) {
+        return entry.getValue();
+      }
+      ++i;
     }
+    return null;
   }
 
   @Override
@@ -1095,7 +1088,9 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
             " parallelism set to " + parallelism + " from " + numTasks);
         // assign to local variable of LinkedHashMap to make sure that changing
         // type of task causes compile error. We depend on LinkedHashMap for order
-        LinkedHashMap<TezTaskID, Task> currentTasks = this.tasks;
+        // copied, and replaced once done, as getTask does not lock
+        LinkedHashMap<TezTaskID, Task> currentTasks =
+            new LinkedHashMap<TezTaskID, Task>(this.tasks);
         Iterator<Map.Entry<TezTaskID, Task>> iter = currentTasks.entrySet()
             .iterator();
         int i = 0;
@@ -1115,6 +1110,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
           LOG.info("Removing task: " + entry.getKey());
           iter.remove();
         }
+        this.tasks = currentTasks;
         this.numTasks = parallelism;
         assert tasks.size() == numTasks;
   
@@ -1432,6 +1428,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
   VertexState finished(VertexState finalState,
       VertexTerminationCause terminationCause) {
     if (finishTime == 0) setFinishTime();
+    taskAttemptListener.vertexCompleted(getVertexId());
 
     switch (finalState) {
       case ERROR:
@@ -1559,6 +1556,9 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
             this.numTasks) {
       useNullLocationHint = false;
     }
+    // published once all are created, as getTask does not lock
+    LinkedHashMap<TezTaskID, Task> newTasks =
+        new LinkedHashMap<TezTaskID, Task>(this.tasks);
     for (int i=0; i < this.numTasks; ++i) {
       TaskLocationHint locHint = null;
       if (!useNullLocationHint) {
@@ -1576,12 +1576,13 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
                 this.targetVertices.isEmpty() : true),
               locHint, this.taskResource,
               this.containerContext);
-      this.addTask(task);
+      newTasks.put(task.getTaskId(), task);
       if(LOG.isDebugEnabled()) {
         LOG.debug("Created task for vertex " + this.getVertexId() + ": " +
             task.getTaskId());
       }
     }
+    this.tasks = newTasks;
 
   }
 
@@ -0,0 +1,246 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.common.security.JobTokenSecretManager;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.api.TezUncheckedException;
+import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
+import org.apache.tez.dag.app.dag.DAG;
+import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.VertexState;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
+import org.apache.tez.dag.app.dag.impl.Edge;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+import org.apache.tez.runtime.api.impl.EventMetaData;
+import org.apache.tez.runtime.api.impl.TezEvent;
+import org.apache.tez.runtime.api.impl.TezHeartbeatRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTaskAttemptListenerImpTezDag {
+
+  @SuppressWarnings("rawtypes")
+  private static class RecordingHandler implements EventHandler<Event> {
+    final List<VertexEventRouteEvent> routeEvents =
+        new ArrayList<VertexEventRouteEvent>();
+
+    @Override
+    public void handle(Event event) {
+      routeEvents.add((VertexEventRouteEvent) event);
+    }
+  }
+
+  private RecordingHandler handler;
+  private Vertex vertex;
+  private Task task;
+  private TaskAttempt attempt;
+  private ContainerId containerId;
+  private TezTaskAttemptID attemptId;
+  private TaskAttemptListenerImpTezDag listener;
+  private long requestId = 0;
+
+  @Before
+  public void setup() {
+    ApplicationId appId = ApplicationId.newInstance(1000, 1);
+    containerId = ContainerId.newInstance(
+        ApplicationAttemptId.newInstance(appId, 1), 1);
+    TezVertexID vertexId = TezVertexID.getInstance(
+        TezDAGID.getInstance(appId, 1), 1);
+    TezTaskID taskId = TezTaskID.getInstance(vertexId, 0);
+    attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+
+    handler = new RecordingHandler();
+    AppContext appContext = mock(AppContext.class);
+    DAG dag = mock(DAG.class);
+    vertex = mock(Vertex.class);
+    doReturn(handler).when(appContext).getEventHandler();
+    doReturn(dag).when(appContext).getCurrentDAG();
+    doReturn(vertex).when(dag).getVertex(vertexId);
+    doReturn(vertexId).when(vertex).getVertexId();
+    doReturn(VertexState.RUNNING).when(vertex).getState();
+    task = mock(Task.class);
+    attempt = mock(TaskAttempt.class);
+    doReturn(task).when(vertex).getTask(taskId);
+    doReturn(attempt).when(task).getAttempt(attemptId);
+    doReturn(TaskAttemptState.RUNNING).when(attempt).getState();
+
+    listener = new TaskAttemptListenerImpTezDag(appContext,
+        mock(TaskHeartbeatHandler.class), mock(ContainerHeartbeatHandler.class),
+        mock(JobTokenSecretManager.class));
+    Configuration conf = new Configuration();
+    conf.setLong(TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS, 100);
+    listener.init(conf);
+    listener.registerRunningContainer(containerId);
+    listener.registerTaskAttempt(attemptId, containerId);
+  }
+
+  @Test
+  public void testBatchHandOff() throws Exception {
+    List<TezEvent> sent = new ArrayList<TezEvent>();
+    heartbeat(sent, 2);
+    heartbeat(sent, 3);
+    // events of the later heartbeat ride along with the queued route event
+    assertEquals(1, handler.routeEvents.size());
+    assertEquals(sent, handler.routeEvents.get(0).getEvents());
+    // taken once, read again by every handler of the event
+    assertEquals(sent, handler.routeEvents.get(0).getEvents());
+
+    // a taken batch needs a new route event
+    sent.clear();
+    heartbeat(sent, 1);
+    assertEquals(2, handler.routeEvents.size());
+    assertEquals(sent, handler.routeEvents.get(1).getEvents());
+  }
+
+  @Test
+  public void testBatchDroppedOnceIgnored() throws Exception {
+    heartbeat(new ArrayList<TezEvent>(), 2);
+    assertEquals(1, handler.routeEvents.size());
+
+    // the vertex is terminating and ignores the route event it has queued
+    doReturn(VertexState.TERMINATING).when(vertex).getState();
+    heartbeat(new ArrayList<TezEvent>(), 2);
+    assertEquals(1, handler.routeEvents.size());
+
+    // events are routed again if the vertex is restarted
+    doReturn(VertexState.RUNNING).when(vertex).getState();
+    List<TezEvent> sent = new ArrayList<TezEvent>();
+    heartbeat(sent, 2);
+    assertEquals(2, handler.routeEvents.size());
+    assertEquals(sent, handler.routeEvents.get(1).getEvents());
+  }
+
+  @Test
+  public void testBatchRemovedOnCompletion() throws Exception {
+    List<TezEvent> queued = new ArrayList<TezEvent>();
+    heartbeat(queued, 2);
+    listener.vertexCompleted(attemptId.getTaskID().getVertexID());
+
+    // the queued route event still takes its own batch
+    List<TezEvent> sent = new ArrayList<TezEvent>();
+    heartbeat(sent, 1);
+    assertEquals(2, handler.routeEvents.size());
+    assertEquals(queued, handler.routeEvents.get(0).getEvents());
+    assertEquals(sent, handler.routeEvents.get(1).getEvents());
+
+    // a batch left behind by the DAG is not added to
+    heartbeat(new ArrayList<TezEvent>(), 1);
+    listener.dagCompleted();
+    heartbeat(new ArrayList<TezEvent>(), 1);
+    assertEquals(4, handler.routeEvents.size());
+  }
+
+  @Test
+  public void testEmptyHeartbeatRoutesNothing() throws Exception {
+    heartbeat(new ArrayList<TezEvent>(), 0);
+    assertTrue(handler.routeEvents.isEmpty());
+  }
+
+  @Test
+  public void testOnlyIdleRunningHeartbeatsHeld() throws Exception {
+    Vertex sourceVertex = mock(Vertex.class);
+    doReturn(VertexState.RUNNING).when(sourceVertex).getState();
+    doReturn(Collections.singletonMap(sourceVertex, mock(Edge.class)))
+        .when(vertex).getInputVertices();
+
+    // events to route, such as a completion, are answered at once
+    heartbeat(new ArrayList<TezEvent>(), 1);
+    verify(task, never()).waitForTaskAttemptTezEvents(anyInt(), anyLong());
+
+    heartbeat(new ArrayList<TezEvent>(), 0);
+    verify(task, times(1)).waitForTaskAttemptTezEvents(anyInt(), anyLong());
+
+    // no more events to wait for once the sources succeeded
+    doReturn(VertexState.SUCCEEDED).when(sourceVertex).getState();
+    heartbeat(new ArrayList<TezEvent>(), 0);
+    verify(task, times(1)).waitForTaskAttemptTezEvents(anyInt(), anyLong());
+
+    doReturn(VertexState.RUNNING).when(sourceVertex).getState();
+    doReturn(TaskAttemptState.SUCCEEDED).when(attempt).getState();
+    heartbeat(new ArrayList<TezEvent>(), 0);
+    verify(task, times(1)).waitForTaskAttemptTezEvents(anyInt(), anyLong());
+  }
+
+  @Test
+  public void testHeartbeatsWithoutSourcesNotHeld() throws Exception {
+    // e.g. tasks reading root inputs alone only produce events
+    heartbeat(new ArrayList<TezEvent>(), 0);
+    verify(task, never()).waitForTaskAttemptTezEvents(anyInt(), anyLong());
+  }
+
+  @Test(expected = TezUncheckedException.class)
+  public void testLongPollWithRouteOnDemandRejected() {
+    Configuration conf = new Configuration();
+    conf.setLong(TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS, 100);
+    conf.setBoolean(TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND, true);
+    new TaskAttemptListenerImpTezDag(mock(AppContext.class),
+        mock(TaskHeartbeatHandler.class), mock(ContainerHeartbeatHandler.class),
+        mock(JobTokenSecretManager.class)).init(conf);
+  }
+
+  @Test(expected = TezUncheckedException.class)
+  public void testIdleIntervalNearTaskTimeoutRejected() {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.TASK_TIMEOUT, 60 * 1000);
+    conf.setLong(TezConfiguration.TEZ_AM_TASK_LISTENER_LONG_POLL_MS, 1000);
+    conf.setLong(TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_MAX,
+        30 * 1000);
+    new TaskAttemptListenerImpTezDag(mock(AppContext.class),
+        mock(TaskHeartbeatHandler.class), mock(ContainerHeartbeatHandler.class),
+        mock(JobTokenSecretManager.class)).init(conf);
+  }
+
+  private void heartbeat(List<TezEvent> sent, int numEvents) throws Exception {
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (int i = 0; i < numEvents; i++) {
+      events.add(new TezEvent(new DataMovementEvent(sent.size() + i, null),
+          new EventMetaData()));
+    }
+    sent.addAll(events);
+    listener.heartbeat(new TezHeartbeatRequest(++requestId, events,
+        containerId.toString(), attemptId, 0, 100));
+  }
+}
@@ -0,0 +1,117 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.dag.app.dag.event.TaskEvent;
+import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.app.dag.event.VertexEvent;
+import org.apache.tez.dag.app.dag.event.VertexEventType;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.junit.Test;
+
+public class TestVertexShardedDispatcher {
+
+  private static final int NUM_VERTICES = 4;
+  private static final int EVENTS_PER_VERTEX = 1000;
+
+  /** Records the order of the tasks seen for each vertex, and the thread. */
+  private static class RecordingHandler implements EventHandler<Event> {
+    final Map<TezVertexID, List<Integer>> tasks =
+        new HashMap<TezVertexID, List<Integer>>();
+    final Map<TezVertexID, Thread> threads = new HashMap<TezVertexID, Thread>();
+    final CountDownLatch done = new CountDownLatch(NUM_VERTICES);
+    boolean threadChanged = false;
+
+    @Override
+    public synchronized void handle(Event event) {
+      if (event instanceof VertexEvent) {
+        done.countDown();
+        return;
+      }
+      TezTaskID taskId = ((TaskEvent) event).getTaskID();
+      TezVertexID vertexId = taskId.getVertexID();
+      List<Integer> seen = tasks.get(vertexId);
+      if (seen == null) {
+        seen = new ArrayList<Integer>();
+        tasks.put(vertexId, seen);
+        threads.put(vertexId, Thread.currentThread());
+      }
+      seen.add(taskId.getId());
+      threadChanged |= threads.get(vertexId) != Thread.currentThread();
+    }
+  }
+
+  @Test (timeout = 10000)
+  public void testPerVertexOrdering() throws Exception {
+    VertexShardedDispatcher dispatcher = new VertexShardedDispatcher(2);
+    RecordingHandler handler = new RecordingHandler();
+    dispatcher.register(TaskEventType.class, handler);
+    dispatcher.register(VertexEventType.class, handler);
+    dispatcher.init(new Configuration());
+    dispatcher.start();
+
+    TezDAGID dagId = TezDAGID.getInstance("1000", 1, 1);
+    List<TezVertexID> vertexIds = new ArrayList<TezVertexID>();
+    for (int v = 0; v < NUM_VERTICES; v++) {
+      vertexIds.add(TezVertexID.getInstance(dagId, v));
+    }
+    for (int i = 0; i < EVENTS_PER_VERTEX; i++) {
+      for (TezVertexID vertexId : vertexIds) {
+        dispatcher.getEventHandler().handle(new TaskEvent(
+            TezTaskID.getInstance(vertexId, i), TaskEventType.T_SCHEDULE));
+      }
+    }
+    for (TezVertexID vertexId : vertexIds) {
+      dispatcher.getEventHandler().handle(
+          new VertexEvent(vertexId, VertexEventType.V_START));
+    }
+    assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+    dispatcher.stop();
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < EVENTS_PER_VERTEX; i++) {
+      expected.add(i);
+    }
+    for (TezVertexID vertexId : vertexIds) {
+      assertEquals(expected, handler.tasks.get(vertexId));
+    }
+    // vertices of different shards are handled on different threads
+    assertTrue(handler.threads.get(vertexIds.get(0))
+        == handler.threads.get(vertexIds.get(2)));
+    assertTrue(handler.threads.get(vertexIds.get(0))
+        != handler.threads.get(vertexIds.get(1)));
+    assertFalse(handler.threadChanged);
+  }
+}
@@ -591,6 +591,7 @@ public class TestDAGImpl {
     fsTokens = new Credentials();
     appContext = mock(AppContext.class);
     historyEventHandler = mock(HistoryEventHandler.class);
+    taskAttemptListener = mock(TaskAttemptListener.class);
     doReturn(conf).when(appContext).getAMConf();
     doReturn(appAttemptId).when(appContext).getApplicationAttemptId();
     doReturn(appAttemptId.getApplicationId()).when(appContext).getApplicationID();
@@ -20,13 +20,16 @@ package org.apache.tez.dag.app.dag.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -115,6 +118,65 @@ public class TestEdge {
 
   }
   
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test (timeout = 5000)
+  public void testRouteOnDemand() {
+    EventHandler eventHandler = mock(EventHandler.class);
+    EdgeProperty edgeProp = new EdgeProperty(DataMovementType.SCATTER_GATHER,
+        DataSourceType.PERSISTED, SchedulingType.SEQUENTIAL, mock(OutputDescriptor.class),
+        mock(InputDescriptor.class));
+    Edge edge = new Edge(edgeProp, eventHandler, true);
+    assertTrue(edge.isRoutedOnDemand());
+
+    TezVertexID srcVertexID = createVertexID(1);
+    TezVertexID destVertexID = createVertexID(2);
+    LinkedHashMap<TezTaskID, Task> srcTasks = mockTasks(srcVertexID, 3);
+    LinkedHashMap<TezTaskID, Task> destTasks = mockTasks(destVertexID, 5);
+
+    edge.setSourceVertex(mockVertex("src", srcVertexID, srcTasks));
+    edge.setDestinationVertex(mockVertex("dest", destVertexID, destTasks));
+    edge.initialize();
+
+    // a composite event from the first two source tasks, single events from
+    // the third
+    List<TezTaskID> srcTaskIDs = new ArrayList<TezTaskID>(srcTasks.keySet());
+    for (int i = 0; i < 2; i++) {
+      CompositeDataMovementEvent cdmEvent = new CompositeDataMovementEvent(0,
+          destTasks.size(), "bytes".getBytes());
+      cdmEvent.setVersion(2);
+      edge.sendTezEventToDestinationTasks(new TezEvent(cdmEvent,
+          new EventMetaData(EventProducerConsumerType.OUTPUT, "consumerVertex",
+              "producerVertex", createTAIDForTest(srcTaskIDs.get(i), 2))));
+    }
+    for (int i = 0; i < destTasks.size(); i++) {
+      DataMovementEvent dmEvent = new DataMovementEvent(i, "bytes".getBytes());
+      dmEvent.setVersion(2);
+      edge.sendTezEventToDestinationTasks(new TezEvent(dmEvent,
+          new EventMetaData(EventProducerConsumerType.OUTPUT, "consumerVertex",
+              "producerVertex", createTAIDForTest(srcTaskIDs.get(2), 2))));
+    }
+    // nothing is sent to the destination tasks
+    verify(eventHandler, never()).handle(any(Event.class));
+
+    for (int destIndex = 0; destIndex < destTasks.size(); destIndex++) {
+      List<TezEvent> events = new ArrayList<TezEvent>();
+      int next = edge.routeStoredEvents(destIndex, 0, 2, events);
+      assertEquals(2, next);
+      assertEquals(2, events.size());
+      next = edge.routeStoredEvents(destIndex, next, 100, events);
+      assertEquals(2 + destTasks.size(), next);
+      assertEquals(3, events.size());
+      for (int srcIndex = 0; srcIndex < events.size(); srcIndex++) {
+        DataMovementEvent dmEvent =
+            (DataMovementEvent) events.get(srcIndex).getEvent();
+        assertEquals(destIndex, dmEvent.getSourceIndex());
+        assertEquals(srcIndex, dmEvent.getTargetIndex());
+        assertEquals(2, dmEvent.getVersion());
+        assertTrue(Arrays.equals("bytes".getBytes(), dmEvent.getUserPayload()));
+      }
+    }
+  }
+
   @SuppressWarnings("rawtypes")
   private void verifyEvents(List<Event> events, TezTaskAttemptID srcTAID, LinkedHashMap<TezTaskID, Task> destTasks) {
     int count = 0;
@@ -46,6 +46,7 @@ import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.util.Clock;
 import org.apache.hadoop.yarn.util.SystemClock;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.api.VertexLocationHint.TaskLocationHint;
 import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
 import org.apache.tez.dag.api.oldrecords.TaskState;
@@ -381,6 +382,102 @@ public class TestTaskImpl {
     assertEquals(6, fetchedList.size());
   }
 
+  @Test (timeout = 5000)
+  public void testWaitForTaskAttemptTezEvents() throws Exception {
+    TezTaskID taskId = getNewTaskID();
+    scheduleTaskAttempt(taskId);
+    sendTezEventsToTask(taskId, 2);
+
+    // events past the start index are there already
+    long start = System.currentTimeMillis();
+    mockTask.waitForTaskAttemptTezEvents(1, 10000);
+    assertTrue(System.currentTimeMillis() - start < 1000);
+
+    // none to come, wait for the timeout
+    start = System.currentTimeMillis();
+    mockTask.waitForTaskAttemptTezEvents(2, 100);
+    assertTrue(System.currentTimeMillis() - start >= 100);
+
+    // released as soon as an event is added
+    final TezTaskID finalTaskId = taskId;
+    Thread sender = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        sendTezEventsToTask(finalTaskId, 1);
+      }
+    };
+    sender.start();
+    start = System.currentTimeMillis();
+    mockTask.waitForTaskAttemptTezEvents(2, 10000);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    sender.join();
+  }
+
+  @Test
+  public void testGetTaskAttemptTezEvents() {
+    TezTaskID taskId = getNewTaskID();
+    scheduleTaskAttempt(taskId);
+    TezTaskAttemptID attemptId = mockTask.getLastAttempt().getID();
+    List<TezEvent> sent = new ArrayList<TezEvent>();
+    addTezEvents(taskId, sent, 10);
+    List<TezEvent> firstRead = mockTask.getTaskAttemptTezEvents(attemptId,
+        0, 100);
+    assertEquals(sent, firstRead);
+
+    // grow the log past its initial capacity, earlier views still hold
+    addTezEvents(taskId, sent, 30);
+    assertEquals(sent.subList(0, 10), firstRead);
+    assertEquals(sent,
+        mockTask.getTaskAttemptTezEvents(attemptId, 0, 100));
+    assertEquals(sent.subList(10, 18),
+        mockTask.getTaskAttemptTezEvents(attemptId, 10, 8));
+    assertEquals(sent.subList(35, 40),
+        mockTask.getTaskAttemptTezEvents(attemptId, 35, 100));
+    assertTrue(mockTask.getTaskAttemptTezEvents(attemptId, 40, 100).isEmpty());
+
+    try {
+      firstRead.set(0, null);
+      fail("Events read by an attempt should not be modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRoutedEventsOfFinishedAttempt() {
+    conf.setBoolean(TezConfiguration.TEZ_AM_EDGE_ROUTE_ON_DEMAND, true);
+    mockTask = new MockTaskImpl(vertexId, partition,
+        eventHandler, conf, taskAttemptListener, clock,
+        taskHeartbeatHandler, appContext, leafVertex, locationHint,
+        taskResource, containerContext, mock(Vertex.class));
+    TezTaskID taskId = getNewTaskID();
+    scheduleTaskAttempt(taskId);
+    TezTaskAttemptID attemptId = mockTask.getLastAttempt().getID();
+    List<TezEvent> sent = new ArrayList<TezEvent>();
+    addTezEvents(taskId, sent, 3);
+    assertEquals(sent, mockTask.getTaskAttemptTezEvents(attemptId, 0, 100));
+
+    // the cursor of the attempt is dropped once it finished
+    killScheduledTaskAttempt(attemptId);
+    addTezEvents(taskId, sent, 2);
+    assertTrue(mockTask.getTaskAttemptTezEvents(attemptId, 3, 100).isEmpty());
+  }
+
+  private void addTezEvents(TezTaskID taskId, List<TezEvent> sent,
+      int numTezEvents) {
+    for (int i = 0; i < numTezEvents; i++) {
+      TezEvent tezEvent = new TezEvent(
+          new DataMovementEvent(sent.size(), null), new EventMetaData());
+      sent.add(tezEvent);
+      mockTask.handle(new TaskEventAddTezEvent(taskId, tezEvent));
+    }
+  }
+
   @Test
   public void testTaskProgress() {
     LOG.info("--- START: testTaskProgress ---");
@@ -1195,6 +1195,7 @@ public class TestVertexImpl {
     dispatcher = new DrainDispatcher();
     appContext = mock(AppContext.class);
     historyEventHandler = mock(HistoryEventHandler.class);
+    taskAttemptListener = mock(TaskAttemptListener.class);
     TaskSchedulerEventHandler taskScheduler = mock(TaskSchedulerEventHandler.class);
     UserGroupInformation ugi;
     try {
@@ -58,6 +58,7 @@ import org.apache.tez.client.TezClientUtils;
 import org.apache.tez.client.TezSession;
 import org.apache.tez.client.TezSessionConfiguration;
 import org.apache.tez.client.TezSessionStatus;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.dag.api.DAG;
 import org.apache.tez.dag.api.Edge;
 import org.apache.tez.dag.api.EdgeProperty;
@@ -83,6 +84,7 @@ import org.apache.tez.mapreduce.hadoop.MultiStageMRConfToTezTranslator;
 import org.apache.tez.mapreduce.processor.map.MapProcessor;
 import org.apache.tez.mapreduce.processor.reduce.ReduceProcessor;
 import org.apache.tez.runtime.api.TezRootInputInitializer;
+import org.apache.tez.runtime.library.common.combine.PreAggregator;
 import org.apache.tez.runtime.library.input.ShuffledMergedInputLegacy;
 import org.apache.tez.runtime.library.output.OnFileSortedOutput;
 import org.apache.tez.runtime.library.processor.SleepProcessor;
@@ -117,6 +119,19 @@ public class OrderedWordCount {
     }
   }
 
+  /**
+   * Adds up the counts of a word as the mapper writes them, ahead of the
+   * sort buffer.
+   */
+  public static class IntSumPreAggregator implements PreAggregator {
+    @Override
+    public Object aggregate(Object aggregate, Object value) {
+      IntWritable sum = (IntWritable) aggregate;
+      sum.set(sum.get() + ((IntWritable) value).get());
+      return sum;
+    }
+  }
+
   public static class IntSumReducer
        extends Reducer<Text,IntWritable,IntWritable, Text> {
     private IntWritable result = new IntWritable();
@@ -172,6 +187,8 @@ public class OrderedWordCount {
           TezGroupedSplitsInputFormat.class.getName());
     }
     mapStageConf.set(FileInputFormat.INPUT_DIR, inputPath);
+    mapStageConf.set(TezJobConfig.TEZ_RUNTIME_PRE_AGGREGATOR_CLASS,
+        IntSumPreAggregator.class.getName());
     mapStageConf.setBoolean("mapred.mapper.new-api", true);
 
     InputSplitInfo inputSplitInfo = null;
@@ -130,6 +130,23 @@ public class EventMetaData implements Writable {
     }
   }
 
+  /**
+   * Compact form of {@link #write(DataOutput)} for the events of a heartbeat.
+   */
+  void write(DataOutput out, EventWireContext context) throws IOException {
+    out.writeByte(producerConsumerType.ordinal());
+    context.writeString(out, taskVertexName);
+    context.writeString(out, edgeVertexName);
+    context.writeTaskAttemptID(out, taskAttemptID);
+  }
+
+  void readFields(DataInput in, EventWireContext context) throws IOException {
+    producerConsumerType = EventProducerConsumerType.values()[in.readByte()];
+    taskVertexName = context.readString(in);
+    edgeVertexName = context.readString(in);
+    taskAttemptID = context.readTaskAttemptID(in);
+  }
+
   @Override
   public String toString() {
     return "{ producerConsumerType=" + producerConsumerType
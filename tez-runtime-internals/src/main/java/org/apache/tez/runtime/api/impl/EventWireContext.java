@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.StringInterner;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+
+/**
+ * State shared by the events of one heartbeat while they are written to, or
+ * read from, the umbilical. Vertex names are sent once per message and then
+ * referred to by index, task attempt ids are sent relative to the previous
+ * task of the same vertex, and a payload which is shared by several
+ * DataMovementEvents, as by the events routed from one
+ * CompositeDataMovementEvent, is sent only once.
+ *
+ * A context is used either for writing or for reading, and only for a single
+ * message.
+ */
+class EventWireContext {
+
+  private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+  private final List<String> strings = new ArrayList<String>();
+
+  private final Map<byte[], Integer> payloadIds =
+      new IdentityHashMap<byte[], Integer>();
+  private final List<byte[]> payloads = new ArrayList<byte[]>();
+
+  private final Map<TezVertexID, Integer> vertexIds =
+      new HashMap<TezVertexID, Integer>();
+  private final List<TezVertexID> vertices = new ArrayList<TezVertexID>();
+  private final List<Integer> lastTaskIds = new ArrayList<Integer>();
+
+  /**
+   * Strings are written as 0 for null, the 1-based index of a string already
+   * written, or -1 followed by a string which is new to this message.
+   */
+  void writeString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    Integer id = stringIds.get(s);
+    if (id != null) {
+      WritableUtils.writeVInt(out, id + 1);
+    } else {
+      stringIds.put(s, stringIds.size());
+      WritableUtils.writeVInt(out, -1);
+      Text.writeString(out, s);
+    }
+  }
+
+  String readString(DataInput in) throws IOException {
+    int ref = WritableUtils.readVInt(in);
+    if (ref == 0) {
+      return null;
+    } else if (ref > 0) {
+      return getRef(strings, ref);
+    }
+    String s = StringInterner.weakIntern(Text.readString(in));
+    strings.add(s);
+    return s;
+  }
+
+  /**
+   * Payloads are referred to in the same way as strings. They are compared
+   * by identity only, which is enough to find the events generated from a
+   * single composite event.
+   */
+  void writePayload(DataOutput out, byte[] payload) throws IOException {
+    if (payload == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    Integer id = payloadIds.get(payload);
+    if (id != null) {
+      WritableUtils.writeVInt(out, id + 1);
+    } else {
+      payloadIds.put(payload, payloadIds.size());
+      WritableUtils.writeVInt(out, -1);
+      WritableUtils.writeVInt(out, payload.length);
+      out.write(payload);
+    }
+  }
+
+  byte[] readPayload(DataInput in) throws IOException {
+    int ref = WritableUtils.readVInt(in);
+    if (ref == 0) {
+      return null;
+    } else if (ref > 0) {
+      return getRef(payloads, ref);
+    }
+    byte[] payload = new byte[WritableUtils.readVInt(in)];
+    in.readFully(payload);
+    payloads.add(payload);
+    return payload;
+  }
+
+  /**
+   * Task attempt ids are written as 0 for null, or as a reference to their
+   * vertex, in the same way as strings, followed by the task id relative to
+   * the last task of that vertex and the attempt number.
+   */
+  void writeTaskAttemptID(DataOutput out, TezTaskAttemptID attemptID)
+      throws IOException {
+    if (attemptID == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    TezTaskID taskID = attemptID.getTaskID();
+    TezVertexID vertexID = taskID.getVertexID();
+    Integer id = vertexIds.get(vertexID);
+    if (id != null) {
+      WritableUtils.writeVInt(out, id + 1);
+    } else {
+      id = vertexIds.size();
+      vertexIds.put(vertexID, id);
+      lastTaskIds.add(0);
+      WritableUtils.writeVInt(out, -1);
+      vertexID.write(out);
+    }
+    WritableUtils.writeVInt(out, taskID.getId() - lastTaskIds.get(id));
+    WritableUtils.writeVInt(out, attemptID.getId());
+    lastTaskIds.set(id, taskID.getId());
+  }
+
+  TezTaskAttemptID readTaskAttemptID(DataInput in) throws IOException {
+    int ref = WritableUtils.readVInt(in);
+    if (ref == 0) {
+      return null;
+    }
+    int id;
+    TezVertexID vertexID;
+    if (ref > 0) {
+      vertexID = getRef(vertices, ref);
+      id = ref - 1;
+    } else {
+      id = vertices.size();
+      vertexID = TezVertexID.readTezVertexID(in);
+      vertices.add(vertexID);
+      lastTaskIds.add(0);
+    }
+    int taskId = lastTaskIds.get(id) + WritableUtils.readVInt(in);
+    int attemptId = WritableUtils.readVInt(in);
+    lastTaskIds.set(id, taskId);
+    return TezTaskAttemptID.getInstance(
+        TezTaskID.getInstance(vertexID, taskId), attemptId);
+  }
+
+  private static <T> T getRef(List<T> values, int ref) throws IOException {
+    if (ref > values.size()) {
+      throw new IOException("Reference to an unknown value, ref=" + ref
+          + ", known=" + values.size());
+    }
+    return values.get(ref - 1);
+  }
+}
@@ -21,8 +21,11 @@ package org.apache.tez.runtime.api.impl;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.tez.common.ProtoConverters;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.Event;
@@ -122,65 +125,70 @@ public class TezEvent implements Writable {
       TaskStatusUpdateEvent sEvt = (TaskStatusUpdateEvent) event;
       sEvt.write(out);
     } else {
-      byte[] eventBytes = null;
-      switch (eventType) {
-      case DATA_MOVEMENT_EVENT:
-        eventBytes =
-            ProtoConverters.convertDataMovementEventToProto(
-                (DataMovementEvent) event).toByteArray();
-        break;
-      case COMPOSITE_DATA_MOVEMENT_EVENT:
-        eventBytes =
-            ProtoConverters.convertCompositeDataMovementEventToProto(
-                (CompositeDataMovementEvent) event).toByteArray();
-        break;
-      case VERTEX_MANAGER_EVENT:
-        VertexManagerEvent vmEvt = (VertexManagerEvent) event;
-        VertexManagerEventProto.Builder vmBuilder = VertexManagerEventProto.newBuilder();
-        vmBuilder.setTargetVertexName(vmEvt.getTargetVertexName());
-        if (vmEvt.getUserPayload() != null) {
-          vmBuilder.setUserPayload(ByteString.copyFrom(vmEvt.getUserPayload()));
-        }
-        eventBytes = vmBuilder.build().toByteArray();
-        break;
-      case INPUT_READ_ERROR_EVENT:
-        InputReadErrorEvent ideEvt = (InputReadErrorEvent) event;
-        eventBytes = InputReadErrorEventProto.newBuilder()
-            .setIndex(ideEvt.getIndex())
-            .setDiagnostics(ideEvt.getDiagnostics())
-            .setVersion(ideEvt.getVersion())
-            .build().toByteArray();
-        break;
-      case TASK_ATTEMPT_FAILED_EVENT:
-        TaskAttemptFailedEvent tfEvt = (TaskAttemptFailedEvent) event;
-        eventBytes = TaskAttemptFailedEventProto.newBuilder()
-            .setDiagnostics(tfEvt.getDiagnostics())
-            .build().toByteArray();
-        break;
-      case TASK_ATTEMPT_COMPLETED_EVENT:
-        eventBytes = TaskAttemptCompletedEventProto.newBuilder()
-            .build().toByteArray();
-        break;
-      case INPUT_FAILED_EVENT:
-        InputFailedEvent ifEvt = (InputFailedEvent) event;
-        eventBytes = InputFailedEventProto.newBuilder()
-            .setSourceIndex(ifEvt.getSourceIndex())
-            .setTargetIndex(ifEvt.getTargetIndex())
-            .setVersion(ifEvt.getVersion()).build().toByteArray();
-        break;
-      case ROOT_INPUT_DATA_INFORMATION_EVENT:
-        eventBytes = ProtoConverters.convertRootInputDataInformationEventToProto(
-            (RootInputDataInformationEvent) event).toByteArray();
-        break;
-      default:
-        throw new TezUncheckedException("Unknown TezEvent"
-           + ", type=" + eventType);
-      }
+      byte[] eventBytes = serializeEventBytes();
       out.writeInt(eventBytes.length);
       out.write(eventBytes);
     }
   }
 
+  private byte[] serializeEventBytes() throws IOException {
+    byte[] eventBytes = null;
+    switch (eventType) {
+    case DATA_MOVEMENT_EVENT:
+      eventBytes =
+          ProtoConverters.convertDataMovementEventToProto(
+              (DataMovementEvent) event).toByteArray();
+      break;
+    case COMPOSITE_DATA_MOVEMENT_EVENT:
+      eventBytes =
+          ProtoConverters.convertCompositeDataMovementEventToProto(
+              (CompositeDataMovementEvent) event).toByteArray();
+      break;
+    case VERTEX_MANAGER_EVENT:
+      VertexManagerEvent vmEvt = (VertexManagerEvent) event;
+      VertexManagerEventProto.Builder vmBuilder = VertexManagerEventProto.newBuilder();
+      vmBuilder.setTargetVertexName(vmEvt.getTargetVertexName());
+      if (vmEvt.getUserPayload() != null) {
+        vmBuilder.setUserPayload(ByteString.copyFrom(vmEvt.getUserPayload()));
+      }
+      eventBytes = vmBuilder.build().toByteArray();
+      break;
+    case INPUT_READ_ERROR_EVENT:
+      InputReadErrorEvent ideEvt = (InputReadErrorEvent) event;
+      eventBytes = InputReadErrorEventProto.newBuilder()
+          .setIndex(ideEvt.getIndex())
+          .setDiagnostics(ideEvt.getDiagnostics())
+          .setVersion(ideEvt.getVersion())
+          .build().toByteArray();
+      break;
+    case TASK_ATTEMPT_FAILED_EVENT:
+      TaskAttemptFailedEvent tfEvt = (TaskAttemptFailedEvent) event;
+      eventBytes = TaskAttemptFailedEventProto.newBuilder()
+          .setDiagnostics(tfEvt.getDiagnostics())
+          .build().toByteArray();
+      break;
+    case TASK_ATTEMPT_COMPLETED_EVENT:
+      eventBytes = TaskAttemptCompletedEventProto.newBuilder()
+          .build().toByteArray();
+      break;
+    case INPUT_FAILED_EVENT:
+      InputFailedEvent ifEvt = (InputFailedEvent) event;
+      eventBytes = InputFailedEventProto.newBuilder()
+          .setSourceIndex(ifEvt.getSourceIndex())
+          .setTargetIndex(ifEvt.getTargetIndex())
+          .setVersion(ifEvt.getVersion()).build().toByteArray();
+      break;
+    case ROOT_INPUT_DATA_INFORMATION_EVENT:
+      eventBytes = ProtoConverters.convertRootInputDataInformationEventToProto(
+          (RootInputDataInformationEvent) event).toByteArray();
+      break;
+    default:
+      throw new TezUncheckedException("Unknown TezEvent"
+         + ", type=" + eventType);
+    }
+    return eventBytes;
+  }
+
   private void deserializeEvent(DataInput in) throws IOException {
     if (!in.readBoolean()) {
       event = null;
@@ -195,52 +203,56 @@ public class TezEvent implements Writable {
       int eventBytesLen = in.readInt();
       byte[] eventBytes = new byte[eventBytesLen];
       in.readFully(eventBytes);
-      switch (eventType) {
-      case DATA_MOVEMENT_EVENT:
-        DataMovementEventProto dmProto =
-            DataMovementEventProto.parseFrom(eventBytes);
-        event = ProtoConverters.convertDataMovementEventFromProto(dmProto);
-        break;
-      case COMPOSITE_DATA_MOVEMENT_EVENT:
-        CompositeEventProto cProto = CompositeEventProto.parseFrom(eventBytes);
-        event = ProtoConverters.convertCompositeDataMovementEventFromProto(cProto);
-        break;
-      case VERTEX_MANAGER_EVENT:
-        VertexManagerEventProto vmProto =
-            VertexManagerEventProto.parseFrom(eventBytes);
-        event = new VertexManagerEvent(vmProto.getTargetVertexName(),
-            vmProto.getUserPayload() != null ? vmProto.getUserPayload().toByteArray() : null);
-        break;
-      case INPUT_READ_ERROR_EVENT:
-        InputReadErrorEventProto ideProto =
-            InputReadErrorEventProto.parseFrom(eventBytes);
-        event = new InputReadErrorEvent(ideProto.getDiagnostics(),
-            ideProto.getIndex(), ideProto.getVersion());
-        break;
-      case TASK_ATTEMPT_FAILED_EVENT:
-        TaskAttemptFailedEventProto tfProto =
-            TaskAttemptFailedEventProto.parseFrom(eventBytes);
-        event = new TaskAttemptFailedEvent(tfProto.getDiagnostics());
-        break;
-      case TASK_ATTEMPT_COMPLETED_EVENT:
-        event = new TaskAttemptCompletedEvent();
-        break;
-      case INPUT_FAILED_EVENT:
-        InputFailedEventProto ifProto =
-            InputFailedEventProto.parseFrom(eventBytes);
-        event = new InputFailedEvent(ifProto.getSourceIndex(),
-            ifProto.getTargetIndex(), ifProto.getVersion());
-        break;
-      case ROOT_INPUT_DATA_INFORMATION_EVENT:
-        RootInputDataInformationEventProto difProto = RootInputDataInformationEventProto
-            .parseFrom(eventBytes);
-        event = ProtoConverters.convertRootInputDataInformationEventFromProto(difProto);
-        break;
-      default:
-        // RootInputUpdatePayload event not wrapped in a TezEvent.
-        throw new TezUncheckedException("Unexpected TezEvent"
-           + ", type=" + eventType);
-      }
+      deserializeEventBytes(eventBytes);
+    }
+  }
+
+  private void deserializeEventBytes(byte[] eventBytes) throws IOException {
+    switch (eventType) {
+    case DATA_MOVEMENT_EVENT:
+      DataMovementEventProto dmProto =
+          DataMovementEventProto.parseFrom(eventBytes);
+      event = ProtoConverters.convertDataMovementEventFromProto(dmProto);
+      break;
+    case COMPOSITE_DATA_MOVEMENT_EVENT:
+      CompositeEventProto cProto = CompositeEventProto.parseFrom(eventBytes);
+      event = ProtoConverters.convertCompositeDataMovementEventFromProto(cProto);
+      break;
+    case VERTEX_MANAGER_EVENT:
+      VertexManagerEventProto vmProto =
+          VertexManagerEventProto.parseFrom(eventBytes);
+      event = new VertexManagerEvent(vmProto.getTargetVertexName(),
+          vmProto.getUserPayload() != null ? vmProto.getUserPayload().toByteArray() : null);
+      break;
+    case INPUT_READ_ERROR_EVENT:
+      InputReadErrorEventProto ideProto =
+          InputReadErrorEventProto.parseFrom(eventBytes);
+      event = new InputReadErrorEvent(ideProto.getDiagnostics(),
+          ideProto.getIndex(), ideProto.getVersion());
+      break;
+    case TASK_ATTEMPT_FAILED_EVENT:
+      TaskAttemptFailedEventProto tfProto =
+          TaskAttemptFailedEventProto.parseFrom(eventBytes);
+      event = new TaskAttemptFailedEvent(tfProto.getDiagnostics());
+      break;
+    case TASK_ATTEMPT_COMPLETED_EVENT:
+      event = new TaskAttemptCompletedEvent();
+      break;
+    case INPUT_FAILED_EVENT:
+      InputFailedEventProto ifProto =
+          InputFailedEventProto.parseFrom(eventBytes);
+      event = new InputFailedEvent(ifProto.getSourceIndex(),
+          ifProto.getTargetIndex(), ifProto.getVersion());
+      break;
+    case ROOT_INPUT_DATA_INFORMATION_EVENT:
+      RootInputDataInformationEventProto difProto = RootInputDataInformationEventProto
+          .parseFrom(eventBytes);
+      event = ProtoConverters.convertRootInputDataInformationEventFromProto(difProto);
+      break;
+    default:
+      // RootInputUpdatePayload event not wrapped in a TezEvent.
+      throw new TezUncheckedException("Unexpected TezEvent"
+         + ", type=" + eventType);
     }
   }
 
@@ -274,4 +286,100 @@ public class TezEvent implements Writable {
     }
   }
 
+  /**
+   * Writes the events of a heartbeat in a compact form. Event metadata is
+   * written relative to that of the earlier events in the list, and
+   * DataMovementEvents are written field by field so that a payload shared
+   * by several of them is sent once.
+   */
+  static void writeEvents(DataOutput out, List<TezEvent> events)
+      throws IOException {
+    WritableUtils.writeVInt(out, events.size());
+    EventWireContext context = new EventWireContext();
+    for (TezEvent e : events) {
+      e.write(out, context);
+    }
+  }
+
+  static List<TezEvent> readEvents(DataInput in) throws IOException {
+    int eventCount = WritableUtils.readVInt(in);
+    List<TezEvent> events = new ArrayList<TezEvent>(eventCount);
+    EventWireContext context = new EventWireContext();
+    for (int i = 0; i < eventCount; ++i) {
+      TezEvent e = new TezEvent();
+      e.readFields(in, context);
+      events.add(e);
+    }
+    return events;
+  }
+
+  private void write(DataOutput out, EventWireContext context)
+      throws IOException {
+    if (event == null) {
+      WritableUtils.writeVInt(out, 0);
+    } else {
+      WritableUtils.writeVInt(out, eventType.ordinal() + 1);
+      switch (eventType) {
+      case TASK_STATUS_UPDATE_EVENT:
+        ((TaskStatusUpdateEvent) event).write(out);
+        break;
+      case DATA_MOVEMENT_EVENT:
+        DataMovementEvent dmEvt = (DataMovementEvent) event;
+        WritableUtils.writeVInt(out, dmEvt.getSourceIndex());
+        WritableUtils.writeVInt(out, dmEvt.getTargetIndex());
+        WritableUtils.writeVInt(out, dmEvt.getVersion());
+        context.writePayload(out, dmEvt.getUserPayload());
+        break;
+      default:
+        byte[] eventBytes = serializeEventBytes();
+        WritableUtils.writeVInt(out, eventBytes.length);
+        out.write(eventBytes);
+      }
+    }
+    out.writeByte((sourceInfo != null ? 1 : 0)
+        | (destinationInfo != null ? 2 : 0));
+    if (sourceInfo != null) {
+      sourceInfo.write(out, context);
+    }
+    if (destinationInfo != null) {
+      destinationInfo.write(out, context);
+    }
+  }
+
+  private void readFields(DataInput in, EventWireContext context)
+      throws IOException {
+    int type = WritableUtils.readVInt(in);
+    if (type == 0) {
+      event = null;
+    } else {
+      eventType = EventType.values()[type - 1];
+      switch (eventType) {
+      case TASK_STATUS_UPDATE_EVENT:
+        event = new TaskStatusUpdateEvent();
+        ((TaskStatusUpdateEvent) event).readFields(in);
+        break;
+      case DATA_MOVEMENT_EVENT:
+        int sourceIndex = WritableUtils.readVInt(in);
+        int targetIndex = WritableUtils.readVInt(in);
+        int version = WritableUtils.readVInt(in);
+        event = new DataMovementEvent(sourceIndex, targetIndex, version,
+            context.readPayload(in));
+        break;
+      default:
+        byte[] eventBytes = new byte[WritableUtils.readVInt(in)];
+        in.readFully(eventBytes);
+        deserializeEventBytes(eventBytes);
+      }
+    }
+    byte infoFlags = in.readByte();
+    if ((infoFlags & 1) != 0) {
+      sourceInfo = new EventMetaData();
+      sourceInfo.readFields(in, context);
+    }
+    if ((infoFlags & 2) != 0) {
+      destinationInfo = new EventMetaData();
+      destinationInfo.readFields(in, context);
+    }
+  }
+
 }
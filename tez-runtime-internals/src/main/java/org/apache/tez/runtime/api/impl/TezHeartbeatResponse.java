@@ -21,7 +21,6 @@ package org.apache.tez.runtime.api.impl;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -70,10 +69,7 @@ public class TezHeartbeatResponse implements Writable {
     out.writeBoolean(shouldDie);
     if(events != null) {
       out.writeBoolean(true);
-      out.writeInt(events.size());
-      for (TezEvent e : events) {
-        e.write(out);
-      }
+      TezEvent.writeEvents(out, events);
     } else {
       out.writeBoolean(false);
     }
@@ -84,13 +80,7 @@ public class TezHeartbeatResponse implements Writable {
     lastRequestId = in.readLong();
     shouldDie = in.readBoolean();
     if(in.readBoolean()) {
-      int eventCount = in.readInt();
-      events = new ArrayList<TezEvent>(eventCount);
-      for (int i = 0; i < eventCount; ++i) {
-        TezEvent e = new TezEvent();
-        e.readFields(in);
-        events.add(e);
-      }
+      events = TezEvent.readEvents(in);
     }
   }
 
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+import org.apache.tez.runtime.api.events.InputReadErrorEvent;
+import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
+import org.junit.Test;
+
+public class TestTezHeartbeatResponse {
+
+  private static TezTaskAttemptID attempt(TezVertexID vertexID, int task,
+      int attempt) {
+    return TezTaskAttemptID.getInstance(
+        TezTaskID.getInstance(vertexID, task), attempt);
+  }
+
+  @Test
+  public void testEventsRoundTrip() throws IOException {
+    TezDAGID dagID = TezDAGID.getInstance("1000", 1, 1);
+    TezVertexID mapID = TezVertexID.getInstance(dagID, 0);
+    TezVertexID joinID = TezVertexID.getInstance(dagID, 1);
+    TezTaskAttemptID reduceAttempt =
+        attempt(TezVertexID.getInstance(dagID, 2), 3, 0);
+    EventMetaData destination = new EventMetaData(
+        EventProducerConsumerType.INPUT, "reduce", "map", reduceAttempt);
+
+    byte[] shared = new byte[] { 1, 2, 3 };
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (int i = 0; i < 100; i++) {
+      TezVertexID source = i % 2 == 0 ? mapID : joinID;
+      TezEvent e = new TezEvent(
+          new DataMovementEvent(i % 3, i, i % 2, new byte[] { (byte) i }),
+          new EventMetaData(EventProducerConsumerType.OUTPUT,
+              source == mapID ? "map" : "join", "reduce",
+              attempt(source, 100 - i, i % 4)));
+      e.setDestinationInfo(destination);
+      events.add(e);
+    }
+    // two events routed from one composite event share its payload
+    for (int i = 0; i < 2; i++) {
+      TezEvent e = new TezEvent(new DataMovementEvent(i, 5, 0, shared),
+          new EventMetaData(EventProducerConsumerType.OUTPUT, "map",
+              "reduce", attempt(mapID, 7, 1)));
+      e.setDestinationInfo(destination);
+      events.add(e);
+    }
+    events.add(new TezEvent(new InputReadErrorEvent("lost", 4, 1),
+        new EventMetaData(EventProducerConsumerType.INPUT, "reduce", "map",
+            null)));
+
+    TezHeartbeatResponse response = new TezHeartbeatResponse(events);
+    response.setLastRequestId(17);
+    DataOutputBuffer out = new DataOutputBuffer();
+    response.write(out);
+
+    DataOutputBuffer plain = new DataOutputBuffer();
+    for (TezEvent e : events) {
+      e.write(plain);
+    }
+    assertTrue(out.getLength() * 2 < plain.getLength());
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TezHeartbeatResponse read = new TezHeartbeatResponse();
+    read.readFields(in);
+    assertEquals(17, read.getLastRequestId());
+    assertEquals(events.size(), read.getEvents().size());
+
+    for (int i = 0; i < events.size(); i++) {
+      TezEvent expected = events.get(i);
+      TezEvent actual = read.getEvents().get(i);
+      assertEquals(expected.getEventType(), actual.getEventType());
+      assertMetaDataEquals(expected.getSourceInfo(), actual.getSourceInfo());
+      assertMetaDataEquals(expected.getDestinationInfo(),
+          actual.getDestinationInfo());
+      if (expected.getEvent() instanceof DataMovementEvent) {
+        DataMovementEvent e = (DataMovementEvent) expected.getEvent();
+        DataMovementEvent a = (DataMovementEvent) actual.getEvent();
+        assertEquals(e.getSourceIndex(), a.getSourceIndex());
+        assertEquals(e.getTargetIndex(), a.getTargetIndex());
+        assertEquals(e.getVersion(), a.getVersion());
+        assertArrayEquals(e.getUserPayload(), a.getUserPayload());
+      } else {
+        InputReadErrorEvent e = (InputReadErrorEvent) expected.getEvent();
+        InputReadErrorEvent a = (InputReadErrorEvent) actual.getEvent();
+        assertEquals(e.getDiagnostics(), a.getDiagnostics());
+        assertEquals(e.getIndex(), a.getIndex());
+        assertEquals(e.getVersion(), a.getVersion());
+        assertNull(actual.getDestinationInfo());
+      }
+    }
+    assertTrue(((DataMovementEvent) read.getEvents().get(100).getEvent())
+        .getUserPayload() == ((DataMovementEvent) read.getEvents().get(101)
+        .getEvent()).getUserPayload());
+  }
+
+  private static void assertMetaDataEquals(EventMetaData expected,
+      EventMetaData actual) {
+    if (expected == null) {
+      assertNull(actual);
+      return;
+    }
+    assertEquals(expected.getEventGenerator(), actual.getEventGenerator());
+    assertEquals(expected.getTaskVertexName(), actual.getTaskVertexName());
+    assertEquals(expected.getEdgeVertexName(), actual.getEdgeVertexName());
+    assertEquals(expected.getTaskAttemptID(), actual.getTaskAttemptID());
+  }
+}
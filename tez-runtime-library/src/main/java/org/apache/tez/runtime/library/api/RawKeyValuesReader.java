@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.api;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.tez.runtime.api.Reader;
+
+/**
+ * A key/value(s) pair based {@link Reader} over serialized keys and values.
+ * Nothing is deserialized, and no objects are allocated per key or value.
+ * 
+ * Example usage
+ * <code>
+ * while (rawReader.next()) {
+ *   DataInputBuffer key = rawReader.getCurrentRawKey();
+ *   while (rawReader.nextRawValue()) {
+ *     DataInputBuffer value = rawReader.getCurrentRawValue();
+ * </code>
+ * 
+ * The bytes of a key or value start at the position of its buffer and end
+ * at the length of the buffer. The buffers are reused: the key remains valid
+ * until the next call to {@link #next()}, a value until the next call to
+ * either method.
+ */
+public interface RawKeyValuesReader extends Reader {
+
+  /**
+   * Moves to the next key/values(s) pair, skipping any values of the current
+   * key which have not been read.
+   * 
+   * @return true if another key/value(s) pair exists, false if there are no more.
+   * @throws IOException
+   *           if an error occurs
+   */
+  public boolean next() throws IOException;
+
+  /**
+   * Returns the serialized current key
+   * @return the serialized current key
+   */
+  public DataInputBuffer getCurrentRawKey() throws IOException;
+
+  /**
+   * Moves to the next value of the current key
+   * @return true if the current key has another value, false otherwise
+   * @throws IOException
+   *           if an error occurs
+   */
+  public boolean nextRawValue() throws IOException;
+
+  /**
+   * Returns the serialized current value
+   * @return the serialized current value
+   */
+  public DataInputBuffer getCurrentRawValue() throws IOException;
+}
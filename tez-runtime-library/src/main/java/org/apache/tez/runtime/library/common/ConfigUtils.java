@@ -26,6 +26,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.common.sort.impl.NormalizedKeyPrefix;
 
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class ConfigUtils {
@@ -115,6 +116,36 @@ public class ConfigUtils {
         WritableComparable.class));
   }
 
+  /**
+   * Returns the normalized key prefix for the intermediate output keys, or
+   * null if prefixes are disabled or none is known to match the configured
+   * key comparator.
+   */
+  public static NormalizedKeyPrefix getIntermediateOutputKeyPrefix(Configuration conf) {
+    if (!conf.getBoolean(
+        TezJobConfig.TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_ENABLED,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_ENABLED)) {
+      return null;
+    }
+    Class<? extends NormalizedKeyPrefix> theClass = conf.getClass(
+        TezJobConfig.TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_CLASS, null,
+        NormalizedKeyPrefix.class);
+    if (theClass != null)
+      return ReflectionUtils.newInstance(theClass, conf);
+    Class<?> keyClass = getIntermediateOutputKeyClass(conf);
+    Class<? extends RawComparator> comparatorClass = conf.getClass(
+        TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_COMPARATOR_CLASS, null,
+        RawComparator.class);
+    if (comparatorClass != null
+        && (!WritableComparable.class.isAssignableFrom(keyClass)
+            || comparatorClass != WritableComparator.get(
+                keyClass.asSubclass(WritableComparable.class)).getClass())) {
+      // the built-in prefixes only match the default comparators
+      return null;
+    }
+    return NormalizedKeyPrefix.Writables.forKeyClass(keyClass);
+  }
+
   public static <K> RawComparator<K> getIntermediateInputKeyComparator(Configuration conf) {
     Class<? extends RawComparator> theClass = conf.getClass(
         TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_INPUT_KEY_COMPARATOR_CLASS, null,
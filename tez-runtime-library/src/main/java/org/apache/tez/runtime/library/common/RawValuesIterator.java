@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.api.RawKeyValuesReader;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+
+/**
+ * Iterates serialized values while serialized keys match in sorted input.
+ * Keys are grouped with the raw comparator, and neither keys nor values are
+ * deserialized.
+ * 
+ * The iterator only advances the underlying input when the next value or
+ * key is requested, so the current value stays valid until then.
+ * 
+ * This class is not thread safe. Accessing methods from multiple threads will
+ * lead to corrupt data.
+ */
+public class RawValuesIterator implements RawKeyValuesReader {
+  private final TezRawKeyValueIterator in;
+  private final RawComparator comparator;
+  private final TezCounter inputKeyCounter;
+  private final TezCounter inputValueCounter;
+
+  // a copy, since the input reuses its key buffer
+  private final DataOutputBuffer currentKey = new DataOutputBuffer();
+  private final DataInputBuffer key = new DataInputBuffer();
+  private final DataInputBuffer value = new DataInputBuffer();
+
+  private boolean isFirstRecord = true;
+  // the input is positioned on a record
+  private boolean more;
+  // the record the input is positioned on belongs to the current key
+  private boolean hasMoreValues;
+  // the value of that record has been returned
+  private boolean valueReturned;
+
+  public RawValuesIterator(TezRawKeyValueIterator in,
+      RawComparator comparator, TezCounter inputKeyCounter,
+      TezCounter inputValueCounter) {
+    this.in = in;
+    this.comparator = comparator;
+    this.inputKeyCounter = inputKeyCounter;
+    this.inputValueCounter = inputValueCounter;
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    if (isFirstRecord) {
+      more = in.next();
+      isFirstRecord = false;
+    } else {
+      if (valueReturned) {
+        advance();
+      }
+      while (hasMoreValues) {
+        advance();
+      }
+    }
+    if (!more) {
+      return false;
+    }
+    DataInputBuffer nextKey = in.getKey();
+    currentKey.reset();
+    currentKey.write(nextKey.getData(), nextKey.getPosition(),
+        nextKey.getLength() - nextKey.getPosition());
+    key.reset(currentKey.getData(), 0, currentKey.getLength());
+    hasMoreValues = true;
+    if (inputKeyCounter != null) {
+      inputKeyCounter.increment(1);
+    }
+    return true;
+  }
+
+  @Override
+  public DataInputBuffer getCurrentRawKey() {
+    key.reset(currentKey.getData(), 0, currentKey.getLength());
+    return key;
+  }
+
+  @Override
+  public boolean nextRawValue() throws IOException {
+    if (valueReturned) {
+      advance();
+    }
+    if (!hasMoreValues) {
+      return false;
+    }
+    DataInputBuffer nextValue = in.getValue();
+    value.reset(nextValue.getData(), nextValue.getPosition(),
+        nextValue.getLength() - nextValue.getPosition());
+    valueReturned = true;
+    if (inputValueCounter != null) {
+      inputValueCounter.increment(1);
+    }
+    return true;
+  }
+
+  @Override
+  public DataInputBuffer getCurrentRawValue() {
+    return value;
+  }
+
+  /**
+   * Move the input to the next record, and check whether it belongs to the
+   * current key.
+   */
+  @SuppressWarnings("unchecked")
+  private void advance() throws IOException {
+    valueReturned = false;
+    more = in.next();
+    if (more) {
+      DataInputBuffer nextKey = in.getKey();
+      hasMoreValues = comparator.compare(
+          currentKey.getData(), 0, currentKey.getLength(),
+          nextKey.getData(), nextKey.getPosition(),
+          nextKey.getLength() - nextKey.getPosition()) == 0;
+    } else {
+      hasMoreValues = false;
+    }
+  }
+}
@@ -25,12 +25,15 @@ import java.lang.reflect.InvocationTargetException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.TezOutputContext;
 import org.apache.tez.runtime.api.TezTaskContext;
 import org.apache.tez.runtime.library.api.Partitioner;
+import org.apache.tez.runtime.library.common.combine.AdaptiveCombiner;
 import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.combine.PreAggregator;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutput;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
 
@@ -89,9 +92,31 @@ public class TezRuntimeUtils {
       } catch (InvocationTargetException e) {
         throw new IOException(e);
       }
+      if (conf.getBoolean(TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE,
+          TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE)) {
+        combiner = new AdaptiveCombiner(combiner, conf);
+      }
       return combiner;
   }
   
+  /**
+   * Returns the configured {@link PreAggregator}, or null if there is none.
+   */
+  public static PreAggregator instantiatePreAggregator(Configuration conf)
+      throws IOException {
+    String className = conf.get(TezJobConfig.TEZ_RUNTIME_PRE_AGGREGATOR_CLASS);
+    if (className == null) {
+      return null;
+    }
+    LOG.info("Using PreAggregator class: " + className);
+    try {
+      return ReflectionUtils.newInstance(
+          conf.getClassByName(className).asSubclass(PreAggregator.class), conf);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Unable to load pre-aggregator class: " + className);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   public static Partitioner instantiatePartitioner(Configuration conf)
       throws IOException {
@@ -27,6 +27,7 @@ import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
 
@@ -58,6 +59,8 @@ public class ValuesIterator<KEY,VALUE> {
   private int keyCtr = 0;
   private boolean hasMoreValues; // For the current key.
   private boolean isFirstRecord = true;
+  // set when the values of all keys are returned through one instance
+  private final ReusableValues reusableValues;
   
   public ValuesIterator (TezRawKeyValueIterator in, 
                          RawComparator<KEY> comparator, 
@@ -75,6 +78,12 @@ public class ValuesIterator<KEY,VALUE> {
     this.keyDeserializer.open(keyIn);
     this.valDeserializer = serializationFactory.getDeserializer(valClass);
     this.valDeserializer.open(this.valueIn);
+    if (conf.getBoolean(TezJobConfig.TEZ_RUNTIME_VALUES_ITERATOR_REUSE,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_VALUES_ITERATOR_REUSE)) {
+      this.reusableValues = new ReusableValues();
+    } else {
+      this.reusableValues = null;
+    }
   }
 
   TezRawKeyValueIterator getRawIterator() { return in; }
@@ -105,6 +114,9 @@ public class ValuesIterator<KEY,VALUE> {
   // TODO NEWTEZ Maybe add another method which returns an iterator instead of iterable
   
   public Iterable<VALUE> getValues() {
+    if (reusableValues != null) {
+      return reusableValues;
+    }
     return new Iterable<VALUE>() {
 
       @Override
@@ -150,6 +162,43 @@ public class ValuesIterator<KEY,VALUE> {
   
   
 
+  /**
+   * The values of the current key, whichever key that is. Used for every key
+   * when iterator reuse is enabled.
+   */
+  private class ReusableValues implements Iterable<VALUE>, Iterator<VALUE> {
+
+    @Override
+    public Iterator<VALUE> iterator() {
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return hasMoreValues;
+    }
+
+    @Override
+    public VALUE next() {
+      if (!hasMoreValues) {
+        throw new NoSuchElementException("iterate past last value");
+      }
+      try {
+        readNextValue();
+        readNextKey();
+      } catch (IOException ie) {
+        throw new RuntimeException("problem advancing post rec#"+keyCtr, ie);
+      }
+      inputValueCounter.increment(1);
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove elements");
+    }
+  }
+
   /** Start processing next unique key. */
   private void nextKey() throws IOException {
     // read until we find a new key
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+
+/**
+ * Runs a combiner for as long as it pays off. Every run counts the records
+ * the combiner reads and writes; once
+ * {@link TezJobConfig#TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS} records have
+ * been read, the combiner is turned off if it wrote more than
+ * {@link TezJobConfig#TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO} of them. The
+ * records of later runs are then written out as they are.
+ * 
+ * The sampled reduction ratio also decides whether a
+ * {@link HashPreAggregationBuffer} in front of the sorter is started. It may
+ * be read from threads other than the one combining; combine calls
+ * themselves must not be concurrent, as the wrapped combiner need not be
+ * thread safe.
+ */
+@Private
+public class AdaptiveCombiner implements Combiner {
+
+  private static final Log LOG = LogFactory.getLog(AdaptiveCombiner.class);
+
+  private final Combiner combiner;
+  private final long minRecords;
+  private final float maxRatio;
+
+  private long inputRecords = 0;
+  private long outputRecords = 0;
+  private volatile boolean enabled = true;
+
+  public AdaptiveCombiner(Combiner combiner, Configuration conf) {
+    this.combiner = combiner;
+    this.minRecords = conf.getLong(
+        TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS);
+    this.maxRatio = conf.getFloat(
+        TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO);
+  }
+
+  @Override
+  public void combine(TezRawKeyValueIterator rawIter, Writer writer)
+      throws InterruptedException, IOException {
+    if (!enabled) {
+      while (rawIter.next()) {
+        writer.append(rawIter.getKey(), rawIter.getValue());
+      }
+      return;
+    }
+    CountingIterator in = new CountingIterator(rawIter);
+    long written = writer.getNumRecordsWritten();
+    combiner.combine(in, writer);
+    update(in.records, writer.getNumRecordsWritten() - written);
+  }
+
+  private synchronized void update(long read, long written) {
+    inputRecords += read;
+    outputRecords += written;
+    if (enabled && inputRecords >= minRecords &&
+        outputRecords > maxRatio * inputRecords) {
+      LOG.info("Turning off the combiner, which wrote " + outputRecords +
+          " of " + inputRecords + " records");
+      enabled = false;
+    }
+  }
+
+  /**
+   * Returns whether the combiner is still run.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the ratio of records written to records read by the combiner so
+   * far, or 1 if it has not read any.
+   */
+  public synchronized float getReductionRatio() {
+    return inputRecords == 0 ? 1.0f : (float) outputRecords / inputRecords;
+  }
+
+  /**
+   * Returns whether enough records have been combined to rely on the
+   * reduction ratio.
+   */
+  public synchronized boolean isSampled() {
+    return inputRecords >= minRecords;
+  }
+
+  private static class CountingIterator implements TezRawKeyValueIterator {
+    private final TezRawKeyValueIterator iter;
+    long records = 0;
+
+    CountingIterator(TezRawKeyValueIterator iter) {
+      this.iter = iter;
+    }
+
+    @Override
+    public DataInputBuffer getKey() throws IOException {
+      return iter.getKey();
+    }
+
+    @Override
+    public DataInputBuffer getValue() throws IOException {
+      return iter.getValue();
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (iter.next()) {
+        ++records;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      iter.close();
+    }
+
+    @Override
+    public Progress getProgress() {
+      return iter.getProgress();
+    }
+  }
+}
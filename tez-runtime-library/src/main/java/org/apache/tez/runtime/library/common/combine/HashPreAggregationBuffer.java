@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.api.KeyValueWriter;
+import org.apache.tez.runtime.library.common.ConfigUtils;
+
+/**
+ * Folds the values written for equal keys with a {@link PreAggregator}, ahead
+ * of a sorter. Keys are told apart by their serialized bytes, in an open
+ * addressing hash table of at most
+ * {@link TezJobConfig#TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES} keys. The whole
+ * table is written to the sorter when it is full, and on {@link #flush()}.
+ * 
+ * With {@link TezJobConfig#TEZ_RUNTIME_COMBINER_ADAPTIVE} set, the table is
+ * bypassed for the rest of the task once it is seen to write more than
+ * {@link TezJobConfig#TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO} of the records
+ * written to it. When it is given the {@link AdaptiveCombiner} of the sorter,
+ * records also bypass the table until that combiner has sampled enough
+ * records, and is only used if the combiner was seen to reduce them.
+ * 
+ * Not thread safe.
+ */
+@Private
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class HashPreAggregationBuffer implements KeyValueWriter {
+
+  private static final Log LOG =
+      LogFactory.getLog(HashPreAggregationBuffer.class);
+
+  private final KeyValueWriter out;
+  private final PreAggregator aggregator;
+
+  private final int maxEntries;
+  private final int maxKeyBytes;
+  // slot -> entry + 1, 0 for an empty slot
+  private final int[] table;
+  private final int mask;
+
+  // entries, in insertion order
+  private final int[] hashes;
+  private final int[] keyStarts;
+  private final int[] keyLengths;
+  private final Object[] keys;
+  private final Object[] aggregates;
+  private int entries = 0;
+  private byte[] keyData = new byte[0];
+  private int keyDataLength = 0;
+
+  private final DataOutputBuffer keyOut = new DataOutputBuffer();
+  private final DataOutputBuffer valueOut = new DataOutputBuffer();
+  private final DataInputBuffer keyIn = new DataInputBuffer();
+  private final DataInputBuffer valueIn = new DataInputBuffer();
+  private final Serializer keySerializer;
+  private final Serializer valueSerializer;
+  private final Deserializer keyDeserializer;
+  private final Deserializer valueDeserializer;
+
+  private final boolean adaptive;
+  private final long minRecords;
+  private final float maxRatio;
+  private long inputRecords = 0;
+  private long outputRecords = 0;
+  private boolean enabled = true;
+
+  // the combiner whose reduction ratio decides whether to start, null once
+  // decided
+  private AdaptiveCombiner startCombiner;
+  private long bypassedRecords = 0;
+  // records between looks at the combiner
+  private static final int START_CHECK_INTERVAL = 4096;
+
+  public HashPreAggregationBuffer(Configuration conf, PreAggregator aggregator,
+      KeyValueWriter out) throws IOException {
+    this(conf, aggregator, out, null);
+  }
+
+  /**
+   * @param startCombiner
+   *          if not null, the table is only used once this combiner has
+   *          sampled enough records and reduces them
+   */
+  public HashPreAggregationBuffer(Configuration conf, PreAggregator aggregator,
+      KeyValueWriter out, AdaptiveCombiner startCombiner) throws IOException {
+    this.out = out;
+    this.aggregator = aggregator;
+    this.maxEntries = Math.min(1 << 28, Math.max(1, conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES)));
+    this.maxKeyBytes = conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_PRE_AGGREGATOR_MAX_KEY_BYTES,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_PRE_AGGREGATOR_MAX_KEY_BYTES);
+    // at most half full
+    this.table = new int[Integer.highestOneBit(2 * maxEntries - 1) << 1];
+    this.mask = table.length - 1;
+    this.hashes = new int[maxEntries];
+    this.keyStarts = new int[maxEntries];
+    this.keyLengths = new int[maxEntries];
+    this.keys = new Object[maxEntries];
+    this.aggregates = new Object[maxEntries];
+
+    SerializationFactory serializationFactory = new SerializationFactory(conf);
+    Class keyClass = ConfigUtils.getIntermediateOutputKeyClass(conf);
+    Class valueClass = ConfigUtils.getIntermediateOutputValueClass(conf);
+    keySerializer = serializationFactory.getSerializer(keyClass);
+    keySerializer.open(keyOut);
+    valueSerializer = serializationFactory.getSerializer(valueClass);
+    valueSerializer.open(valueOut);
+    keyDeserializer = serializationFactory.getDeserializer(keyClass);
+    keyDeserializer.open(keyIn);
+    valueDeserializer = serializationFactory.getDeserializer(valueClass);
+    valueDeserializer.open(valueIn);
+
+    this.adaptive = conf.getBoolean(TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE);
+    this.minRecords = conf.getLong(
+        TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS);
+    this.maxRatio = conf.getFloat(
+        TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_COMBINER_ADAPTIVE_MAX_RATIO);
+    if (startCombiner != null) {
+      this.startCombiner = startCombiner;
+      this.enabled = false;
+    }
+  }
+
+  @Override
+  public void write(Object key, Object value) throws IOException {
+    if (!enabled) {
+      if (startCombiner == null ||
+          ++bypassedRecords % START_CHECK_INTERVAL != 0 || !checkStart()) {
+        out.write(key, value);
+        return;
+      }
+    }
+    ++inputRecords;
+    keyOut.reset();
+    keySerializer.serialize(key);
+    byte[] keyBytes = keyOut.getData();
+    int keyLength = keyOut.getLength();
+    int hash = WritableComparator.hashBytes(keyBytes, keyLength);
+
+    int slot = find(hash, keyBytes, keyLength);
+    int entry = table[slot] - 1;
+    if (entry >= 0) {
+      aggregates[entry] = aggregator.aggregate(aggregates[entry], value);
+      return;
+    }
+
+    if (keyLength > maxKeyBytes) {
+      // too large to be held
+      out.write(key, value);
+      return;
+    }
+    if (entries == maxEntries ||
+        keyLength > maxKeyBytes - keyDataLength) {
+      flush();
+      if (!enabled) {
+        out.write(key, value);
+        return;
+      }
+      slot = find(hash, keyBytes, keyLength);
+    }
+    insert(slot, hash, keyBytes, keyLength, value);
+  }
+
+  /**
+   * Returns the slot of the key, or the empty slot it belongs in.
+   */
+  private int find(int hash, byte[] keyBytes, int keyLength) {
+    int slot = hash & mask;
+    while (true) {
+      int entry = table[slot] - 1;
+      if (entry < 0 ||
+          (hashes[entry] == hash && keyLengths[entry] == keyLength &&
+           WritableComparator.compareBytes(keyData, keyStarts[entry],
+               keyLength, keyBytes, 0, keyLength) == 0)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void insert(int slot, int hash, byte[] keyBytes, int keyLength,
+      Object value) throws IOException {
+    if (keyData.length < keyDataLength + keyLength) {
+      keyData = Arrays.copyOf(keyData, (int) Math.min(maxKeyBytes,
+          Math.max(2L * keyData.length, keyDataLength + keyLength)));
+    }
+    System.arraycopy(keyBytes, 0, keyData, keyDataLength, keyLength);
+
+    int entry = entries++;
+    hashes[entry] = hash;
+    keyStarts[entry] = keyDataLength;
+    keyLengths[entry] = keyLength;
+    keyDataLength += keyLength;
+
+    // private copies, as the writer may reuse the key and value objects
+    keyIn.reset(keyBytes, keyLength);
+    keys[entry] = keyDeserializer.deserialize(null);
+    valueOut.reset();
+    valueSerializer.serialize(value);
+    valueIn.reset(valueOut.getData(), valueOut.getLength());
+    aggregates[entry] = valueDeserializer.deserialize(null);
+    table[slot] = entry + 1;
+  }
+
+  /**
+   * Writes out the keys held, and their aggregates.
+   */
+  public void flush() throws IOException {
+    for (int i = 0; i < entries; ++i) {
+      out.write(keys[i], aggregates[i]);
+    }
+    outputRecords += entries;
+    Arrays.fill(keys, 0, entries, null);
+    Arrays.fill(aggregates, 0, entries, null);
+    Arrays.fill(table, 0);
+    entries = 0;
+    keyDataLength = 0;
+
+    if (adaptive && enabled && inputRecords >= minRecords &&
+        outputRecords > maxRatio * inputRecords) {
+      LOG.info("Turning off the pre-aggregation, which wrote " +
+          outputRecords + " of " + inputRecords + " records");
+      enabled = false;
+    }
+  }
+
+  /**
+   * Decides whether to start once the combiner has been sampled. Returns
+   * whether the table is now in use.
+   */
+  private boolean checkStart() {
+    if (!startCombiner.isSampled()) {
+      return false;
+    }
+    float ratio = startCombiner.getReductionRatio();
+    startCombiner = null;
+    if (ratio > maxRatio) {
+      LOG.info("Not starting the pre-aggregation, since the combiner wrote " +
+          ratio + " of the records it read");
+      return false;
+    }
+    LOG.info("Starting the pre-aggregation, since the combiner wrote " +
+        ratio + " of the records it read");
+    enabled = true;
+    return true;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience.LimitedPrivate;
+import org.apache.hadoop.classification.InterfaceStability.Unstable;
+import org.apache.tez.common.TezJobConfig;
+
+/**
+ *<b>PreAggregator Initialization</b></p> The PreAggregator class is picked up
+ * using the TEZ_RUNTIME_PRE_AGGREGATOR_CLASS attribute in {@link TezJobConfig},
+ * and may implement {@link org.apache.hadoop.conf.Configurable}.
+ * 
+ * A PreAggregator folds the values of equal keys written to a sorted output,
+ * before they reach the sort buffer. The folded values are sorted, combined
+ * and shuffled in place of the values they stand for.
+ */
+@Unstable
+@LimitedPrivate("mapreduce")
+public interface PreAggregator {
+  /**
+   * Folds a value into an aggregate.
+   * 
+   * @param aggregate
+   *          a copy of the first value written for the key, or the result of
+   *          an earlier call for the key. It may be modified and returned.
+   * @param value
+   *          the value being written, which must not be retained
+   * @return the aggregate of both
+   */
+  public Object aggregate(Object aggregate, Object value) throws IOException;
+}
@@ -19,24 +19,38 @@
 package org.apache.tez.runtime.library.common.readers;
 
 import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.runtime.library.api.KeyValueReader;
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.shuffle.impl.InMemoryReader;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.apache.tez.runtime.library.common.sort.impl.MappedIFileReader;
+import org.apache.tez.runtime.library.shuffle.common.DiskFetchedInput;
 import org.apache.tez.runtime.library.shuffle.common.FetchedInput;
 import org.apache.tez.runtime.library.shuffle.common.FetchedInput.Type;
 import org.apache.tez.runtime.library.shuffle.common.impl.ShuffleManager;
 import org.apache.tez.runtime.library.shuffle.common.MemoryFetchedInput;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
 
   private static final Log LOG = LogFactory.getLog(ShuffledUnorderedKVReader.class);
@@ -54,6 +68,8 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
   private final boolean ifileReadAhead;
   private final int ifileReadAheadLength;
   private final int ifileBufferSize;
+  private final boolean mapLocalFiles;
+  private final int checksumBlockSize;
   
   private final TezCounter inputRecordCounter;
   
@@ -62,6 +78,19 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
   
   private FetchedInput currentFetchedInput;
   private IFile.Reader currentReader;
+
+  // Decoding of inputs ahead of the consumer; null when disabled. Inputs are
+  // handed over in the order in which they were taken from the
+  // ShuffleManager.
+  private final ExecutorService prefetchPool;
+  private final BlockingQueue<Future<PrefetchedInput>> prefetchedInputs;
+  private final long prefetchBufferBytes;
+  private final Object prefetchLock = new Object();
+  // guarded by prefetchLock
+  private long prefetchedBytes = 0;
+  private Thread prefetchFeeder;
+  private boolean prefetchDone = false;
+  private PrefetchedInput currentPrefetchedInput;
   
   // TODO Remove this once per I/O counters are separated properly. Relying on
   // the counter at the moment will generate aggregate numbers. 
@@ -77,6 +106,9 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
     this.ifileReadAhead = ifileReadAhead;
     this.ifileReadAheadLength = ifileReadAheadLength;
     this.ifileBufferSize = ifileBufferSize;
+    this.mapLocalFiles = conf.getBoolean(TezJobConfig.TEZ_RUNTIME_IFILE_MMAP,
+        TezJobConfig.TEZ_RUNTIME_IFILE_MMAP_DEFAULT);
+    this.checksumBlockSize = IFile.getChecksumBlockSize(conf);
     this.inputRecordCounter = inputRecordCounter;
 
     this.keyClass = ConfigUtils.getIntermediateInputKeyClass(conf);
@@ -91,6 +123,25 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
     this.keyDeserializer.open(keyIn);
     this.valDeserializer = serializationFactory.getDeserializer(valClass);
     this.valDeserializer.open(valIn);
+
+    int prefetchInputs = conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_UNORDERED_READER_PREFETCH_INPUTS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_UNORDERED_READER_PREFETCH_INPUTS);
+    this.prefetchBufferBytes = conf.getLong(
+        TezJobConfig.TEZ_RUNTIME_UNORDERED_READER_PREFETCH_BUFFER_BYTES,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_UNORDERED_READER_PREFETCH_BUFFER_BYTES);
+    if (prefetchInputs > 0) {
+      LOG.info("Decoding up to " + prefetchInputs + " inputs ahead, within "
+          + prefetchBufferBytes + " bytes");
+      this.prefetchPool = Executors.newFixedThreadPool(prefetchInputs,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("UnorderedInputDecoder #%d").build());
+      this.prefetchedInputs =
+          new LinkedBlockingQueue<Future<PrefetchedInput>>(prefetchInputs);
+    } else {
+      this.prefetchPool = null;
+      this.prefetchedInputs = null;
+    }
   }
 
   // TODO NEWTEZ Maybe add an interface to check whether next will block.
@@ -140,6 +191,14 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
    * @throws IOException
    */
   private boolean readNextFromCurrentReader() throws IOException {
+    if (this.currentPrefetchedInput != null) {
+      if (!currentPrefetchedInput.next(keyIn, valIn)) {
+        return false;
+      }
+      this.key = keyDeserializer.deserialize(this.key);
+      this.value = valDeserializer.deserialize(this.value);
+      return true;
+    }
     // Initial reader.
     if (this.currentReader == null) {
       return false;
@@ -167,6 +226,10 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
     if (currentReader != null) { // Close the current reader.
       currentReader.close();
       currentFetchedInput.free();
+      currentReader = null;
+    }
+    if (prefetchPool != null) {
+      return moveToNextPrefetchedInput();
     }
     try {
       currentFetchedInput = shuffleManager.getNextInput();
@@ -182,6 +245,183 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
     }
   }
 
+  private boolean moveToNextPrefetchedInput() throws IOException {
+    if (currentPrefetchedInput != null) {
+      releasePrefetchBuffer(currentPrefetchedInput.reservedBytes);
+      currentPrefetchedInput = null;
+    }
+    if (prefetchDone) {
+      return false;
+    }
+    if (prefetchFeeder == null) {
+      prefetchFeeder = new Thread(new PrefetchFeeder(), "UnorderedInputPrefetcher");
+      prefetchFeeder.setDaemon(true);
+      prefetchFeeder.start();
+    }
+    PrefetchedInput next;
+    try {
+      next = prefetchedInputs.take().get();
+    } catch (InterruptedException e) {
+      LOG.warn("Interrupted while waiting for next available input", e);
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to read input", e.getCause());
+    }
+    if (next == null) { // No more inputs
+      prefetchDone = true;
+      prefetchPool.shutdown();
+      return false;
+    }
+    if (next.fetchedInput != null) {
+      // read on this thread
+      currentFetchedInput = next.fetchedInput;
+      currentReader = openIFileReader(currentFetchedInput);
+    } else {
+      currentPrefetchedInput = next;
+    }
+    return true;
+  }
+
+  private void reservePrefetchBuffer(long bytes) throws InterruptedException {
+    synchronized (prefetchLock) {
+      while (prefetchedBytes > 0 && prefetchedBytes + bytes > prefetchBufferBytes) {
+        prefetchLock.wait();
+      }
+      prefetchedBytes += bytes;
+    }
+  }
+
+  private void releasePrefetchBuffer(long bytes) {
+    synchronized (prefetchLock) {
+      prefetchedBytes -= bytes;
+      prefetchLock.notifyAll();
+    }
+  }
+
+  /**
+   * Stops decoding inputs ahead of the consumer.
+   */
+  public void close() {
+    if (prefetchPool != null) {
+      if (prefetchFeeder != null) {
+        prefetchFeeder.interrupt();
+      }
+      prefetchPool.shutdownNow();
+    }
+  }
+
+  /**
+   * Takes inputs from the ShuffleManager as they complete. On-disk inputs
+   * are decoded on the pool once there is room in the prefetch buffer;
+   * in-memory inputs are already decompressed and are passed on as they are,
+   * as are inputs too large for the buffer.
+   */
+  private class PrefetchFeeder implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final FetchedInput input = shuffleManager.getNextInput();
+          if (input == null) {
+            prefetchedInputs.put(Futures.<PrefetchedInput>immediateFuture(null));
+            return;
+          }
+          final long size = input.getActualSize();
+          if (input.getType() == Type.MEMORY || size > prefetchBufferBytes) {
+            prefetchedInputs.put(Futures.immediateFuture(new PrefetchedInput(input)));
+            continue;
+          }
+          reservePrefetchBuffer(size);
+          prefetchedInputs.put(prefetchPool.submit(new Callable<PrefetchedInput>() {
+            @Override
+            public PrefetchedInput call() throws IOException {
+              return decode(input, size);
+            }
+          }));
+        }
+      } catch (InterruptedException e) {
+        // closed
+      } catch (Throwable t) {
+        LOG.error("Failed to prefetch inputs", t);
+        prefetchedInputs.offer(Futures.<PrefetchedInput>immediateFailedFuture(t));
+      }
+    }
+  }
+
+  private PrefetchedInput decode(FetchedInput input, long size)
+      throws IOException {
+    PrefetchedInput decoded = new PrefetchedInput(size);
+    DataInputBuffer k = new DataInputBuffer();
+    DataInputBuffer v = new DataInputBuffer();
+    IFile.Reader reader = openIFileReader(input);
+    try {
+      while (reader.nextRawKey(k)) {
+        reader.nextRawValue(v);
+        decoded.add(k, v);
+      }
+    } finally {
+      reader.close();
+      input.free();
+    }
+    return decoded;
+  }
+
+  /**
+   * An input whose records have been read and decompressed into memory, or
+   * an input which is to be read by the consumer.
+   */
+  private static class PrefetchedInput {
+    final FetchedInput fetchedInput;
+    final long reservedBytes;
+    final DataOutputBuffer data;
+    // keyStart, keyLength, valueStart, valueLength of each record
+    int[] records;
+    int numRecords = 0;
+    int nextRecord = 0;
+
+    PrefetchedInput(FetchedInput fetchedInput) {
+      this.fetchedInput = fetchedInput;
+      this.reservedBytes = 0;
+      this.data = null;
+    }
+
+    PrefetchedInput(long size) {
+      this.fetchedInput = null;
+      this.reservedBytes = size;
+      this.data = new DataOutputBuffer((int) Math.min(size, Integer.MAX_VALUE));
+      this.records = new int[4 * 64];
+    }
+
+    void add(DataInputBuffer key, DataInputBuffer value) throws IOException {
+      if (records.length < (numRecords + 1) * 4) {
+        int[] grown = new int[records.length * 2];
+        System.arraycopy(records, 0, grown, 0, records.length);
+        records = grown;
+      }
+      int i = numRecords * 4;
+      int keyLength = key.getLength() - key.getPosition();
+      records[i] = data.getLength();
+      records[i + 1] = keyLength;
+      data.write(key.getData(), key.getPosition(), keyLength);
+      int valueLength = value.getLength() - value.getPosition();
+      records[i + 2] = data.getLength();
+      records[i + 3] = valueLength;
+      data.write(value.getData(), value.getPosition(), valueLength);
+      ++numRecords;
+    }
+
+    boolean next(DataInputBuffer key, DataInputBuffer value) {
+      if (nextRecord == numRecords) {
+        return false;
+      }
+      int i = nextRecord * 4;
+      key.reset(data.getData(), records[i], records[i + 1]);
+      value.reset(data.getData(), records[i + 2], records[i + 3]);
+      ++nextRecord;
+      return true;
+    }
+  }
+
   public IFile.Reader openIFileReader(FetchedInput fetchedInput)
       throws IOException {
     if (fetchedInput.getType() == Type.MEMORY) {
@@ -189,10 +429,16 @@ public class ShuffledUnorderedKVReader<K, V> implements KeyValueReader {
 
       return new InMemoryReader(null, mfi.getInputAttemptIdentifier(),
           mfi.getBytes(), 0, (int) mfi.getActualSize());
+    } else if (mapLocalFiles && codec == null
+        && fetchedInput instanceof DiskFetchedInput) {
+      return new MappedIFileReader(
+          ((DiskFetchedInput) fetchedInput).getLocalFile(), 0,
+          fetchedInput.getCompressedSize(), null, null, ifileBufferSize,
+          checksumBlockSize);
     } else {
       return new IFile.Reader(fetchedInput.getInputStream(),
           fetchedInput.getCompressedSize(), codec, null, null, ifileReadAhead,
-          ifileReadAheadLength, ifileBufferSize);
+          ifileReadAheadLength, ifileBufferSize, checksumBlockSize);
     }
   }
 }
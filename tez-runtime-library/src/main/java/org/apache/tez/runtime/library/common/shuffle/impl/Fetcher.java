@@ -18,6 +18,7 @@
 package org.apache.tez.runtime.library.common.shuffle.impl;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,7 +27,9 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -50,7 +53,9 @@ import org.apache.tez.runtime.api.TezInputContext;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.security.SecureShuffleUtils;
 import org.apache.tez.runtime.library.common.shuffle.impl.MapOutput.Type;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.IFileInputStream;
+import org.apache.tez.runtime.library.shuffle.common.ShuffleUtils;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -82,6 +87,8 @@ class Fetcher extends Thread {
   private final int connectionTimeout;
   private final int readTimeout;
   private final int bufferSize;
+  // reused for every map output shuffled to disk
+  private final ByteBuffer transferBuffer;
   
   // Decompression of map-outputs
   private final CompressionCodec codec;
@@ -92,12 +99,21 @@ class Fetcher extends Thread {
   
   private final boolean ifileReadAhead;
   private final int ifileReadAheadLength;
+  private final int ifileChecksumBlockSize;
 
   private static boolean sslShuffle;
   private static SSLFactory sslFactory;
   
   private LinkedHashSet<InputAttemptIdentifier> remaining;
 
+  // small map-outputs from the current host, merged before being committed
+  private final List<MapOutput> coalesced = new ArrayList<MapOutput>();
+  private final List<Long> coalescedCompressedLengths = new ArrayList<Long>();
+  private long coalescedBytes = 0;
+  // coalesced map-outputs which could not be committed, to be fetched again
+  private final List<InputAttemptIdentifier> refetch =
+      new ArrayList<InputAttemptIdentifier>();
+
   public Fetcher(Configuration job, 
       ShuffleScheduler scheduler, MergeManager merger,
       ShuffleClientMetrics metrics,
@@ -123,6 +139,7 @@ class Fetcher extends Thread {
 
     this.ifileReadAhead = ifileReadAhead;
     this.ifileReadAheadLength = ifileReadAheadLength;
+    this.ifileChecksumBlockSize = IFile.getChecksumBlockSize(job);
     
     if (codec != null) {
       this.codec = codec;
@@ -141,6 +158,7 @@ class Fetcher extends Thread {
     
     this.bufferSize = job.getInt(TezJobConfig.TEZ_RUNTIME_SHUFFLE_BUFFER_SIZE, 
             TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_BUFFER_SIZE);
+    this.transferBuffer = ShuffleUtils.allocateTransferBuffer(job);
 
     setName("fetcher [" + TezUtils.cleanVertexName(inputContext.getSourceVertexName()) + "] #" + id);
     setDaemon(true);
@@ -347,11 +365,16 @@ class Fetcher extends Thread {
             + remaining.size() + " left.");
       }
     } finally {
+      commitCoalesced(host);
       putBackRemainingMapOutputs(host);
     }
   }
   
   private void putBackRemainingMapOutputs(MapHost host) {
+    for (InputAttemptIdentifier left : refetch) {
+      scheduler.putBackKnownMapOutput(host, left);
+    }
+    refetch.clear();
     // Cycle through remaining MapOutputs
     boolean isFirst = true;
     InputAttemptIdentifier first = null;
@@ -421,7 +444,8 @@ class Fetcher extends Thread {
       
       // Get the location for the map output - either in-memory or on-disk
       try {
-        mapOutput = merger.reserve(srcAttemptId, decompressedLength, id);
+        mapOutput = merger.reserve(srcAttemptId, decompressedLength,
+            compressedLength, id);
       } catch (IOException e) {
         // Kill the reduce attempt
         ioErrs.increment(1);
@@ -449,10 +473,16 @@ class Fetcher extends Thread {
         shuffleToDisk(host, mapOutput, input, compressedLength);
       }
       
-      // Inform the shuffle scheduler
-      long endTime = System.currentTimeMillis();
-      scheduler.copySucceeded(srcAttemptId, host, compressedLength, decompressedLength, 
-                              endTime - startTime, mapOutput);
+      if (merger.canCoalesce(mapOutput)) {
+        // committed along with the other small map-outputs from the host
+        coalesce(host, mapOutput, compressedLength);
+      } else {
+        // Inform the shuffle scheduler
+        long endTime = System.currentTimeMillis();
+        scheduler.copySucceeded(srcAttemptId, host, compressedLength,
+                                decompressedLength, endTime - startTime,
+                                mapOutput);
+      }
       // Note successful shuffle
       remaining.remove(srcAttemptId);
       metrics.successFetch();
@@ -481,6 +511,96 @@ class Fetcher extends Thread {
 
   }
   
+  private void coalesce(MapHost host, MapOutput mapOutput,
+      long compressedLength) {
+    coalesced.add(mapOutput);
+    coalescedCompressedLengths.add(compressedLength);
+    coalescedBytes += mapOutput.getSize();
+    if (coalescedBytes >= merger.getCoalesceBatchLimit()) {
+      commitCoalesced(host);
+    }
+  }
+
+  /**
+   * Merge the small map-outputs held back so far into one, and commit it for
+   * all of them. If one of them was fetched by another attempt in the
+   * meantime, they are fetched again. If the merge fails, they are committed
+   * one by one instead, as fetching them again would not let it succeed.
+   */
+  private void commitCoalesced(MapHost host) {
+    if (coalesced.isEmpty()) {
+      return;
+    }
+    int count = coalesced.size();
+    List<InputAttemptIdentifier> srcAttempts =
+        new ArrayList<InputAttemptIdentifier>(count);
+    long[] compressedLengths = new long[count];
+    long[] decompressedLengths = new long[count];
+    for (int i = 0; i < count; i++) {
+      srcAttempts.add(coalesced.get(i).getAttemptIdentifier());
+      compressedLengths[i] = coalescedCompressedLengths.get(i);
+      decompressedLengths[i] = coalesced.get(i).getSize();
+    }
+
+    try {
+      MapOutput mergedMapOutput;
+      try {
+        mergedMapOutput = (count == 1) ? coalesced.get(0) :
+            merger.mergeFetchedOutputs(coalesced);
+      } catch (IOException ioe) {
+        ioErrs.increment(1);
+        LOG.warn("fetcher#" + id + " failed to coalesce map-outputs " + 
+            srcAttempts + ", committing them one by one", ioe);
+        for (int i = 0; i < count; i++) {
+          commitFetched(host, coalesced.get(i), compressedLengths[i],
+              decompressedLengths[i]);
+        }
+        return;
+      }
+      try {
+        if (!scheduler.copySucceeded(srcAttempts, host, compressedLengths,
+            decompressedLengths, mergedMapOutput)) {
+          LOG.info("fetcher#" + id + " - some of " + srcAttempts + 
+              " were fetched meanwhile, fetching them again");
+          merger.releaseFetchedOutput(mergedMapOutput);
+          refetch.addAll(srcAttempts);
+        }
+      } catch (IOException ioe) {
+        ioErrs.increment(1);
+        LOG.warn("fetcher#" + id + " failed to commit map-outputs " + 
+            srcAttempts + ", fetching them again", ioe);
+        merger.releaseFetchedOutput(mergedMapOutput);
+        for (InputAttemptIdentifier srcAttempt : srcAttempts) {
+          scheduler.copyFailed(srcAttempt, host, false);
+        }
+        refetch.addAll(srcAttempts);
+      }
+    } finally {
+      coalesced.clear();
+      coalescedCompressedLengths.clear();
+      coalescedBytes = 0;
+    }
+  }
+
+  /**
+   * Commit a held back map-output on its own, as if it had not been held.
+   */
+  private void commitFetched(MapHost host, MapOutput mapOutput,
+      long compressedLength, long decompressedLength) {
+    InputAttemptIdentifier srcAttempt = mapOutput.getAttemptIdentifier();
+    try {
+      scheduler.copySucceeded(srcAttempt, host, compressedLength,
+          decompressedLength, 0, mapOutput);
+    } catch (IOException ioe) {
+      ioErrs.increment(1);
+      LOG.warn("fetcher#" + id + " failed to commit map-output " +
+          srcAttempt + ", fetching it again", ioe);
+      merger.releaseFetchedOutput(mapOutput);
+      scheduler.copyFailed(srcAttempt, host, false);
+      refetch.add(srcAttempt);
+    }
+  }
+
   /**
    * Do some basic verification on the input received -- Being defensive
    * @param compressedLength
@@ -600,8 +720,13 @@ class Fetcher extends Thread {
                                InputStream input, 
                                int decompressedLength, 
                                int compressedLength) throws IOException {    
+    if (mapOutput.isCompressed()) {
+      shuffleCompressedToMemory(mapOutput, input, compressedLength);
+      return;
+    }
     IFileInputStream checksumIn = 
-      new IFileInputStream(input, compressedLength, ifileReadAhead, ifileReadAheadLength);
+      new IFileInputStream(input, compressedLength, ifileReadAhead, ifileReadAheadLength,
+          ifileChecksumBlockSize);
 
     input = checksumIn;       
   
@@ -615,9 +740,9 @@ class Fetcher extends Thread {
     byte[] shuffleData = mapOutput.getMemory();
     
     try {
-      IOUtils.readFully(input, shuffleData, 0, shuffleData.length);
-      metrics.inputBytes(shuffleData.length);
-      LOG.info("Read " + shuffleData.length + " bytes from map-output for " +
+      IOUtils.readFully(input, shuffleData, 0, decompressedLength);
+      metrics.inputBytes(decompressedLength);
+      LOG.info("Read " + decompressedLength + " bytes from map-output for " +
                mapOutput.getAttemptIdentifier());
     } catch (IOException ioe) {      
       // Close the streams
@@ -629,6 +754,32 @@ class Fetcher extends Thread {
 
   }
   
+  /**
+   * Copy a map-output into memory as it is, to be decompressed by the merge.
+   * The checksum is validated now, so that a corrupt map-output is fetched
+   * again.
+   */
+  private void shuffleCompressedToMemory(MapOutput mapOutput,
+      InputStream input, int compressedLength) throws IOException {
+    byte[] shuffleData = mapOutput.getMemory();
+    try {
+      IOUtils.readFully(input, shuffleData, 0, compressedLength);
+    } catch (IOException ioe) {
+      // Close the streams
+      IOUtils.cleanup(LOG, input);
+
+      // Re-throw
+      throw ioe;
+    }
+    // reading to the end validates the checksum
+    new IFileInputStream(
+        new ByteArrayInputStream(shuffleData, 0, compressedLength),
+        compressedLength, false, 0, ifileChecksumBlockSize).close();
+    metrics.inputBytes(compressedLength);
+    LOG.info("Read " + compressedLength + " compressed bytes from map-output for " +
+             mapOutput.getAttemptIdentifier());
+  }
+  
   private void shuffleToDisk(MapHost host, MapOutput mapOutput, 
                              InputStream input, 
                              long compressedLength) 
@@ -637,17 +788,13 @@ class Fetcher extends Thread {
     OutputStream output = mapOutput.getDisk();
     long bytesLeft = compressedLength;
     try {
-      final int BYTES_TO_READ = 64 * 1024;
-      byte[] buf = new byte[BYTES_TO_READ];
-      while (bytesLeft > 0) {
-        int n = input.read(buf, 0, (int) Math.min(bytesLeft, BYTES_TO_READ));
-        if (n < 0) {
-          throw new IOException("read past end of stream reading " + 
-                                mapOutput.getAttemptIdentifier());
-        }
-        output.write(buf, 0, n);
-        bytesLeft -= n;
-        metrics.inputBytes(n);
+      long n = ShuffleUtils.transferToChannel(input,
+          ShuffleUtils.getChannel(output), compressedLength, transferBuffer);
+      bytesLeft -= n;
+      metrics.inputBytes(n);
+      if (bytesLeft > 0) {
+        throw new IOException("read past end of stream reading " + 
+                              mapOutput.getAttemptIdentifier());
       }
 
       LOG.info("Read " + (compressedLength - bytesLeft) + 
@@ -18,6 +18,7 @@
 
 package org.apache.tez.runtime.library.common.shuffle.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,6 +26,7 @@ import java.io.IOException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader;
@@ -40,7 +42,14 @@ public class InMemoryReader extends Reader {
   DataInputBuffer memDataIn = new DataInputBuffer();
   private int start;
   private int length;
+  // the previous key, in the buffer or in keyBuffer
+  private byte[] prevKeyData;
   private int prevKeyPos;
+  // front coded keys are put back together here
+  private byte[] keyBuffer = new byte[0];
+  // the data is a compressed IFile, checksum included, which is decompressed
+  // as it is read
+  private final boolean compressed;
 
   public InMemoryReader(MergeManager merger, InputAttemptIdentifier taskAttemptId,
                         byte[] data, int start, int length)
@@ -48,6 +57,7 @@ public class InMemoryReader extends Reader {
     super(null, length - start, null,null, null, false, 0, -1);
     this.merger = merger;
     this.taskAttemptId = taskAttemptId;
+    this.compressed = false;
 
     buffer = data;
     bufferSize = (int)fileLength;
@@ -56,8 +66,34 @@ public class InMemoryReader extends Reader {
     this.length = length;
   }
 
+  /**
+   * Reads a compressed map-output held in memory as it was fetched, checksum
+   * included. The checksum is not validated again, it is expected to have
+   * been validated when the map-output was fetched.
+   */
+  public InMemoryReader(MergeManager merger, InputAttemptIdentifier taskAttemptId,
+                        byte[] data, int start, int length,
+                        CompressionCodec codec, int checksumBlockSize)
+  throws IOException {
+    super(new ByteArrayInputStream(data, start, length), length, codec, null,
+        null, false, 0, -1, checksumBlockSize);
+    this.merger = merger;
+    this.taskAttemptId = taskAttemptId;
+    this.compressed = true;
+    disableChecksumValidation();
+
+    buffer = data;
+    bufferSize = (int)fileLength;
+    this.start = start;
+    this.length = length;
+  }
+
   @Override
   public void reset(int offset) {
+    if (compressed) {
+      throw new UnsupportedOperationException(
+          "Cannot reset a compressed in-memory map-output");
+    }
     memDataIn.reset(buffer, start + offset, length);
     bytesRead = offset;
     eof = false;
@@ -65,6 +101,9 @@ public class InMemoryReader extends Reader {
 
   @Override
   public long getPosition() throws IOException {
+    if (compressed) {
+      return super.getPosition();
+    }
     // InMemoryReader does not initialize streams like Reader, so in.getPos()
     // would not work. Instead, return the number of uncompressed bytes read,
     // which will be correct since in-memory data is not compressed.
@@ -73,6 +112,9 @@ public class InMemoryReader extends Reader {
   
   @Override
   public long getLength() { 
+    if (compressed) {
+      return super.getLength();
+    }
     return fileLength;
   }
   
@@ -90,6 +132,9 @@ public class InMemoryReader extends Reader {
   }
   
   public KeyState readRawKey(DataInputBuffer key) throws IOException {
+    if (compressed) {
+      return super.readRawKey(key);
+    }
     try {
       if (!positionToNextRecord(memDataIn)) {
         return KeyState.NO_KEY;
@@ -98,22 +143,40 @@ public class InMemoryReader extends Reader {
       int pos = memDataIn.getPosition();
       byte[] data = memDataIn.getData();      
       if(currentKeyLength == IFile.RLE_MARKER) {
-        key.reset(data, prevKeyPos, prevKeyLength);
+        key.reset(prevKeyData, prevKeyPos, prevKeyLength);
         currentKeyLength = prevKeyLength;
         return KeyState.SAME_KEY;
       }      
-      key.reset(data, pos, currentKeyLength);
-      prevKeyPos = pos;
+      int suffixLength = currentKeyLength - currentKeyPrefixLength;
+      if (currentKeyPrefixLength > 0) {
+        if (keyBuffer.length < currentKeyLength) {
+          keyBuffer = new byte[currentKeyLength << 1];
+        }
+        // unless the previous key was put together in place
+        if (prevKeyData != keyBuffer) {
+          System.arraycopy(prevKeyData, prevKeyPos, keyBuffer, 0,
+              currentKeyPrefixLength);
+        }
+        System.arraycopy(data, pos, keyBuffer, currentKeyPrefixLength,
+            suffixLength);
+        key.reset(keyBuffer, 0, currentKeyLength);
+        prevKeyData = keyBuffer;
+        prevKeyPos = 0;
+      } else {
+        key.reset(data, pos, currentKeyLength);
+        prevKeyData = data;
+        prevKeyPos = pos;
+      }
       // Position for the next value
-      long skipped = memDataIn.skip(currentKeyLength);
-      if (skipped != currentKeyLength) {
+      long skipped = memDataIn.skip(suffixLength);
+      if (skipped != suffixLength) {
         throw new IOException("Rec# " + recNo + 
             ": Failed to skip past key of length: " + 
-            currentKeyLength);
+            suffixLength);
       }
 
       // Record the byte
-      bytesRead += currentKeyLength;
+      bytesRead += suffixLength;
       return KeyState.NEW_KEY;
     } catch (IOException ioe) {
       dumpOnError();
@@ -122,6 +185,10 @@ public class InMemoryReader extends Reader {
   }
   
   public void nextRawValue(DataInputBuffer value) throws IOException {
+    if (compressed) {
+      super.nextRawValue(value);
+      return;
+    }
     try {
       int pos = memDataIn.getPosition();
       byte[] data = memDataIn.getData();
@@ -144,13 +211,19 @@ public class InMemoryReader extends Reader {
     }
   }
     
-  public void close() {
+  public void close() throws IOException {
+    byte[] data = buffer;
+    if (compressed) {
+      // Return the decompressor
+      super.close();
+    }
     // Release
     dataIn = null;
-    buffer = null;
       // Inform the MergeManager
-    if (merger != null) {
+    if (merger != null && data != null) {
       merger.unreserve(bufferSize);
+      merger.releaseBuffer(data);
     }
+    buffer = null;
   }
 }
@@ -27,6 +27,7 @@ import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.DataChecksum;
 import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.common.sort.impl.IFileOutputStream;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
@@ -36,16 +37,32 @@ import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 public class InMemoryWriter extends Writer {
   private static final Log LOG = LogFactory.getLog(InMemoryWriter.class);
 
+  /** Bytes taken by the end of file marker of an in-memory IFile. */
+  public static final int EOF_MARKER_LENGTH =
+      2 * WritableUtils.getVIntSize(IFile.EOF_MARKER);
+  // the single checksum written by the IFileOutputStream when closed
+  private static final int CHECKSUM_LENGTH = DataChecksum.Type.CRC32.size;
+
   private DataOutputStream out;
 
   // TODO Verify and fix counters if required.
   
   public InMemoryWriter(BoundedByteArrayOutputStream arrayStream) {
     super(null, null);
+    // Always a single checksum; the output is only read back by
+    // InMemoryReader, which does not look at it
     this.out =
       new DataOutputStream(new IFileOutputStream(arrayStream));
   }
 
+  /**
+   * Returns the number of bytes written for records taking the given number
+   * of bytes, with the end of file marker and the checksum.
+   */
+  public static long getOutputLength(long recordBytes) {
+    return recordBytes + EOF_MARKER_LENGTH + CHECKSUM_LENGTH;
+  }
+
   public void append(Object key, Object value) throws IOException {
     throw new UnsupportedOperationException
     ("InMemoryWriter.append(K key, V value");
@@ -27,10 +27,12 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
+import org.apache.tez.runtime.library.shuffle.common.ShuffleUtils;
 
 
 class MapOutput {
@@ -53,7 +55,7 @@ class MapOutput {
   private final byte[] memory;
   private BoundedByteArrayOutputStream byteStream;
   
-  private final FileSystem localFS;
+  private final LocalFileSystem localFS;
   private final Path tmpOutputPath;
   private final Path outputPath;
   private final OutputStream disk; 
@@ -61,6 +63,8 @@ class MapOutput {
   private final Type type;
   
   private final boolean primaryMapOutput;
+  // the memory holds the map-output as fetched, compressed
+  private final boolean compressed;
   
   MapOutput(InputAttemptIdentifier attemptIdentifier, MergeManager merger, long size, 
             Configuration conf, LocalDirAllocator localDirAllocator,
@@ -83,11 +87,38 @@ class MapOutput {
       mapOutputFile.getInputFileForWrite(this.attemptIdentifier.getInputIdentifier().getInputIndex(), size);
     tmpOutputPath = outputPath.suffix(String.valueOf(fetcher));
 
-    disk = localFS.create(tmpOutputPath);
+    disk = ShuffleUtils.createLocalOutputFile(localFS, tmpOutputPath);
     
     this.primaryMapOutput = primaryMapOutput;
+    this.compressed = false;
   }
   
+  /**
+   * An in-memory map output filled directly into the given buffer, which may
+   * be larger than size. A compressed map output is kept as fetched,
+   * checksum included.
+   */
+  MapOutput(InputAttemptIdentifier attemptIdentifier, MergeManager merger, int size,
+            byte[] memory, boolean compressed) {
+    this.id = ID.incrementAndGet();
+    this.attemptIdentifier = attemptIdentifier;
+    this.merger = merger;
+
+    type = Type.MEMORY;
+    byteStream = null;
+    this.memory = memory;
+
+    this.size = size;
+
+    localFS = null;
+    disk = null;
+    outputPath = null;
+    tmpOutputPath = null;
+
+    this.primaryMapOutput = true;
+    this.compressed = compressed;
+  }
+
   MapOutput(InputAttemptIdentifier attemptIdentifier, MergeManager merger, int size, 
             boolean primaryMapOutput) {
     this.id = ID.incrementAndGet();
@@ -106,6 +137,7 @@ class MapOutput {
     tmpOutputPath = null;
     
     this.primaryMapOutput = primaryMapOutput;
+    this.compressed = false;
   }
 
   public MapOutput(InputAttemptIdentifier attemptIdentifier) {
@@ -125,12 +157,17 @@ class MapOutput {
     tmpOutputPath = null;
 
     this.primaryMapOutput = false;
+    this.compressed = false;
 }
   
   public boolean isPrimaryMapOutput() {
     return primaryMapOutput;
   }
 
+  public boolean isCompressed() {
+    return compressed;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof MapOutput) {
@@ -185,7 +222,8 @@ class MapOutput {
   
   public void abort() {
     if (type == Type.MEMORY) {
-      merger.unreserve(memory.length);
+      merger.unreserve(size);
+      merger.releaseBuffer(memory);
     } else if (type == Type.DISK) {
       try {
         localFS.delete(tmpOutputPath, false);
@@ -22,8 +22,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import org.apache.commons.logging.Log;
@@ -39,6 +39,7 @@ import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.util.Progressable;
 import org.apache.tez.common.TezJobConfig;
@@ -58,6 +59,7 @@ import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 import org.apache.tez.runtime.library.common.sort.impl.TezMerger.Segment;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
 import org.apache.tez.runtime.library.hadoop.compat.NullProgressable;
+import org.apache.tez.runtime.library.shuffle.common.ShuffleBufferPool;
 
 
 /**
@@ -80,21 +82,25 @@ public class MergeManager {
   private final Progressable nullProgressable = new NullProgressable();
   private final Combiner combiner;  
   
-  private final Set<MapOutput> inMemoryMergedMapOutputs = 
-    new TreeSet<MapOutput>(new MapOutput.MapOutputComparator());
+  // Completed outputs are handed to the merge threads through concurrent sets,
+  // and memory is accounted with atomics, so that fetchers reserving and
+  // committing outputs do not serialize on the MergeManager.
+  private final ConcurrentSkipListSet<MapOutput> inMemoryMergedMapOutputs = 
+    new ConcurrentSkipListSet<MapOutput>(new MapOutput.MapOutputComparator());
   private final IntermediateMemoryToMemoryMerger memToMemMerger;
 
-  private final Set<MapOutput> inMemoryMapOutputs = 
-    new TreeSet<MapOutput>(new MapOutput.MapOutputComparator());
+  private final ConcurrentSkipListSet<MapOutput> inMemoryMapOutputs = 
+    new ConcurrentSkipListSet<MapOutput>(new MapOutput.MapOutputComparator());
   private final InMemoryMerger inMemoryMerger;
   
-  private final Set<Path> onDiskMapOutputs = new TreeSet<Path>();
+  private final ConcurrentSkipListSet<Path> onDiskMapOutputs =
+    new ConcurrentSkipListSet<Path>();
   private final OnDiskMerger onDiskMerger;
   
   private final long memoryLimit;
   private final int postMergeMemLimit;
-  private long usedMemory;
-  private long commitMemory;
+  private final AtomicLong usedMemory = new AtomicLong();
+  private final AtomicLong commitMemory = new AtomicLong();
   private final int ioSortFactor;
   private final long maxSingleShuffleLimit;
   
@@ -125,6 +131,14 @@ public class MergeManager {
   private final boolean ifileReadAhead;
   private final int ifileReadAheadLength;
   private final int ifileBufferSize;
+  private final int ifileChecksumBlockSize;
+  // compressed map-outputs shuffled to memory stay compressed
+  private final boolean keepCompressedInMemory;
+  // small map-outputs fetched from a host are merged before being committed
+  private final long coalesceOutputLimit;
+  private final long coalesceBatchLimit;
+
+  private final ShuffleBufferPool bufferPool;
 
 
   /**
@@ -173,6 +187,10 @@ public class MergeManager {
     }
     this.ifileBufferSize = conf.getInt("io.file.buffer.size",
         TezJobConfig.TEZ_RUNTIME_IFILE_BUFFER_SIZE_DEFAULT);
+    this.ifileChecksumBlockSize = IFile.getChecksumBlockSize(conf);
+    this.keepCompressedInMemory = codec != null && conf.getBoolean(
+        TezJobConfig.TEZ_RUNTIME_SHUFFLE_MEMORY_KEEP_COMPRESSED,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_MEMORY_KEEP_COMPRESSED);
     
     // Figure out initial memory req start
     final float maxInMemCopyUse =
@@ -233,6 +251,8 @@ public class MergeManager {
 
     this.maxSingleShuffleLimit = 
       (long)(memoryLimit * singleShuffleMemoryLimitPercent);
+    this.bufferPool = new ShuffleBufferPool(conf, memoryLimit,
+        inputContext.getCounters());
     this.memToMemMergeOutputsThreshold = 
             conf.getInt(
                 TezJobConfig.TEZ_RUNTIME_SHUFFLE_MEMTOMEM_SEGMENTS, 
@@ -259,6 +279,28 @@ public class MergeManager {
         conf.getBoolean(
             TezJobConfig.TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM, 
             TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_ENABLE_MEMTOMEM);
+      if (allowMemToMemMerge && IFile.isKeyFrontCodingEnabled(conf)) {
+        // re-encoding the merged records may not fit in the merged size
+        LOG.warn("Not using the memory to memory merge, as keys are front coded");
+        allowMemToMemMerge = false;
+      }
+      if (allowMemToMemMerge && keepCompressedInMemory) {
+        // the merged output is sized by the compressed inputs
+        LOG.warn("Not using the memory to memory merge, as in-memory " +
+            "map-outputs are kept compressed");
+        allowMemToMemMerge = false;
+      }
+      long coalesceLimit = conf.getLong(
+          TezJobConfig.TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_OUTPUT_BYTES,
+          TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_OUTPUT_BYTES);
+      if (coalesceLimit > 0 && IFile.isKeyFrontCodingEnabled(conf)) {
+        LOG.warn("Not coalescing fetched map-outputs, as keys are front coded");
+        coalesceLimit = 0;
+      }
+      this.coalesceOutputLimit = coalesceLimit;
+      this.coalesceBatchLimit = Math.min(maxSingleShuffleLimit, conf.getLong(
+          TezJobConfig.TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_BATCH_BYTES,
+          TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_BATCH_BYTES));
       if (allowMemToMemMerge) {
         this.memToMemMerger = 
           new IntermediateMemoryToMemoryMerger(this,
@@ -326,10 +368,33 @@ public class MergeManager {
 
   final private MapOutput stallShuffle = new MapOutput(null);
 
-  public synchronized MapOutput reserve(InputAttemptIdentifier srcAttemptIdentifier, 
+  public MapOutput reserve(InputAttemptIdentifier srcAttemptIdentifier, 
                                              long requestedSize,
                                              int fetcher
                                              ) throws IOException {
+    return reserve(srcAttemptIdentifier, requestedSize, fetcher, false);
+  }
+
+  /**
+   * Reserve memory, or disk, for a fetched map-output. A compressed
+   * map-output is kept compressed in memory, and accounted for at its
+   * compressed length, if
+   * {@link TezJobConfig#TEZ_RUNTIME_SHUFFLE_MEMORY_KEEP_COMPRESSED} is set.
+   * 
+   * @param compressedLength length of the map-output as fetched, checksum
+   *          included
+   */
+  public MapOutput reserve(InputAttemptIdentifier srcAttemptIdentifier,
+                           long decompressedLength, long compressedLength,
+                           int fetcher) throws IOException {
+    if (keepCompressedInMemory) {
+      return reserve(srcAttemptIdentifier, compressedLength, fetcher, true);
+    }
+    return reserve(srcAttemptIdentifier, decompressedLength, fetcher, false);
+  }
+
+  private MapOutput reserve(InputAttemptIdentifier srcAttemptIdentifier,
+      long requestedSize, int fetcher, boolean compressed) throws IOException {
     if (!canShuffleToMemory(requestedSize)) {
       LOG.info(srcAttemptIdentifier + ": Shuffling to disk since " + requestedSize + 
                " is greater than maxSingleShuffleLimit (" + 
@@ -353,60 +418,206 @@ public class MergeManager {
     // (usedMemory + requestedSize > memoryLimit). When this thread is done
     // fetching, this will automatically trigger a merge thereby unlocking
     // all the stalled threads
+    //
+    // The check and the reservation are a single compare-and-set, so only a
+    // reservation made while usedMemory was within the limit can succeed.
     
-    if (usedMemory > memoryLimit) {
-      LOG.debug(srcAttemptIdentifier + ": Stalling shuffle since usedMemory (" + usedMemory
-          + ") is greater than memoryLimit (" + memoryLimit + ")." + 
-          " CommitMemory is (" + commitMemory + ")"); 
-      return stallShuffle;
-    }
+    long used;
+    do {
+      used = usedMemory.get();
+      if (used > memoryLimit) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(srcAttemptIdentifier + ": Stalling shuffle since usedMemory (" + used
+              + ") is greater than memoryLimit (" + memoryLimit + ")." + 
+              " CommitMemory is (" + commitMemory.get() + ")");
+        }
+        return stallShuffle;
+      }
+    } while (!usedMemory.compareAndSet(used, used + reservedSize(requestedSize)));
     
     // Allow the in-memory shuffle to progress
-    LOG.debug(srcAttemptIdentifier + ": Proceeding with shuffle since usedMemory ("
-        + usedMemory + ") is lesser than memoryLimit (" + memoryLimit + ")."
-        + "CommitMemory is (" + commitMemory + ")"); 
-    return unconditionalReserve(srcAttemptIdentifier, requestedSize, true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(srcAttemptIdentifier + ": Proceeding with shuffle since usedMemory ("
+          + used + ") is lesser than memoryLimit (" + memoryLimit + ")."
+          + "CommitMemory is (" + commitMemory.get() + ")");
+    }
+    return createInMemoryMapOutput(srcAttemptIdentifier, requestedSize, true,
+        compressed);
   }
   
   /**
    * Unconditional Reserve is used by the Memory-to-Memory thread
    */
-  private synchronized MapOutput unconditionalReserve(
+  private MapOutput unconditionalReserve(
       InputAttemptIdentifier srcAttemptIdentifier, long requestedSize, boolean primaryMapOutput) {
-    usedMemory += requestedSize;
+    usedMemory.addAndGet(reservedSize(requestedSize));
+    return createInMemoryMapOutput(srcAttemptIdentifier, requestedSize,
+        primaryMapOutput, false);
+  }
+
+  private MapOutput createInMemoryMapOutput(
+      InputAttemptIdentifier srcAttemptIdentifier, long requestedSize, boolean primaryMapOutput,
+      boolean compressed) {
+    if (primaryMapOutput) {
+      // fetched map outputs are filled directly, memory-to-memory merges
+      // write through a stream over an array of their own
+      return new MapOutput(srcAttemptIdentifier, this, (int)requestedSize,
+          bufferPool.allocate((int)requestedSize), compressed);
+    }
     return new MapOutput(srcAttemptIdentifier, this, (int)requestedSize, 
         primaryMapOutput);
   }
   
-  synchronized void unreserve(long size) {
-    commitMemory -= size;
-    usedMemory -= size;
+  void unreserve(long size) {
+    final long reserved = reservedSize(size);
+    commitMemory.addAndGet(-reserved);
+    usedMemory.addAndGet(-reserved);
   }
 
-  public synchronized void closeInMemoryFile(MapOutput mapOutput) { 
-    inMemoryMapOutputs.add(mapOutput);
-    LOG.info("closeInMemoryFile -> map-output of size: " + mapOutput.getSize()
-        + ", inMemoryMapOutputs.size() -> " + inMemoryMapOutputs.size()
-        + ", commitMemory -> " + commitMemory + ", usedMemory ->" + usedMemory);
+  /**
+   * The memory accounted for an in-memory map-output of the given size. With
+   * the buffer pool enabled, arrays are rounded up to their size class. The
+   * same rounding is applied to the outputs of memory-to-memory merges, which
+   * do not come from the pool, so that every reservation is given back in the
+   * same amount.
+   */
+  private long reservedSize(long size) {
+    return bufferPool.getAllocationSize((int) size);
+  }
 
-    commitMemory+= mapOutput.getSize();
+  /**
+   * Return the buffer of an in-memory map output once it is no longer
+   * referenced.
+   */
+  void releaseBuffer(byte[] buffer) {
+    bufferPool.release(buffer);
+  }
+
+  /**
+   * Whether a fetched, uncommitted map-output is small enough to be coalesced
+   * with others from the same host by {@link #mergeFetchedOutputs(List)}.
+   */
+  boolean canCoalesce(MapOutput mapOutput) {
+    return coalesceOutputLimit > 0 && 
+        mapOutput.getType() == MapOutput.Type.MEMORY &&
+        !mapOutput.isCompressed() && 
+        mapOutput.getSize() <= coalesceOutputLimit &&
+        !hasRepeatedKeys(mapOutput);
+  }
 
-    synchronized (inMemoryMerger) {
-      // Can hang if mergeThreshold is really low.
-      // TODO Can avoid spilling in case total input size is between
-      // mergeTghreshold and total available size.
-      if (!inMemoryMerger.isInProgress() && commitMemory >= mergeThreshold) {
-        LOG.info("Starting inMemoryMerger's merge since commitMemory=" +
-            commitMemory + " > mergeThreshold=" + mergeThreshold + 
-            ". Current usedMemory=" + usedMemory);
-        inMemoryMapOutputs.addAll(inMemoryMergedMapOutputs);
-        inMemoryMergedMapOutputs.clear();
-        inMemoryMerger.startMerge(inMemoryMapOutputs);
-      } 
+  /**
+   * Whether the records of an in-memory map-output repeat keys with RLE
+   * markers. The merge writes such keys out in full, so its output could not
+   * be sized from its inputs.
+   */
+  private static boolean hasRepeatedKeys(MapOutput mapOutput) {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(mapOutput.getMemory(), 0, (int) mapOutput.getSize());
+    try {
+      while (true) {
+        int keyLength = WritableUtils.readVInt(in);
+        int valueLength = WritableUtils.readVInt(in);
+        if (keyLength == IFile.EOF_MARKER && valueLength == IFile.EOF_MARKER) {
+          return false;
+        }
+        if (keyLength == IFile.RLE_MARKER) {
+          return true;
+        }
+        in.skip(keyLength + valueLength);
+      }
+    } catch (IOException e) {
+      // not a well formed IFile, leave it to the usual path
+      return true;
+    }
+  }
+
+  long getCoalesceBatchLimit() {
+    return coalesceBatchLimit;
+  }
+
+  /**
+   * Merge fetched in-memory map-outputs, which have not been committed, into
+   * a single in-memory map-output, which is not committed either. The inputs
+   * are released once merged; on failure they are left to the caller.
+   */
+  MapOutput mergeFetchedOutputs(List<MapOutput> inputs) throws IOException {
+    List<Segment> segments = new ArrayList<Segment>(inputs.size());
+    long recordBytes = 0;
+    for (MapOutput mo : inputs) {
+      // not our reservation to give back until the merge is done
+      segments.add(new Segment(new InMemoryReader(null,
+          mo.getAttemptIdentifier(), mo.getMemory(), 0, (int) mo.getSize()),
+          true, mergedMapOutputsCounter));
+      recordBytes += mo.getSize() - InMemoryWriter.EOF_MARKER_LENGTH;
+    }
+    // the records of all inputs, followed by a single EOF marker and checksum
+    long mergeOutputSize = InMemoryWriter.getOutputLength(recordBytes);
+    MapOutput mergedMapOutput = unconditionalReserve(
+        inputs.get(0).getAttemptIdentifier(), mergeOutputSize, false);
+    try {
+      Writer writer = new InMemoryWriter(mergedMapOutput.getArrayStream());
+      TezRawKeyValueIterator rIter = 
+        TezMerger.merge(conf, rfs,
+                       ConfigUtils.getIntermediateInputKeyClass(conf),
+                       ConfigUtils.getIntermediateInputValueClass(conf),
+                       segments, segments.size(),
+                       new Path(inputContext.getUniqueIdentifier()),
+                       (RawComparator)ConfigUtils.getIntermediateInputKeyComparator(conf),
+                       nullProgressable, null, null, null, null);
+      TezMerger.writeFile(rIter, writer, nullProgressable,
+          TezJobConfig.DEFAULT_RECORDS_BEFORE_PROGRESS);
+      writer.close();
+    } catch (IOException ie) {
+      releaseFetchedOutput(mergedMapOutput);
+      throw ie;
+    }
+    for (MapOutput mo : inputs) {
+      releaseFetchedOutput(mo);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Coalesced " + inputs.size() + " fetched map-outputs of " + 
+          "total-size: " + mergeOutputSize);
+    }
+    return mergedMapOutput;
+  }
+
+  /**
+   * Give back the memory of an in-memory map-output which was reserved, but
+   * never committed.
+   */
+  void releaseFetchedOutput(MapOutput mapOutput) {
+    usedMemory.addAndGet(-reservedSize(mapOutput.getSize()));
+    releaseBuffer(mapOutput.getMemory());
+  }
+
+  public void closeInMemoryFile(MapOutput mapOutput) { 
+    inMemoryMapOutputs.add(mapOutput);
+    long commit = commitMemory.addAndGet(reservedSize(mapOutput.getSize()));
+    LOG.info("closeInMemoryFile -> map-output of size: " + mapOutput.getSize()
+        + ", commitMemory -> " + commit + ", usedMemory ->" + usedMemory.get());
+
+    // The merger monitors are only taken when a merge is likely to be started.
+    if (commit >= mergeThreshold && !inMemoryMerger.isInProgress()) {
+      synchronized (inMemoryMerger) {
+        // Can hang if mergeThreshold is really low.
+        // TODO Can avoid spilling in case total input size is between
+        // mergeTghreshold and total available size.
+        commit = commitMemory.get();
+        if (!inMemoryMerger.isInProgress() && commit >= mergeThreshold) {
+          LOG.info("Starting inMemoryMerger's merge since commitMemory=" +
+              commit + " > mergeThreshold=" + mergeThreshold + 
+              ". Current usedMemory=" + usedMemory.get());
+          MapOutput merged;
+          while ((merged = inMemoryMergedMapOutputs.pollFirst()) != null) {
+            inMemoryMapOutputs.add(merged);
+          }
+          inMemoryMerger.startMerge(inMemoryMapOutputs);
+        }
+      }
     }
 
     // This should likely run a Combiner.
-    if (memToMemMerger != null) {
+    if (memToMemMerger != null && !memToMemMerger.isInProgress()) {
       synchronized (memToMemMerger) {
         if (!memToMemMerger.isInProgress() && 
             inMemoryMapOutputs.size() >= memToMemMergeOutputsThreshold) {
@@ -417,16 +628,19 @@ public class MergeManager {
   }
   
   
-  public synchronized void closeInMemoryMergedFile(MapOutput mapOutput) {
+  public void closeInMemoryMergedFile(MapOutput mapOutput) {
     inMemoryMergedMapOutputs.add(mapOutput);
     LOG.info("closeInMemoryMergedFile -> size: " + mapOutput.getSize() + 
              ", inMemoryMergedMapOutputs.size() -> " + 
              inMemoryMergedMapOutputs.size());
   }
   
-  public synchronized void closeOnDiskFile(Path file) {
+  public void closeOnDiskFile(Path file) {
     onDiskMapOutputs.add(file);
     
+    if (onDiskMerger.isInProgress()) {
+      return;
+    }
     synchronized (onDiskMerger) {
       if (!onDiskMerger.isInProgress() && 
           onDiskMapOutputs.size() >= (2 * ioSortFactor - 1)) {
@@ -716,17 +930,25 @@ public class MergeManager {
     // closed but not yet present in inMemoryMapOutputs
     long fullSize = 0L;
     for (MapOutput mo : inMemoryMapOutputs) {
-      fullSize += mo.getMemory().length;
+      fullSize += mo.getSize();
     }
     while(fullSize > leaveBytes) {
       MapOutput mo = inMemoryMapOutputs.remove(0);
       byte[] data = mo.getMemory();
-      long size = data.length;
+      long size = mo.getSize();
       totalSize += size;
       fullSize -= size;
-      IFile.Reader reader = new InMemoryReader(MergeManager.this, 
-                                                   mo.getAttemptIdentifier(),
-                                                   data, 0, (int)size);
+      IFile.Reader reader;
+      if (mo.isCompressed()) {
+        // decompressed as the merge reads it
+        reader = new InMemoryReader(MergeManager.this,
+            mo.getAttemptIdentifier(), data, 0, (int)size, codec,
+            ifileChecksumBlockSize);
+      } else {
+        reader = new InMemoryReader(MergeManager.this, 
+                                        mo.getAttemptIdentifier(),
+                                        data, 0, (int)size);
+      }
       inMemorySegments.add(new Segment(reader, true, 
                                             (mo.isPrimaryMapOutput() ? 
                                             mergedMapOutputsCounter : null)));
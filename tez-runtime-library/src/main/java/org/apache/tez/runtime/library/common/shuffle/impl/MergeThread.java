@@ -19,9 +19,8 @@ package org.apache.tez.runtime.library.common.shuffle.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NavigableSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,18 +49,22 @@ abstract class MergeThread<T> extends Thread {
     interrupt();
   }
 
-  public synchronized boolean isInProgress() {
+  public boolean isInProgress() {
     return inProgress;
   }
   
-  public synchronized void startMerge(Set<T> inputs) {
+  /**
+   * Start a merge of up to mergeFactor of the smallest inputs, which are
+   * removed from the set. Inputs are taken one at a time with pollFirst, so a
+   * concurrent set may be drained by several merge threads at once.
+   */
+  public synchronized void startMerge(NavigableSet<T> inputs) {
     if (!closed) {
       this.inputs.clear();
       inProgress = true;
-      Iterator<T> iter=inputs.iterator();
-      for (int ctr = 0; iter.hasNext() && ctr < mergeFactor; ++ctr) {
-        this.inputs.add(iter.next());
-        iter.remove();
+      T input;
+      for (int ctr = 0; ctr < mergeFactor && (input = inputs.pollFirst()) != null; ++ctr) {
+        this.inputs.add(input);
       }
       LOG.info(getName() + ": Starting merge with " + this.inputs.size() + 
                " segments, while ignoring " + inputs.size() + " segments");
@@ -180,27 +180,61 @@ class ShuffleScheduler {
         // registered without needing to fetch data
         skippedInputCounter.increment(1);
       }
-      setInputFinished(srcAttemptIdentifier.getInputIdentifier().getInputIndex());
-      
-      if (--remainingMaps == 0) {
-        LOG.info("All inputs fetched for input vertex : " + inputContext.getSourceVertexName());
-        notifyAll();
-      }
+      inputFinished(srcAttemptIdentifier, bytesCompressed, bytesDecompressed);
+    }
+    // TODO NEWTEZ Should this be releasing the output, if not committed ? Possible memory leak in case of speculation.
+  }
 
-      // update the status
-      lastProgressTime = System.currentTimeMillis();
-      totalBytesShuffledTillNow += bytesCompressed;
-      logProgress();
-      reduceShuffleBytes.increment(bytesCompressed);
-      reduceBytesDecompressed.increment(bytesDecompressed);
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("src task: "
-            + TezRuntimeUtils.getTaskAttemptIdentifier(
-                inputContext.getSourceVertexName(), srcAttemptIdentifier.getInputIdentifier().getInputIndex(),
-                srcAttemptIdentifier.getAttemptNumber()) + " done");
+  /**
+   * Registers small map-outputs fetched from a host which have been merged
+   * into a single in-memory output. The output is committed only if none of
+   * the inputs has been fetched meanwhile; otherwise false is returned, and
+   * the caller has to give up the output and fetch the inputs again.
+   */
+  public synchronized boolean copySucceeded(
+      List<InputAttemptIdentifier> srcAttemptIdentifiers, MapHost host,
+      long[] bytesCompressed, long[] bytesDecompressed, MapOutput output)
+      throws IOException {
+    for (InputAttemptIdentifier srcAttemptIdentifier : srcAttemptIdentifiers) {
+      if (isInputFinished(
+          srcAttemptIdentifier.getInputIdentifier().getInputIndex())) {
+        return false;
       }
     }
-    // TODO NEWTEZ Should this be releasing the output, if not committed ? Possible memory leak in case of speculation.
+    output.commit();
+    hostFailures.remove(host.getHostName());
+    for (int i = 0; i < srcAttemptIdentifiers.size(); i++) {
+      InputAttemptIdentifier srcAttemptIdentifier = srcAttemptIdentifiers.get(i);
+      failureCounts.remove(srcAttemptIdentifier);
+      bytesShuffledToMem.increment(bytesCompressed[i]);
+      shuffledInputsCounter.increment(1);
+      inputFinished(srcAttemptIdentifier, bytesCompressed[i],
+          bytesDecompressed[i]);
+    }
+    return true;
+  }
+
+  private void inputFinished(InputAttemptIdentifier srcAttemptIdentifier,
+      long bytesCompressed, long bytesDecompressed) {
+    setInputFinished(srcAttemptIdentifier.getInputIdentifier().getInputIndex());
+    
+    if (--remainingMaps == 0) {
+      LOG.info("All inputs fetched for input vertex : " + inputContext.getSourceVertexName());
+      notifyAll();
+    }
+
+    // update the status
+    lastProgressTime = System.currentTimeMillis();
+    totalBytesShuffledTillNow += bytesCompressed;
+    logProgress();
+    reduceShuffleBytes.increment(bytesCompressed);
+    reduceBytesDecompressed.increment(bytesDecompressed);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("src task: "
+          + TezRuntimeUtils.getTaskAttemptIdentifier(
+              inputContext.getSourceVertexName(), srcAttemptIdentifier.getInputIdentifier().getInputIndex(),
+              srcAttemptIdentifier.getAttemptNumber()) + " done");
+    }
   }
 
   private void logProgress() {
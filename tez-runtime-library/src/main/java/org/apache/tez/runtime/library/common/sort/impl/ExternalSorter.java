@@ -76,6 +76,8 @@ public abstract class ExternalSorter {
   protected final Class keyClass;
   protected final Class valClass;
   protected final RawComparator comparator;
+  // null unless normalized key prefixes are enabled and match the comparator
+  protected final NormalizedKeyPrefix keyPrefix;
   protected final SerializationFactory serializationFactory;
   protected final Serializer keySerializer;
   protected final Serializer valSerializer;
@@ -120,6 +122,18 @@ public abstract class ExternalSorter {
 
   public ExternalSorter(TezOutputContext outputContext, Configuration conf, int numOutputs,
       long initialMemoryAvailable) throws IOException {
+    this(outputContext, conf, numOutputs, initialMemoryAvailable, true);
+  }
+
+  /**
+   * @param sortOutput
+   *          false for writers which only partition their output. The sorter,
+   *          key comparator and combiner are then not set up, so keys need
+   *          not be comparable.
+   */
+  protected ExternalSorter(TezOutputContext outputContext, Configuration conf,
+      int numOutputs, long initialMemoryAvailable, boolean sortOutput)
+      throws IOException {
     this.outputContext = outputContext;
     this.conf = conf;
     this.partitions = numOutputs;
@@ -139,12 +153,22 @@ public abstract class ExternalSorter {
       this.availableMemoryMb = assignedMb;
     }
 
-    // sorter
-    sorter = ReflectionUtils.newInstance(this.conf.getClass(
-        TezJobConfig.TEZ_RUNTIME_INTERNAL_SORTER_CLASS, QuickSort.class,
-        IndexedSorter.class), this.conf);
+    if (sortOutput) {
+      // sorter
+      sorter = ReflectionUtils.newInstance(this.conf.getClass(
+          TezJobConfig.TEZ_RUNTIME_INTERNAL_SORTER_CLASS, QuickSort.class,
+          IndexedSorter.class), this.conf);
 
-    comparator = ConfigUtils.getIntermediateOutputKeyComparator(this.conf);
+      comparator = ConfigUtils.getIntermediateOutputKeyComparator(this.conf);
+      keyPrefix = ConfigUtils.getIntermediateOutputKeyPrefix(this.conf);
+      if (keyPrefix != null) {
+        LOG.info("Using normalized key prefix: " + keyPrefix.getClass().getName());
+      }
+    } else {
+      sorter = null;
+      comparator = null;
+      keyPrefix = null;
+    }
 
     // k/v serialization
     keyClass = ConfigUtils.getIntermediateOutputKeyClass(this.conf);
@@ -192,7 +216,15 @@ public abstract class ExternalSorter {
     LOG.info("Instantiating Partitioner: [" + conf.get(TezJobConfig.TEZ_RUNTIME_PARTITIONER_CLASS) + "]");
     this.conf.setInt(TezJobConfig.TEZ_RUNTIME_NUM_EXPECTED_PARTITIONS, this.partitions);
     this.partitioner = TezRuntimeUtils.instantiatePartitioner(this.conf);
-    this.combiner = TezRuntimeUtils.instantiateCombiner(this.conf, outputContext);
+    if (sortOutput) {
+      this.combiner = TezRuntimeUtils.instantiateCombiner(this.conf, outputContext);
+    } else {
+      // a combiner relies on records arriving grouped by key
+      if (this.conf.get(TezJobConfig.TEZ_RUNTIME_COMBINER_CLASS) != null) {
+        LOG.warn("Ignoring the combiner configured for unsorted output");
+      }
+      this.combiner = null;
+    }
   }
 
   /**
@@ -211,6 +243,11 @@ public abstract class ExternalSorter {
     return mapOutputFile;
   }
 
+  @Private
+  public Combiner getCombiner() {
+    return combiner;
+  }
+
   protected void runCombineProcessor(TezRawKeyValueIterator kvIter,
       Writer writer) throws IOException {
     try {
@@ -255,7 +292,7 @@ public abstract class ExternalSorter {
             TezJobConfig.TEZ_RUNTIME_IO_SORT_MB, 
             TezJobConfig.DEFAULT_TEZ_RUNTIME_IO_SORT_MB);
     Preconditions.checkArgument(initialMemRequestMb != 0, "io.sort.mb should be larger than 0");
-    long reqBytes = initialMemRequestMb << 20;
+    long reqBytes = ((long) initialMemRequestMb) << 20;
     LOG.info("Requested SortBufferSize (io.sort.mb): " + initialMemRequestMb);
     return reqBytes;
   }
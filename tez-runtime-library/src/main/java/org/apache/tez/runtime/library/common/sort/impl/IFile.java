@@ -23,6 +23,7 @@ import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -45,6 +46,7 @@ import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.counters.TezCounter;
 
 /**
@@ -60,7 +62,35 @@ public class IFile {
   private static final Log LOG = LogFactory.getLog(IFile.class);
   public static final int EOF_MARKER = -1; // End of File Marker
   public static final int RLE_MARKER = -2; // Repeat same key marker
+  // Key shares a prefix with the previous key; SHARED_PREFIX_MARKER minus
+  // the length of the prefix, followed by the length of the rest of the key
+  public static final int SHARED_PREFIX_MARKER = -3;
   public static final DataInputBuffer REPEAT_KEY = new DataInputBuffer();
+
+  /**
+   * Returns the number of bytes covered by each checksum of the IFiles
+   * written and read with the given configuration, 0 for a single checksum
+   * at the end.
+   */
+  public static int getChecksumBlockSize(Configuration conf) {
+    if (conf == null) {
+      return TezJobConfig.TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE_DEFAULT;
+    }
+    return conf.getInt(TezJobConfig.TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE,
+        TezJobConfig.TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE_DEFAULT);
+  }
+
+  /**
+   * Returns whether the IFiles written with the given configuration front
+   * code their keys.
+   */
+  public static boolean isKeyFrontCodingEnabled(Configuration conf) {
+    if (conf == null) {
+      return TezJobConfig.TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS_DEFAULT;
+    }
+    return conf.getBoolean(TezJobConfig.TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS,
+        TezJobConfig.TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS_DEFAULT);
+  }
     
   /**
    * <code>IFile.Writer</code> to write out intermediate map-outputs. 
@@ -99,6 +129,8 @@ public class IFile {
     
     // de-dup keys or not
     private boolean rle = false;
+    // write the prefix shared with the previous key as a length
+    private boolean frontCodeKeys = false;
 
     public Writer(Configuration conf, FileSystem fs, Path file, 
                   Class keyClass, Class valueClass,
@@ -121,7 +153,9 @@ public class IFile {
         throws IOException {
       this.writtenRecordsCounter = writesCounter;
       this.serializedUncompressedBytes = serializedBytesCounter;
-      this.checksumOut = new IFileOutputStream(out);
+      this.checksumOut = new IFileOutputStream(out,
+          getChecksumBlockSize(conf));
+      this.frontCodeKeys = isKeyFrontCodingEnabled(conf);
       this.rawOut = out;
       this.start = this.rawOut.getPos();
       if (codec != null) {
@@ -229,7 +263,11 @@ public class IFile {
         sameKey = (BufferUtils.compare(previous, buffer) == 0);       
       }
       
+      int sharedLength = 0;
       if(!sameKey) {
+        if (frontCodeKeys) {
+          sharedLength = sharedPrefixLength(buffer.getData(), 0, keyLength);
+        }
         BufferUtils.copy(buffer, previous);
       }
 
@@ -252,6 +290,12 @@ public class IFile {
         if (serializedUncompressedBytes != null) {
           serializedUncompressedBytes.increment(0 + valueLength);
         }
+      } else if (sharedLength > 0) {
+        decompressedBytesWritten += writeFrontCoded(buffer.getData(), 0,
+            keyLength, sharedLength, buffer.getData(), keyLength, valueLength);
+        if (serializedUncompressedBytes != null) {
+          serializedUncompressedBytes.increment(keyLength + valueLength);
+        }
       } else {        
         // Write the record out        
         WritableUtils.writeVInt(out, keyLength);                  // key length
@@ -306,15 +350,23 @@ public class IFile {
           serializedUncompressedBytes.increment(0 + valueLength);
         }
       } else {
-        WritableUtils.writeVInt(out, keyLength);
-        WritableUtils.writeVInt(out, valueLength);
-        out.write(key.getData(), key.getPosition(), keyLength);
-        out.write(value.getData(), value.getPosition(), valueLength);
-
-        // Update bytes written
-        decompressedBytesWritten += keyLength + valueLength
-            + WritableUtils.getVIntSize(keyLength)
-            + WritableUtils.getVIntSize(valueLength);
+        int sharedLength = frontCodeKeys ?
+            sharedPrefixLength(key.getData(), key.getPosition(), keyLength) : 0;
+        if (sharedLength > 0) {
+          decompressedBytesWritten += writeFrontCoded(key.getData(),
+              key.getPosition(), keyLength, sharedLength, value.getData(),
+              value.getPosition(), valueLength);
+        } else {
+          WritableUtils.writeVInt(out, keyLength);
+          WritableUtils.writeVInt(out, valueLength);
+          out.write(key.getData(), key.getPosition(), keyLength);
+          out.write(value.getData(), value.getPosition(), valueLength);
+
+          // Update bytes written
+          decompressedBytesWritten += keyLength + valueLength
+              + WritableUtils.getVIntSize(keyLength)
+              + WritableUtils.getVIntSize(valueLength);
+        }
         if (serializedUncompressedBytes != null) {
           serializedUncompressedBytes.increment(keyLength + valueLength);
         }
@@ -324,6 +376,46 @@ public class IFile {
       ++numRecordsWritten;
     }
     
+    /**
+     * Returns the length of the prefix which the key shares with the previous
+     * one, or 0 if front coding the key would not make the record smaller.
+     */
+    private int sharedPrefixLength(byte[] key, int offset, int keyLength) {
+      byte[] prev = previous.getData();
+      int max = Math.min(keyLength, previous.getLength());
+      int shared = 0;
+      while (shared < max && prev[shared] == key[offset + shared]) {
+        ++shared;
+      }
+      if (shared == 0) {
+        return 0;
+      }
+      int suffixLength = keyLength - shared;
+      int codedLength = WritableUtils.getVIntSize(SHARED_PREFIX_MARKER - shared)
+          + WritableUtils.getVIntSize(suffixLength) + suffixLength;
+      int plainLength = WritableUtils.getVIntSize(keyLength) + keyLength;
+      return codedLength < plainLength ? shared : 0;
+    }
+
+    /**
+     * Writes a record with a front coded key, and returns its length.
+     */
+    private int writeFrontCoded(byte[] key, int keyOffset, int keyLength,
+        int sharedLength, byte[] value, int valueOffset, int valueLength)
+        throws IOException {
+      int marker = SHARED_PREFIX_MARKER - sharedLength;
+      int suffixLength = keyLength - sharedLength;
+      WritableUtils.writeVInt(out, marker);
+      WritableUtils.writeVInt(out, valueLength);
+      WritableUtils.writeVInt(out, suffixLength);
+      out.write(key, keyOffset + sharedLength, suffixLength);
+      out.write(value, valueOffset, valueLength);
+      return WritableUtils.getVIntSize(marker)
+          + WritableUtils.getVIntSize(valueLength)
+          + WritableUtils.getVIntSize(suffixLength)
+          + suffixLength + valueLength;
+    }
+
     // Required for mark/reset
     public DataOutputStream getOutputStream () {
       return out;
@@ -335,6 +427,10 @@ public class IFile {
       decompressedBytesWritten += length;
     }
     
+    public long getNumRecordsWritten() {
+      return numRecordsWritten;
+    }
+
     public long getRawLength() {
       return decompressedBytesWritten;
     }
@@ -381,6 +477,8 @@ public class IFile {
     protected int prevKeyLength;
     protected int currentKeyLength;
     protected int currentValueLength;
+    // length of the prefix of the current key shared with the previous key
+    protected int currentKeyPrefixLength;
     byte keyBytes[] = new byte[0];
     
     long startPos;
@@ -420,9 +518,31 @@ public class IFile {
                   TezCounter readsCounter, TezCounter bytesReadCounter,
                   boolean readAhead, int readAheadLength,
                   int bufferSize) throws IOException {
+      this(in, length, codec, readsCounter, bytesReadCounter, readAhead,
+          readAheadLength, bufferSize, 0);
+    }
+
+    /**
+     * Construct an IFile Reader.
+     * 
+     * @param in   The input stream
+     * @param length Length of the data in the stream, including the checksum
+     *               bytes.
+     * @param codec codec
+     * @param readsCounter Counter for records read from disk
+     * @param checksumBlockSize Number of bytes covered by each checksum, see
+     *          {@link IFile#getChecksumBlockSize(Configuration)}
+     * @throws IOException
+     */
+    public Reader(InputStream in, long length, 
+                  CompressionCodec codec,
+                  TezCounter readsCounter, TezCounter bytesReadCounter,
+                  boolean readAhead, int readAheadLength,
+                  int bufferSize, int checksumBlockSize) throws IOException {
       readRecordsCounter = readsCounter;
       this.bytesReadCounter = bytesReadCounter;
-      checksumIn = new IFileInputStream(in,length, readAhead, readAheadLength);
+      checksumIn = new IFileInputStream(in, length, readAhead, readAheadLength,
+          checksumBlockSize);
       if (codec != null) {
         decompressor = CodecPool.getDecompressor(codec);
         if (decompressor != null) {
@@ -492,6 +612,22 @@ public class IFile {
         eof = true;
         return false;
       }      
+
+      currentKeyPrefixLength = 0;
+      if (currentKeyLength <= SHARED_PREFIX_MARKER) {
+        // Front coded key
+        int prefixLength = SHARED_PREFIX_MARKER - currentKeyLength;
+        int suffixLength = WritableUtils.readVInt(dIn);
+        bytesRead += WritableUtils.getVIntSize(suffixLength);
+        if (prefixLength > prevKeyLength || suffixLength < 0 ||
+            suffixLength > Integer.MAX_VALUE - prefixLength) {
+          throw new IOException("Rec# " + recNo + ": Bad front coded key, " +
+              "prefix-length: " + prefixLength + ", suffix-length: " +
+              suffixLength + ", previous key-length: " + prevKeyLength);
+        }
+        currentKeyPrefixLength = prefixLength;
+        currentKeyLength = prefixLength + suffixLength;
+      }
       
       // Sanity check
       if (currentKeyLength != RLE_MARKER && currentKeyLength < 0) {
@@ -527,14 +663,16 @@ public class IFile {
         return KeyState.SAME_KEY;
       }
       if (keyBytes.length < currentKeyLength) {
-        keyBytes = new byte[currentKeyLength << 1];
+        // keeping the prefix shared with the previous key
+        keyBytes = Arrays.copyOf(keyBytes, currentKeyLength << 1);
       }
-      int i = readData(keyBytes, 0, currentKeyLength);
-      if (i != currentKeyLength) {
-        throw new IOException ("Asked for " + currentKeyLength + " Got: " + i);
+      int suffixLength = currentKeyLength - currentKeyPrefixLength;
+      int i = readData(keyBytes, currentKeyPrefixLength, suffixLength);
+      if (i != suffixLength) {
+        throw new IOException ("Asked for " + suffixLength + " Got: " + i);
       }
       key.reset(keyBytes, currentKeyLength);
-      bytesRead += currentKeyLength;
+      bytesRead += suffixLength;
       return KeyState.NEW_KEY;
     }
     
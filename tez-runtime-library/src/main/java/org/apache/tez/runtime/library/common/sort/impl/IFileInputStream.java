@@ -37,6 +37,8 @@ import org.apache.hadoop.util.DataChecksum;
 /**
  * A checksum input stream, used for IFiles.
  * Used to validate the checksum of files created by {@link IFileOutputStream}. 
+ * When the file has a checksum per block, each block is validated as soon as
+ * it has been read.
 */
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -47,6 +49,11 @@ public class IFileInputStream extends InputStream {
   private final long length; //The total length of the input file
   private final long dataLength;
   private DataChecksum sum;
+  // Long.MAX_VALUE for a single checksum at the end
+  private final long blockSize;
+  private long blockStart = 0;
+  private long blockRemaining;
+  private long checksumBytesRead = 0;
   private long currentOffset = 0;
   private final byte b[] = new byte[1];
   private byte csum[] = null;
@@ -80,14 +87,29 @@ public class IFileInputStream extends InputStream {
    * @param readAheadLength Number of bytes to readAhead if it is enabled
    */
   public IFileInputStream(InputStream in, long len, boolean readAhead, int readAheadLength) {
+    this(in, len, readAhead, readAheadLength, 0);
+  }
+
+  /**
+   * Create a checksum input stream that reads
+   * @param in The input stream to be verified for checksum.
+   * @param len The length of the input stream including checksum bytes.
+   * @param readAhead Whether to attempt readAhead for this stream
+   * @param readAheadLength Number of bytes to readAhead if it is enabled
+   * @param checksumBlockSize Number of bytes covered by each checksum, or 0
+   *          for a single checksum at the end
+   */
+  public IFileInputStream(InputStream in, long len, boolean readAhead,
+      int readAheadLength, int checksumBlockSize) {
     this.in = in;
-    sum = DataChecksum.newDataChecksum(DataChecksum.Type.CRC32, 
-        Integer.MAX_VALUE);
+    sum = IFileOutputStream.newChecksum(checksumBlockSize);
     checksumSize = sum.getChecksumSize();
     buffer = new byte[4096];
     offset = 0;
     length = len;
-    dataLength = length - checksumSize;
+    dataLength = getDataLength(length, checksumBlockSize);
+    blockSize = checksumBlockSize > 0 ? checksumBlockSize : Long.MAX_VALUE;
+    blockRemaining = Math.min(blockSize, dataLength);
 
     readahead = readAhead;
     readaheadLength = readAheadLength;
@@ -100,6 +122,22 @@ public class IFileInputStream extends InputStream {
     }
   }
 
+  /**
+   * Returns the number of data bytes in an IFile of the given length,
+   * including checksums.
+   */
+  public static long getDataLength(long length, int checksumBlockSize) {
+    // the size of both CRC32 and CRC32C
+    final int checksumSize = DataChecksum.Type.CRC32C.size;
+    if (checksumBlockSize <= 0 || length <= checksumBlockSize + checksumSize) {
+      return length - checksumSize;
+    }
+    // full blocks, and a last one of 1 to checksumBlockSize bytes
+    long fullBlocks = (length - checksumSize - 1) /
+        (checksumBlockSize + checksumSize);
+    return length - checksumSize * (fullBlocks + 1);
+  }
+
   private static FileDescriptor getFileDescriptorIfAvail(InputStream in) {
     FileDescriptor fd = null;
     try {
@@ -146,8 +184,9 @@ public class IFileInputStream extends InputStream {
     return (currentOffset >= dataLength) ? dataLength : currentOffset;
   }
   
+  /** Returns the number of checksum bytes in the stream. */
   public long getSize() {
-    return checksumSize;
+    return length - dataLength;
   }
 
   private void checksum(byte[] b, int off, int len) {
@@ -188,7 +227,7 @@ public class IFileInputStream extends InputStream {
     if (raPool != null && inFd != null && readahead) {
       curReadahead = raPool.readaheadStream(
           "ifile", inFd,
-          currentOffset, readaheadLength, dataLength,
+          currentOffset + checksumBytesRead, readaheadLength, length,
           curReadahead);
     }
   }
@@ -201,6 +240,10 @@ public class IFileInputStream extends InputStream {
    */
   public int readWithChecksum(byte[] b, int off, int len) throws IOException {
 
+    if (blockSize != Long.MAX_VALUE) {
+      throw new IOException(
+          "Cannot pass the checksum through for a file with checksum blocks");
+    }
     if (currentOffset == length) {
       return -1;
     }
@@ -238,6 +281,10 @@ public class IFileInputStream extends InputStream {
     if (currentOffset + len > dataLength) {
       len = (int) (dataLength - currentOffset);
     }
+    // and not past the end of the current block
+    if (len > blockRemaining) {
+      len = (int) blockRemaining;
+    }
     
     int bytesRead = in.read(b, off, len);
 
@@ -257,19 +304,29 @@ public class IFileInputStream extends InputStream {
     checksum(b, off, bytesRead);
 
     currentOffset += bytesRead;
+    blockRemaining -= bytesRead;
 
-    if (disableChecksumValidation) {
+    if (blockSize == Long.MAX_VALUE && disableChecksumValidation) {
       return bytesRead;
     }
     
-    if (currentOffset == dataLength) {
-      // The last four bytes are checksum. Strip them and verify
+    if (blockRemaining == 0) {
+      // The next four bytes are the checksum of the block. Strip them and
+      // verify
       sum.update(buffer, 0, offset);
+      offset = 0;
       csum = new byte[checksumSize];
       IOUtils.readFully(in, csum, 0, checksumSize);
-      if (!sum.compare(csum, 0)) {
+      checksumBytesRead += checksumSize;
+      boolean valid = disableChecksumValidation || sum.compare(csum, 0);
+      long failedBlockStart = blockStart;
+      // move on to the next block either way, the stream stays usable
+      sum.reset();
+      blockStart = currentOffset;
+      blockRemaining = Math.min(blockSize, dataLength - currentOffset);
+      if (!valid) {
         String mesg = "CurrentOffset=" + currentOffset +
-            ", off=" + offset +
+            ", blockStart=" + failedBlockStart +
             ", dataLength=" + dataLength + 
             ", origLen=" + origLen +
             ", len=" + len +
@@ -279,7 +336,8 @@ public class IFileInputStream extends InputStream {
             ", sum=" + sum; 
         LOG.info(mesg);
 
-        throw new ChecksumException("Checksum Error: " + mesg, 0);
+        throw new ChecksumException("Checksum Error: " + mesg,
+            failedBlockStart);
       }
     }
     return bytesRead;
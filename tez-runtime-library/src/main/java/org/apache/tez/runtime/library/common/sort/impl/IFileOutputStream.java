@@ -30,6 +30,10 @@ import org.apache.hadoop.util.DataChecksum;
  * Checksum for the contents of the file is calculated and
  * appended to the end of the file on close of the stream.
  * Used for IFiles
+ * 
+ * With a checksum block size, the data is instead cut into blocks of that
+ * many bytes, and the CRC32C of each block follows it. The last block holds
+ * the remaining 1 to block size bytes, or nothing for an empty stream.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -39,7 +43,11 @@ public class IFileOutputStream extends FilterOutputStream {
    * The output stream to be checksummed.
    */
   private final DataChecksum sum;
+  // Long.MAX_VALUE for a single checksum at the end
+  private final long blockSize;
+  private long blockFill = 0;
   private byte[] barray;
+  private final byte[] singleByte = new byte[1];
   private byte[] buffer;
   private int offset;
   private boolean closed = false;
@@ -51,9 +59,20 @@ public class IFileOutputStream extends FilterOutputStream {
    * @param out
    */
   public IFileOutputStream(OutputStream out) {
+    this(out, 0);
+  }
+
+  /**
+   * Create a checksum output stream that writes
+   * the bytes to the given stream.
+   * @param out
+   * @param checksumBlockSize number of bytes covered by each checksum, or 0
+   *          for a single checksum over the whole stream
+   */
+  public IFileOutputStream(OutputStream out, int checksumBlockSize) {
     super(out);
-    sum = DataChecksum.newDataChecksum(DataChecksum.Type.CRC32,
-        Integer.MAX_VALUE);
+    sum = newChecksum(checksumBlockSize);
+    blockSize = checksumBlockSize > 0 ? checksumBlockSize : Long.MAX_VALUE;
     barray = new byte[sum.getChecksumSize()];
     buffer = new byte[4096];
     offset = 0;
@@ -79,10 +98,28 @@ public class IFileOutputStream extends FilterOutputStream {
       return;
     }
     finished = true;
+    finishBlock();
+    out.flush();
+  }
+
+  private void finishBlock() throws IOException {
     sum.update(buffer, 0, offset);
-    sum.writeValue(barray, 0, false);
+    offset = 0;
+    sum.writeValue(barray, 0, true);
     out.write (barray, 0, sum.getChecksumSize());
-    out.flush();
+    blockFill = 0;
+  }
+
+  /**
+   * Returns the checksum used for IFiles with the given checksum block size.
+   */
+  static DataChecksum newChecksum(int checksumBlockSize) {
+    if (checksumBlockSize > 0) {
+      return DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C,
+          checksumBlockSize);
+    }
+    return DataChecksum.newDataChecksum(DataChecksum.Type.CRC32,
+        Integer.MAX_VALUE);
   }
 
   private void checksum(byte[] b, int off, int len) {
@@ -116,14 +153,24 @@ public class IFileOutputStream extends FilterOutputStream {
    */
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
-    checksum(b, off, len);
-    out.write(b,off,len);
+    while (len > 0) {
+      // a block is only closed once more data follows it
+      if (blockFill == blockSize) {
+        finishBlock();
+      }
+      int n = (int) Math.min(len, blockSize - blockFill);
+      checksum(b, off, n);
+      out.write(b, off, n);
+      blockFill += n;
+      off += n;
+      len -= n;
+    }
   }
 
   @Override
   public void write(int b) throws IOException {
-    barray[0] = (byte) (b & 0xFF);
-    write(barray,0,1);
+    singleByte[0] = (byte) (b & 0xFF);
+    write(singleByte,0,1);
   }
 
 }
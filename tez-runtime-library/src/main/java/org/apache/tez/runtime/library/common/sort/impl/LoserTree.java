@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A tournament tree of losers for k-way merges.
+ *
+ * Each internal node holds the loser of the match between the winners of its
+ * subtrees, and the overall winner is kept above the root. Once the least
+ * element has been consumed and its input advanced, only the matches on the
+ * path from that input to the root are replayed: ceil(log2(k)) comparisons per
+ * record, against up to 2 * log2(k) for a binary heap. Exhausted inputs stay
+ * in the tree as empty leaves which lose every match.
+ *
+ * The methods mirror those of {@link org.apache.hadoop.util.PriorityQueue}.
+ * Elements are added with {@link #put(Object)} before the first access; the
+ * tree is built lazily on the first call to {@link #top()}, {@link #pop()} or
+ * {@link #adjustTop()}.
+ */
+@InterfaceAudience.Private
+public abstract class LoserTree<T> implements Iterable<T> {
+
+  private Object[] items = new Object[0];
+  // tree[0] is the overall winner, tree[1 .. k-1] hold the losers; leaf i is
+  // node k + i
+  private int[] tree = new int[1];
+  private int k = 0;
+  private int live = 0;
+  private boolean built = false;
+
+  /** Determines the ordering of elements in this tree. */
+  protected abstract boolean lessThan(T a, T b);
+
+  /** Allocates space for maxSize elements and removes any current ones. */
+  public final void initialize(int maxSize) {
+    items = new Object[Math.max(maxSize, 1)];
+    tree = new int[Math.max(maxSize, 1)];
+    k = 0;
+    live = 0;
+    built = false;
+  }
+
+  /** Adds an element. Must not be called while a merge is being consumed. */
+  public final void put(T element) {
+    if (k == items.length) {
+      Object[] grown = new Object[Math.max(2 * k, 16)];
+      System.arraycopy(items, 0, grown, 0, k);
+      items = grown;
+      tree = new int[grown.length];
+    }
+    items[k++] = element;
+    live++;
+    built = false;
+  }
+
+  /** Returns the least element in constant time, or null if empty. */
+  public final T top() {
+    if (!built) {
+      build();
+    }
+    return live == 0 ? null : item(tree[0]);
+  }
+
+  /**
+   * Removes and returns the least element, or null if empty. The input of
+   * the element is treated as exhausted.
+   */
+  public final T pop() {
+    if (!built) {
+      build();
+    }
+    if (live == 0) {
+      return null;
+    }
+    int winner = tree[0];
+    T result = item(winner);
+    items[winner] = null;
+    live--;
+    replay(winner);
+    return result;
+  }
+
+  /**
+   * Should be called when the object at top changes values, after its input
+   * has been advanced.
+   */
+  public final void adjustTop() {
+    if (!built) {
+      build();
+      return;
+    }
+    if (live > 0) {
+      replay(tree[0]);
+    }
+  }
+
+  /**
+   * Returns the least element other than {@link #top()}, or null if there is
+   * none. Costs one comparison per level of the tree.
+   */
+  public final T runnerUp() {
+    if (!built) {
+      build();
+    }
+    if (live < 2) {
+      return null;
+    }
+    // the runner up lost its last match to the winner, on the winner's path
+    int best = -1;
+    for (int node = (k + tree[0]) >>> 1; node > 0; node >>>= 1) {
+      int candidate = tree[node];
+      if (best < 0 || beats(candidate, best)) {
+        best = candidate;
+      }
+    }
+    return item(best);
+  }
+
+  /** Returns the number of elements whose inputs are not exhausted. */
+  public final int size() {
+    return live;
+  }
+
+  /** Removes all entries from the tree. */
+  public final void clear() {
+    for (int i = 0; i < k; i++) {
+      items[i] = null;
+    }
+    k = 0;
+    live = 0;
+    built = false;
+  }
+
+  /** Iterates over the elements in no particular order. */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int next = advance(0);
+
+      private int advance(int i) {
+        while (i < k && items[i] == null) {
+          i++;
+        }
+        return i;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < k;
+      }
+
+      @Override
+      public T next() {
+        if (next >= k) {
+          throw new NoSuchElementException();
+        }
+        T result = item(next);
+        next = advance(next + 1);
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private T item(int index) {
+    return (T) items[index];
+  }
+
+  /** Whether the element at a wins against the element at b. */
+  private boolean beats(int a, int b) {
+    if (items[a] == null) {
+      return false;
+    }
+    return items[b] == null || lessThan(item(a), item(b));
+  }
+
+  private void build() {
+    built = true;
+    if (k == 0) {
+      return;
+    }
+    // winners of the subtrees below each internal node
+    int[] winners = new int[k];
+    for (int node = k - 1; node > 0; node--) {
+      int left = subtreeWinner(winners, 2 * node);
+      int right = subtreeWinner(winners, 2 * node + 1);
+      if (beats(right, left)) {
+        winners[node] = right;
+        tree[node] = left;
+      } else {
+        winners[node] = left;
+        tree[node] = right;
+      }
+    }
+    tree[0] = k == 1 ? 0 : winners[1];
+  }
+
+  private int subtreeWinner(int[] winners, int node) {
+    return node >= k ? node - k : winners[node];
+  }
+
+  private void replay(int leaf) {
+    int winner = leaf;
+    for (int node = (k + leaf) >>> 1; node > 0; node >>>= 1) {
+      if (beats(tree[node], winner)) {
+        int loser = winner;
+        winner = tree[node];
+        tree[node] = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+}
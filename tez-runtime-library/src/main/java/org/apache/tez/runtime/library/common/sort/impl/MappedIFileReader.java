@@ -0,0 +1,367 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader;
+
+/**
+ * <code>IFile.Reader</code> for uncompressed IFiles on the local filesystem,
+ * reading through a memory mapping of the file instead of a stream.
+ * 
+ * The data is copied out of the mapping a window at a time, and keys and
+ * values are served as slices of the window, so there are no read calls and
+ * no copies through stream buffers. The checksum is updated with each window
+ * as it is copied, and with checksum blocks each block is verified as soon
+ * as it has been copied. A key remains valid until the next call to
+ * {@link #readRawKey(DataInputBuffer)}, a value until the next call to either
+ * method.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class MappedIFileReader extends Reader {
+
+  private static final Log LOG = LogFactory.getLog(MappedIFileReader.class);
+
+  // Bounds the address space held by a reader; large files are mapped a
+  // region at a time.
+  private static final long MAX_REGION_SIZE = 256L * 1024 * 1024;
+  // Three vints, for a front coded key
+  private static final int MAX_HEADER_SIZE = 15;
+
+  private final TezCounter readsCounter;
+  private final TezCounter bytesCounter;
+
+  private FileChannel channel;
+  private final long fileOffset;
+  private final long dataLength;
+  private MappedByteBuffer region = null;
+  private long regionStart = 0;
+  // bytes of the file which have been copied out of the mapping
+  private long mapped = 0;
+  // of which data, as opposed to checksums
+  private long dataCopied = 0;
+
+  private final DataChecksum sum;
+  private final int checksumSize;
+  // Long.MAX_VALUE for a single checksum at the end
+  private final long blockSize;
+  private long blockRemaining;
+  private boolean validateChecksum = true;
+
+  private byte[] window;
+  private final DataInputBuffer windowIn = new DataInputBuffer();
+  private int limit = 0;
+  // the last key, which a following RLE or front coded record refers to; in
+  // the window or in keyBuffer
+  private byte[] lastKeyData = null;
+  private int lastKeyPos = 0;
+  private int lastKeyLength = 0;
+  // front coded keys are put back together here
+  private byte[] keyBuffer = new byte[0];
+  private long numRecordsRead = 0;
+
+  /**
+   * Construct a mapped IFile Reader.
+   * 
+   * @param file the local file
+   * @param offset offset of the IFile within the file
+   * @param length length of the IFile, including the checksum bytes
+   * @param readsCounter Counter for records read from disk
+   * @param bytesReadCounter Counter for bytes read from disk
+   * @param bufferSize size of the window, -1 for the default
+   * @param checksumBlockSize Number of bytes covered by each checksum, see
+   *          {@link IFile#getChecksumBlockSize(org.apache.hadoop.conf.Configuration)}
+   * @throws IOException
+   */
+  public MappedIFileReader(File file, long offset, long length,
+      TezCounter readsCounter, TezCounter bytesReadCounter, int bufferSize,
+      int checksumBlockSize) throws IOException {
+    super(null, length, null, null, null, false, 0, bufferSize,
+        checksumBlockSize);
+    this.readsCounter = readsCounter;
+    this.bytesCounter = bytesReadCounter;
+    this.fileOffset = offset;
+    this.sum = IFileOutputStream.newChecksum(checksumBlockSize);
+    this.checksumSize = sum.getChecksumSize();
+    this.dataLength = IFileInputStream.getDataLength(length,
+        checksumBlockSize);
+    this.blockSize = checksumBlockSize > 0 ? checksumBlockSize
+        : Long.MAX_VALUE;
+    this.blockRemaining = Math.min(blockSize, dataLength);
+    if (dataLength < 0) {
+      throw new IOException("IFile of length " + length + " in " + file
+          + " is too short to hold a checksum");
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    this.channel = raf.getChannel();
+    this.window = new byte[this.bufferSize];
+    windowIn.reset(window, 0, 0);
+  }
+
+  /**
+   * Returns the local file backing a path, or null if the filesystem is not
+   * the local one.
+   */
+  public static File getLocalFile(FileSystem fs, Path path) {
+    if (fs instanceof LocalFileSystem) {
+      return ((LocalFileSystem) fs).pathToFile(path);
+    } else if (fs instanceof RawLocalFileSystem) {
+      return ((RawLocalFileSystem) fs).pathToFile(path);
+    }
+    return null;
+  }
+
+  @Override
+  public long getPosition() throws IOException {
+    // the data is not compressed, so this is also the position in the file
+    return bytesRead;
+  }
+
+  @Override
+  public KeyState readRawKey(DataInputBuffer key) throws IOException {
+    ensure(MAX_HEADER_SIZE);
+    if (!positionToNextRecord(windowIn)) {
+      return KeyState.NO_KEY;
+    }
+    if (currentKeyLength == IFile.RLE_MARKER) {
+      currentKeyLength = prevKeyLength;
+      // may move the last key
+      ensure(currentValueLength);
+      checkAvailable(currentValueLength);
+      key.reset(lastKeyData, lastKeyPos, lastKeyLength);
+      return KeyState.SAME_KEY;
+    }
+    int suffixLength = currentKeyLength - currentKeyPrefixLength;
+    if (currentValueLength > Integer.MAX_VALUE - suffixLength) {
+      throw new IOException("Rec# " + recNo + ": Record too large, key-length: "
+          + currentKeyLength + ", value-length: " + currentValueLength);
+    }
+    // the key and value together, so that reading the value does not move
+    // the key
+    ensure(suffixLength + currentValueLength);
+    checkAvailable(suffixLength + currentValueLength);
+    int pos = windowIn.getPosition();
+    if (currentKeyPrefixLength > 0) {
+      if (keyBuffer.length < currentKeyLength) {
+        keyBuffer = new byte[currentKeyLength << 1];
+      }
+      // unless the previous key was put together in place
+      if (lastKeyData != keyBuffer) {
+        System.arraycopy(lastKeyData, lastKeyPos, keyBuffer, 0,
+            currentKeyPrefixLength);
+      }
+      System.arraycopy(window, pos, keyBuffer, currentKeyPrefixLength,
+          suffixLength);
+      key.reset(keyBuffer, 0, currentKeyLength);
+      lastKeyData = keyBuffer;
+      lastKeyPos = 0;
+    } else {
+      key.reset(window, pos, currentKeyLength);
+      lastKeyData = window;
+      lastKeyPos = pos;
+    }
+    lastKeyLength = currentKeyLength;
+    windowIn.skip(suffixLength);
+    bytesRead += suffixLength;
+    return KeyState.NEW_KEY;
+  }
+
+  @Override
+  public void nextRawValue(DataInputBuffer value) throws IOException {
+    int pos = windowIn.getPosition();
+    value.reset(window, pos, currentValueLength);
+    windowIn.skip(currentValueLength);
+    bytesRead += currentValueLength;
+    ++recNo;
+    ++numRecordsRead;
+  }
+
+  /**
+   * Makes at least the given number of unread bytes available in the window,
+   * or all that are left.
+   */
+  private void ensure(int needed) throws IOException {
+    int pos = windowIn.getPosition();
+    if (limit - pos >= needed || dataCopied >= dataLength) {
+      return;
+    }
+    // Keep the last key, if it is in the window, and the unread bytes at the
+    // start of the window
+    boolean keepKey = lastKeyData != null && lastKeyData == window;
+    int keyLength = keepKey ? lastKeyLength : 0;
+    int unread = limit - pos;
+    long size = (long) keyLength + Math.max(needed, bufferSize);
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Rec# " + recNo + ": Record of " + needed
+          + " bytes does not fit in a window");
+    }
+    byte[] target = window;
+    if (size > window.length) {
+      target = new byte[(int) size];
+    }
+    if (keepKey) {
+      System.arraycopy(window, lastKeyPos, target, 0, keyLength);
+      lastKeyData = target;
+      lastKeyPos = 0;
+    }
+    System.arraycopy(window, pos, target, keyLength, unread);
+    window = target;
+    limit = keyLength + unread;
+    int n = (int) Math.min(window.length - limit, dataLength - dataCopied);
+    copyData(window, limit, n);
+    limit += n;
+    windowIn.reset(window, keyLength, limit - keyLength);
+  }
+
+  /** Copies data from the mapping, verifying each block once complete. */
+  private void copyData(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n = (int) Math.min(len, blockRemaining);
+      readMapped(b, off, n);
+      if (validateChecksum) {
+        sum.update(b, off, n);
+      }
+      dataCopied += n;
+      blockRemaining -= n;
+      off += n;
+      len -= n;
+      if (blockRemaining == 0) {
+        verifyChecksum();
+        sum.reset();
+        blockRemaining = Math.min(blockSize, dataLength - dataCopied);
+      }
+    }
+  }
+
+  private void checkAvailable(int needed) throws IOException {
+    int available = limit - windowIn.getPosition();
+    if (available < needed) {
+      throw new EOFException("Rec# " + recNo + ": Asked for " + needed
+          + " Got: " + available);
+    }
+  }
+
+  private void verifyChecksum() throws IOException {
+    byte[] csum = new byte[checksumSize];
+    readMapped(csum, 0, checksumSize);
+    if (validateChecksum && !sum.compare(csum, 0)) {
+      long blockStart = dataCopied - (dataCopied - 1) % blockSize - 1;
+      throw new ChecksumException("Checksum Error: dataLength=" + dataLength
+          + ", fileOffset=" + fileOffset + ", blockStart=" + blockStart
+          + ", sum=" + sum, blockStart);
+    }
+  }
+
+  /** Copies bytes from the mapping, moving on to the next region as needed. */
+  private void readMapped(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (region == null || mapped == regionStart + region.capacity()) {
+        unmap(region);
+        regionStart = mapped;
+        long size = Math.min(fileLength - mapped, MAX_REGION_SIZE);
+        region = channel.map(FileChannel.MapMode.READ_ONLY,
+            fileOffset + regionStart, size);
+      }
+      int n = (int) Math.min(len, regionStart + region.capacity() - mapped);
+      region.get(b, off, n);
+      off += n;
+      len -= n;
+      mapped += n;
+    }
+  }
+
+  /**
+   * Releases a mapping without waiting for the garbage collector. The
+   * mapping must not be accessed afterwards; keys and values are never
+   * served from it directly.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Exception e) {
+      // left to the garbage collector
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Unable to unmap IFile region", e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      // Read the rest of the data to validate the checksum, as the stream
+      // does
+      if (validateChecksum) {
+        while (dataCopied < dataLength) {
+          copyData(window, 0,
+              (int) Math.min(window.length, dataLength - dataCopied));
+        }
+      }
+    } finally {
+      unmap(region);
+      region = null;
+      channel.close();
+      channel = null;
+      window = null;
+      dataIn = null;
+    }
+    if (readsCounter != null) {
+      readsCounter.increment(numRecordsRead);
+    }
+    if (bytesCounter != null) {
+      bytesCounter.increment(mapped);
+    }
+  }
+
+  @Override
+  public void disableChecksumValidation() {
+    validateChecksum = false;
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import org.apache.hadoop.classification.InterfaceStability.Unstable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Extracts a normalized prefix from a serialized key. The prefix is an int
+ * whose unsigned order is consistent with the order of the key comparator:
+ * if prefix(a) < prefix(b) then compare(a, b) < 0. Keys with equal prefixes
+ * still need the full RawComparator.
+ * 
+ * The sorters store the leading bits of the prefix next to the partition in
+ * the sort metadata, so most comparisons of keys with distinct prefixes are
+ * decided without touching the serialized key bytes.
+ */
+@Unstable
+public interface NormalizedKeyPrefix {
+
+  /**
+   * Implementations never look at more than this many leading bytes of a
+   * serialized key.
+   */
+  public static final int MAX_PREFIX_BYTES = 16;
+
+  /**
+   * @param b buffer containing the serialized key
+   * @param start offset of the key in the buffer
+   * @param length length of the serialized key, which may be truncated to
+   *          {@link #MAX_PREFIX_BYTES}
+   * @return the normalized prefix, to be compared as an unsigned int
+   */
+  int getPrefix(byte[] b, int start, int length);
+
+  /**
+   * Prefixes for the common Writables, valid for their default comparators.
+   */
+  public static class Writables {
+
+    public static NormalizedKeyPrefix forKeyClass(Class<?> keyClass) {
+      if (keyClass == Text.class) {
+        return new TextPrefix();
+      } else if (keyClass == BytesWritable.class) {
+        return new BytesWritablePrefix();
+      } else if (keyClass == IntWritable.class) {
+        return new IntWritablePrefix();
+      } else if (keyClass == LongWritable.class) {
+        return new LongWritablePrefix();
+      }
+      return null;
+    }
+
+    /**
+     * First four bytes in big-endian order, zero padded. Consistent with
+     * lexicographic comparison of unsigned bytes.
+     */
+    static int bytesPrefix(byte[] b, int start, int length) {
+      int prefix = 0;
+      for (int i = 0; i < 4; i++) {
+        prefix <<= 8;
+        if (i < length) {
+          prefix |= b[start + i] & 0xff;
+        }
+      }
+      return prefix;
+    }
+
+    public static class TextPrefix implements NormalizedKeyPrefix {
+      @Override
+      public int getPrefix(byte[] b, int start, int length) {
+        int n = WritableUtils.decodeVIntSize(b[start]);
+        return bytesPrefix(b, start + n, length - n);
+      }
+    }
+
+    public static class BytesWritablePrefix implements NormalizedKeyPrefix {
+      private static final int LENGTH_BYTES = 4;
+
+      @Override
+      public int getPrefix(byte[] b, int start, int length) {
+        return bytesPrefix(b, start + LENGTH_BYTES, length - LENGTH_BYTES);
+      }
+    }
+
+    public static class IntWritablePrefix implements NormalizedKeyPrefix {
+      @Override
+      public int getPrefix(byte[] b, int start, int length) {
+        // flip the sign bit so that signed order becomes unsigned order
+        return WritableComparator.readInt(b, start) ^ Integer.MIN_VALUE;
+      }
+    }
+
+    public static class LongWritablePrefix implements NormalizedKeyPrefix {
+      @Override
+      public int getPrefix(byte[] b, int start, int length) {
+        return (int) (WritableComparator.readLong(b, start) >>> 32) ^ Integer.MIN_VALUE;
+      }
+    }
+  }
+}
@@ -26,7 +26,6 @@ import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -81,7 +80,10 @@ public class PipelinedSorter extends ExternalSorter {
   private final HashComparator hasher;
   // SortSpans  
   private SortSpan span;
-  private ByteBuffer largeBuffer;
+  // chunks of the sort buffer, filled by spans in order and reused after a spill
+  private List<ByteBuffer> buffers;
+  private int bufferIndex = 0;
+  private final long totalBufferCapacity;
   // Merger
   private final SpanMerger merger; 
   private final ExecutorService sortmaster;
@@ -111,18 +113,43 @@ public class PipelinedSorter extends ExternalSorter {
       throw new IOException("Invalid \"" + TezJobConfig.TEZ_RUNTIME_SORT_SPILL_PERCENT +
           "\": " + spillper);
     }
-    if ((sortmb & 0x7FF) != sortmb) {
-      throw new IOException(
-          "Invalid \"" + TezJobConfig.TEZ_RUNTIME_IO_SORT_MB + "\": " + sortmb);
+    final boolean useDirectBuffers = this.conf.getBoolean(
+        TezJobConfig.TEZ_RUNTIME_PIPELINED_SORTER_DIRECT_BUFFERS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_PIPELINED_SORTER_DIRECT_BUFFERS);
+    int chunkmb = this.conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_CHUNK_MB,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_CHUNK_MB);
+    final boolean chunked = chunkmb > 0 && chunkmb < sortmb;
+    if (!chunked) {
+      chunkmb = sortmb;
+    }
+    // each chunk is addressed with int offsets
+    if ((chunkmb & 0x7FF) != chunkmb) {
+      throw new IOException("Invalid \""
+          + (chunked ? TezJobConfig.TEZ_RUNTIME_PIPELINED_SORTER_BUFFER_CHUNK_MB
+              : TezJobConfig.TEZ_RUNTIME_IO_SORT_MB) + "\": " + chunkmb);
     }
     
     // buffers and accounting
-    int maxMemUsage = sortmb << 20;
-    maxMemUsage -= maxMemUsage % METASIZE;
-    largeBuffer = ByteBuffer.allocate(maxMemUsage);
-    LOG.info(TezJobConfig.TEZ_RUNTIME_IO_SORT_MB + " = " + sortmb);
+    int maxChunkSize = chunkmb << 20;
+    maxChunkSize -= maxChunkSize % METASIZE;
+    long remainingMemUsage = ((long) sortmb) << 20;
+    long capacity = 0;
+    buffers = new ArrayList<ByteBuffer>();
+    while (remainingMemUsage >= METASIZE) {
+      int chunkSize = (int) Math.min(remainingMemUsage, maxChunkSize);
+      chunkSize -= chunkSize % METASIZE;
+      buffers.add(useDirectBuffers ? ByteBuffer.allocateDirect(chunkSize)
+          : ByteBuffer.allocate(chunkSize));
+      capacity += chunkSize;
+      remainingMemUsage -= chunkSize;
+    }
+    totalBufferCapacity = capacity;
+    LOG.info(TezJobConfig.TEZ_RUNTIME_IO_SORT_MB + " = " + sortmb
+        + ", chunks = " + buffers.size() + " x " + chunkmb + " MB"
+        + (useDirectBuffers ? " (off-heap)" : ""));
     // TODO: configurable setting?
-    span = new SortSpan(largeBuffer, 1024*1024, 16);
+    span = new SortSpan(buffers.get(0), 1024*1024, 16);
     merger = new SpanMerger(comparator);
     final int sortThreads = 
             this.conf.getInt(
@@ -157,22 +184,19 @@ public class PipelinedSorter extends ExternalSorter {
   public void sort() throws IOException {
     SortSpan newSpan = span.next();
 
-    if(newSpan == null) {
+    if(newSpan == null && bufferIndex + 1 < buffers.size()) {
+      // this chunk is exhausted, queue up the sort and move to the next one
+      SortTask task = new SortTask(span, sorter, comparator);
+      Future<SpanIterator> future = sortmaster.submit(task);
+      merger.add(future);
+      bufferIndex++;
+      span = newSpan(buffers.get(bufferIndex));
+    } else if(newSpan == null) {
       // sort in the same thread, do not wait for the thread pool
       merger.add(span.sort(sorter, comparator));
       spill();
-      int items = 1024*1024;
-      int perItem = 16;
-      if(span.length() != 0) {
-        items = span.length();
-        perItem = span.kvbuffer.limit()/items;
-        items = (largeBuffer.capacity())/(METASIZE+perItem);
-        if(items > 1024*1024) {
-            // our goal is to have 1M splits and sort early
-            items = 1024*1024;
-        }
-      }      
-      span = new SortSpan(largeBuffer, items, perItem);
+      bufferIndex = 0;
+      span = newSpan(buffers.get(bufferIndex));
     } else {
       // queue up the sort
       SortTask task = new SortTask(span, sorter, comparator);
@@ -184,6 +208,25 @@ public class PipelinedSorter extends ExternalSorter {
     keySerializer.open(span.out);
   }
 
+  /**
+   * Start a span covering a whole free chunk, sized on the records seen in
+   * the current span.
+   */
+  private SortSpan newSpan(ByteBuffer chunk) {
+    int items = 1024*1024;
+    int perItem = 16;
+    if(span.length() != 0) {
+      items = span.length();
+      perItem = span.kvbuffer.limit()/items;
+      items = (chunk.capacity())/(METASIZE+perItem);
+      if(items > 1024*1024) {
+          // our goal is to have 1M splits and sort early
+          items = 1024*1024;
+      }
+    }
+    return new SortSpan(chunk, items, perItem);
+  }
+
   @Override
   public void write(Object key, Object value) 
       throws IOException {
@@ -236,6 +279,8 @@ public class PipelinedSorter extends ExternalSorter {
 
     if(hasher != null) {
       prefix = hasher.getHashCode(key);
+    } else if(keyPrefix != null) {
+      prefix = span.getKeyPrefix(keystart, valstart - keystart);
     }
 
     prefix = (partition << (32 - partitionBits)) | (prefix >>> partitionBits);
@@ -257,7 +302,7 @@ public class PipelinedSorter extends ExternalSorter {
 
   public void spill() throws IOException { 
     // create spill file
-    final long size = largeBuffer.capacity() + 
+    final long size = totalBufferCapacity + 
       (partitions * APPROX_HEADER_LENGTH);
     final TezSpillRecord spillRec = new TezSpillRecord(partitions);
     final Path filename =
@@ -303,6 +348,7 @@ public class PipelinedSorter extends ExternalSorter {
     } catch(InterruptedException ie) {
       // TODO:the combiner has been interrupted
     } finally {
+      merger.reset();
       out.close();
     }
   }
@@ -321,7 +367,7 @@ public class PipelinedSorter extends ExternalSorter {
     spill();
     sortmaster.shutdown();
 
-    largeBuffer = null;
+    buffers = null;
 
     if(numSpills == 1) {
       // someday be able to pass this directly to shuffle
@@ -444,6 +490,11 @@ public class PipelinedSorter extends ExternalSorter {
       wrapped.limit(length);
     }
     public void reset(ByteBuffer b, int start, int length) {
+      if (b.hasArray()) {
+        // heap buffers are read in place
+        super.reset(b.array(), b.arrayOffset() + start, length);
+        return;
+      }
       resize(length);
       b.position(start);
       b.get(buffer, 0, length);
@@ -453,7 +504,7 @@ public class PipelinedSorter extends ExternalSorter {
     public void reset(DataInputBuffer clone) {
       byte[] data = clone.getData();
       int start = clone.getPosition();
-      int length = clone.getLength();
+      int length = clone.getLength() - start;
       resize(length);
       System.arraycopy(data, start, buffer, 0, length);
       super.reset(buffer, 0, length);
@@ -475,6 +526,7 @@ public class PipelinedSorter extends ExternalSorter {
     private int index = 0;
     private InputByteBuffer hay = new InputByteBuffer();
     private long eq = 0;
+    private byte[] prefixBytes;
 
     public SortSpan(ByteBuffer source, int maxItems, int perItem) {
       int capacity = source.remaining(); 
@@ -501,9 +553,12 @@ public class PipelinedSorter extends ExternalSorter {
     }
 
     public SpanIterator sort(IndexedSorter sorter, RawComparator comparator) {
-    	this.comparator = comparator;
-      ki = new byte[keymax];
-      kj = new byte[keymax];
+      this.comparator = comparator;
+      if (!kvbuffer.hasArray()) {
+        // off-heap keys are copied out for the RawComparator
+        ki = new byte[keymax];
+        kj = new byte[keymax];
+      }
       LOG.info("begin sorting Span"+index + " ("+length()+")");
       if(length() > 1) {
         sorter.sort(this, 0, length(), nullProgressable);
@@ -516,6 +571,21 @@ public class PipelinedSorter extends ExternalSorter {
       return (i * NMETA);
     }
 
+    int getKeyPrefix(int keystart, int keylen) {
+      if (kvbuffer.hasArray()) {
+        return keyPrefix.getPrefix(kvbuffer.array(),
+            kvbuffer.arrayOffset() + keystart, keylen);
+      }
+      if (prefixBytes == null) {
+        prefixBytes = new byte[NormalizedKeyPrefix.MAX_PREFIX_BYTES];
+      }
+      final int len = Math.min(keylen, prefixBytes.length);
+      for (int k = 0; k < len; k++) {
+        prefixBytes[k] = kvbuffer.get(keystart + k);
+      }
+      return keyPrefix.getPrefix(prefixBytes, 0, len);
+    }
+
     public void swap(final int mi, final int mj) {
       final int kvi = offsetFor(mi);
       final int kvj = offsetFor(mj);
@@ -544,12 +614,19 @@ public class PipelinedSorter extends ExternalSorter {
       final int ilen   = kvmeta.get(kvi + VALSTART) - istart;
       final int jlen   = kvmeta.get(kvj + VALSTART) - jstart;
 
-      kvbuffer.position(istart);
-      kvbuffer.get(ki, 0, ilen);
-      kvbuffer.position(jstart);
-      kvbuffer.get(kj, 0, jlen);
       // sort by key
-      final int cmp = comparator.compare(ki, 0, ilen, kj, 0, jlen);
+      final int cmp;
+      if (ki == null) {
+        final byte[] data = kvbuffer.array();
+        final int base = kvbuffer.arrayOffset();
+        cmp = comparator.compare(data, base + istart, ilen, data, base + jstart, jlen);
+      } else {
+        kvbuffer.position(istart);
+        kvbuffer.get(ki, 0, ilen);
+        kvbuffer.position(jstart);
+        kvbuffer.get(kj, 0, jlen);
+        cmp = comparator.compare(ki, 0, ilen, kj, 0, jlen);
+      }
       if(cmp == 0) eq++;
       return cmp;
     }
@@ -602,9 +679,9 @@ public class PipelinedSorter extends ExternalSorter {
         // hay is allocated ahead of time
         hay.reset(kvbuffer, keystart, valstart - keystart);
         cmp = comparator.compare(hay.getData(), 
-            hay.getPosition(), hay.getLength(),
+            hay.getPosition(), hay.getLength() - hay.getPosition(),
             needle.getData(), 
-            needle.getPosition(), needle.getLength());
+            needle.getPosition(), needle.getLength() - needle.getPosition());
       }
       return cmp;
     }
@@ -801,16 +878,14 @@ public class PipelinedSorter extends ExternalSorter {
     }
   }
 
-  private class SpanHeap extends java.util.PriorityQueue<SpanIterator> {
+  private class SpanHeap extends LoserTree<SpanIterator> {
     public SpanHeap() {
-      super(256);
+      initialize(256);
     }
-    /**
-     * {@link PriorityQueue}.poll() by a different name 
-     * @return
-     */
-    public SpanIterator pop() {
-      return this.poll();
+
+    @Override
+    protected boolean lessThan(SpanIterator a, SpanIterator b) {
+      return a.compareTo(b) < 0;
     }
   }
 
@@ -838,7 +913,7 @@ public class PipelinedSorter extends ExternalSorter {
 
     public void add(SpanIterator iter) throws IOException{
       if(iter.next()) {
-        heap.add(iter);
+        heap.put(iter);
       }
     }
 
@@ -875,12 +950,15 @@ public class PipelinedSorter extends ExternalSorter {
         gallop--;
         return horse;
       }
-      SpanIterator current = heap.pop();
-      SpanIterator next = heap.peek();
-      if(next != null && current != null &&
+      // the winner stays in the tree until its span is advanced in next()
+      SpanIterator current = heap.top();
+      if(current != null &&
         ((Object)horse) == ((Object)current)) {
-        // TODO: a better threshold check
-        gallop = current.bisect(next.getKey(), next.getPartition())-1;
+        SpanIterator next = heap.runnerUp();
+        if(next != null) {
+          // TODO: a better threshold check
+          gallop = current.bisect(next.getKey(), next.getPartition())-1;
+        }
       }
       horse = current;
       return current;
@@ -889,24 +967,38 @@ public class PipelinedSorter extends ExternalSorter {
     public boolean needsRLE() {
       return (eq > 0.1 * total);
     }
+
+    /**
+     * Drop the spans of a finished spill, so that the tree neither grows
+     * with every spill nor keeps the spans of earlier spills reachable.
+     */
+    public void reset() {
+      heap.clear();
+      horse = null;
+      gallop = 0;
+    }
     
     private SpanIterator peek() throws IOException {
     	if(gallop > 0) {
             return horse;
         }
-    	return heap.peek();
+    	return heap.top();
     }
 
     public boolean next() throws IOException {
       SpanIterator current = pop();
 
       if(current != null) {
-        // keep local copies, since add() will move it all out
+        // keep local copies, since next() will move it all out
         key.reset(current.getKey());
         value.reset(current.getValue());
         partition = current.getPartition();
         if(gallop <= 0) {
-          this.add(current);
+          if(current.next()) {
+            heap.adjustTop();
+          } else {
+            heap.pop();
+          }
         } else {
           // galloping
           current.next();
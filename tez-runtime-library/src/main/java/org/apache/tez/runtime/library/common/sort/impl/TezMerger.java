@@ -17,11 +17,19 @@
  */
 package org.apache.tez.runtime.library.common.sort.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,17 +42,22 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.compress.CompressionCodec;
-import org.apache.hadoop.util.PriorityQueue;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.GenericCounter;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 
 /**
  * Merger is an utility class used by the Map and Reduce tasks for merging
@@ -222,6 +235,9 @@ public class TezMerger {
     boolean ifileReadAhead;
     int ifileReadAheadLength;
     int bufferSize = -1;
+    // read uncompressed local files through a memory mapping
+    boolean mapLocalFile = false;
+    int checksumBlockSize = 0;
     
     TezCounter mapOutputsCounter = null;
 
@@ -269,6 +285,10 @@ public class TezMerger {
       this.segmentLength = segmentLength;
       
       this.mapOutputsCounter = mergedMapOutputsCounter;
+      this.mapLocalFile = conf != null && conf.getBoolean(
+          TezJobConfig.TEZ_RUNTIME_IFILE_MMAP,
+          TezJobConfig.TEZ_RUNTIME_IFILE_MMAP_DEFAULT);
+      this.checksumBlockSize = IFile.getChecksumBlockSize(conf);
     }
     
     public Segment(Reader reader, boolean preserve) {
@@ -287,10 +307,19 @@ public class TezMerger {
 
     void init(TezCounter readsCounter, TezCounter byetsReadCounter) throws IOException {      
       if (reader == null) { 
-        FSDataInputStream in = fs.open(file);
-        in.seek(segmentOffset);
-        reader = new Reader(in, segmentLength, codec, readsCounter, byetsReadCounter,
-            ifileReadAhead, ifileReadAheadLength, bufferSize);
+        File localFile = (mapLocalFile && codec == null) ?
+            MappedIFileReader.getLocalFile(fs, file) : null;
+        if (localFile != null) {
+          reader = new MappedIFileReader(localFile, segmentOffset,
+              segmentLength, readsCounter, byetsReadCounter, bufferSize,
+              checksumBlockSize);
+        } else {
+          FSDataInputStream in = fs.open(file);
+          in.seek(segmentOffset);
+          reader = new Reader(in, segmentLength, codec, readsCounter, byetsReadCounter,
+              ifileReadAhead, ifileReadAheadLength, bufferSize,
+              checksumBlockSize);
+        }
       }
       if (mapOutputsCounter != null) {
         mapOutputsCounter.increment(1);
@@ -362,7 +391,7 @@ public class TezMerger {
   }
 
   private static class MergeQueue<K extends Object, V extends Object> 
-  extends PriorityQueue<Segment> implements TezRawKeyValueIterator {
+  extends LoserTree<Segment> implements TezRawKeyValueIterator {
     Configuration conf;
     FileSystem fs;
     CompressionCodec codec;
@@ -370,6 +399,10 @@ public class TezMerger {
     int ifileReadAheadLength = TezJobConfig.TEZ_RUNTIME_IFILE_READAHEAD_BYTES_DEFAULT;
     int ifileBufferSize = TezJobConfig.TEZ_RUNTIME_IFILE_BUFFER_SIZE_DEFAULT;
     long recordsBeforeProgress = TezJobConfig.DEFAULT_RECORDS_BEFORE_PROGRESS;
+    int mergeThreads = TezJobConfig.DEFAULT_TEZ_RUNTIME_MERGE_PARALLEL_THREADS;
+    int prefetchBytes = TezJobConfig.DEFAULT_TEZ_RUNTIME_MERGE_PREFETCH_BYTES;
+    // reads ahead the on-disk segments of the final merge
+    private ExecutorService prefetchPool;
     
     List<Segment> segments = new ArrayList<Segment>();
     
@@ -418,6 +451,7 @@ public class TezMerger {
       this.comparator = comparator;
       this.reporter = reporter;
       this.considerFinalMergeForProgress = considerFinalMergeForProgress;
+      configureParallelMerge();
       
       for (Path file : inputs) {
         LOG.debug("MergeQ: adding: " + file);
@@ -442,6 +476,7 @@ public class TezMerger {
       this.segments = segments;
       this.reporter = reporter;
       this.considerFinalMergeForProgress = considerFinalMergeForProgress;
+      configureParallelMerge();
       if (sortSegments) {
         Collections.sort(segments, segmentComparator);
       }
@@ -455,11 +490,24 @@ public class TezMerger {
       this.codec = codec;
     }
 
+    private void configureParallelMerge() {
+      if (conf != null) {
+        mergeThreads = conf.getInt(TezJobConfig.TEZ_RUNTIME_MERGE_PARALLEL_THREADS,
+            TezJobConfig.DEFAULT_TEZ_RUNTIME_MERGE_PARALLEL_THREADS);
+        prefetchBytes = conf.getInt(TezJobConfig.TEZ_RUNTIME_MERGE_PREFETCH_BYTES,
+            TezJobConfig.DEFAULT_TEZ_RUNTIME_MERGE_PREFETCH_BYTES);
+      }
+    }
+
     public void close() throws IOException {
       Segment segment;
       while((segment = pop()) != null) {
         segment.close();
       }
+      if (prefetchPool != null) {
+        prefetchPool.shutdown();
+        prefetchPool = null;
+      }
     }
 
     public DataInputBuffer getKey() throws IOException {
@@ -520,9 +568,9 @@ public class TezMerger {
       return true;
     }
 
-    protected boolean lessThan(Object a, Object b) {
-      DataInputBuffer key1 = ((Segment)a).getKey();
-      DataInputBuffer key2 = ((Segment)b).getKey();
+    protected boolean lessThan(Segment a, Segment b) {
+      DataInputBuffer key1 = a.getKey();
+      DataInputBuffer key2 = b.getKey();
       int s1 = key1.getPosition();
       int l1 = key1.getLength() - s1;
       int s2 = key2.getPosition();
@@ -572,6 +620,14 @@ public class TezMerger {
       if (totalBytes != 0) {
         progPerByte = 1.0f / (float)totalBytes;
       }
+
+      // In-memory segments take part in the first pass only, so only merges
+      // of on-disk segments are split into concurrent groups.
+      if (mergeThreads > 1 && inMem == 0 && factor > 1 && numSegments > factor) {
+        passNo = mergeInParallel(keyClass, valueClass, factor, tmpDir,
+            readsCounter, writesCounter, bytesReadCounter);
+        numSegments = segments.size();
+      }
       
       //create the MergeStreams from the sorted map created in the constructor
       //and dump the final output to a file
@@ -588,6 +644,8 @@ public class TezMerger {
         int segmentsConsidered = 0;
         int numSegmentsToConsider = factor;
         long startBytes = 0; // starting bytes of segments of this merge
+        // the segments of the final pass are read ahead
+        final boolean prefetch = mergeThreads > 1 && numSegments <= factor;
         while (true) {
           //extract the smallest 'factor' number of segments  
           //Call cleanup on the empty segments (no key/value data)
@@ -598,6 +656,10 @@ public class TezMerger {
             // this helps in ensuring we don't use buffers until we need them
 
             segment.init(readsCounter, bytesReadCounter);
+            if (prefetch && !segment.inMemory()) {
+              segment.reader = new PrefetchingReader(segment.reader,
+                  getPrefetchPool(), prefetchBytes);
+            }
             long startPos = segment.getPosition();
             boolean hasNext = segment.nextRawKey();
             long endPos = segment.getPosition();
@@ -732,6 +794,153 @@ public class TezMerger {
       } while(true);
     }
     
+    private ExecutorService createPool(String nameFormat) {
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(mergeThreads,
+          mergeThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat)
+              .build());
+      // the final merge is not always closed by its consumer
+      pool.allowCoreThreadTimeOut(true);
+      return pool;
+    }
+
+    private ExecutorService getPrefetchPool() {
+      if (prefetchPool == null) {
+        prefetchPool = createPool("MergePrefetcher #%d");
+      }
+      return prefetchPool;
+    }
+
+    /**
+     * Create a comparator for a concurrent merge group, or null if the
+     * comparator cannot be instantiated. The generic WritableComparator
+     * deserializes keys into shared instances and cannot be copied this way.
+     */
+    private RawComparator newComparator() {
+      if (comparator.getClass() == WritableComparator.class) {
+        return null;
+      }
+      try {
+        return ReflectionUtils.newInstance(comparator.getClass(), conf);
+      } catch (RuntimeException e) {
+        LOG.info("Unable to instantiate " + comparator.getClass().getName()
+            + " for a parallel merge", e);
+        return null;
+      }
+    }
+
+    /**
+     * Merge on-disk segments in concurrent groups of the smallest segments
+     * until at most factor segments are left. As in the sequential merge, the
+     * first group is sized so that exactly factor segments remain. Each group
+     * uses its own comparator and counters, which are not thread safe.
+     * 
+     * @return the next pass number
+     */
+    private int mergeInParallel(final Class keyClass, final Class valueClass,
+        int factor, final Path tmpDir, TezCounter readsCounter,
+        TezCounter writesCounter, TezCounter bytesReadCounter)
+        throws IOException {
+      int passNo = 1;
+      if (newComparator() == null) {
+        return passNo;
+      }
+      ExecutorService pool = createPool("ParallelMerger #%d");
+      try {
+        while (segments.size() > factor) {
+          final int n = segments.size();
+          final int needed = (n - factor + factor - 2) / (factor - 1);
+          final int groups = Math.min(needed, n / factor);
+          LOG.info("Merging " + n + " segments in " + groups
+              + " concurrent groups");
+          List<Future<GroupMergeResult>> futures =
+              new ArrayList<Future<GroupMergeResult>>(groups);
+          for (int g = 0; g < groups; ++g) {
+            int groupSize = factor;
+            if (groups == needed && g == 0) {
+              groupSize = (n - factor) - (needed - 1) * (factor - 1) + 1;
+            }
+            List<Segment> group = getSegmentDescriptors(groupSize);
+            for (Segment s : group) {
+              totalBytesProcessed += s.getLength();
+            }
+            futures.add(pool.submit(new GroupMerge(group, newComparator(),
+                keyClass, valueClass, tmpDir, passNo++)));
+          }
+          for (Future<GroupMergeResult> future : futures) {
+            GroupMergeResult result;
+            try {
+              result = future.get();
+            } catch (InterruptedException e) {
+              throw new IOException("Interrupted during a parallel merge", e);
+            } catch (ExecutionException e) {
+              throw new IOException("Parallel merge failed", e.getCause());
+            }
+            result.addTo(readsCounter, writesCounter, bytesReadCounter);
+            int pos = Collections.binarySearch(segments, result.segment,
+                segmentComparator);
+            if (pos < 0) {
+              pos = -pos-1;
+            }
+            segments.add(pos, result.segment);
+          }
+          mergeProgress.set(totalBytesProcessed * progPerByte);
+        }
+      } finally {
+        pool.shutdown();
+      }
+      return passNo;
+    }
+
+    private class GroupMerge implements Callable<GroupMergeResult> {
+      private final List<Segment> group;
+      private final RawComparator groupComparator;
+      private final Class keyClass;
+      private final Class valueClass;
+      private final Path tmpDir;
+      private final int passNo;
+
+      GroupMerge(List<Segment> group, RawComparator groupComparator,
+          Class keyClass, Class valueClass, Path tmpDir, int passNo) {
+        this.group = group;
+        this.groupComparator = groupComparator;
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.tmpDir = tmpDir;
+        this.passNo = passNo;
+      }
+
+      @Override
+      public GroupMergeResult call() throws IOException {
+        GroupMergeResult result = new GroupMergeResult();
+        long approxOutputSize = 0;
+        for (Segment s : group) {
+          approxOutputSize += s.getLength() +
+              ChecksumFileSystem.getApproxChkSumLength(s.getLength());
+        }
+        MergeQueue<K, V> queue = new MergeQueue<K, V>(conf, fs, group,
+            groupComparator, reporter, false, codec, false);
+        queue.mergeThreads = 1;
+        TezRawKeyValueIterator iter = queue.merge(keyClass, valueClass,
+            group.size(), tmpDir, result.reads, result.writes,
+            result.bytesRead, null);
+
+        Path tmpFilename =
+          new Path(tmpDir, "intermediate").suffix("." + passNo);
+        Path outputFile = lDirAlloc.getLocalPathForWrite(
+            tmpFilename.toString(), approxOutputSize, conf);
+        Writer writer = new Writer(conf, fs, outputFile, keyClass, valueClass,
+            codec, result.writes, null);
+        writeFile(iter, writer, reporter, recordsBeforeProgress);
+        writer.close();
+        iter.close();
+
+        result.segment = new Segment(conf, fs, outputFile, codec,
+            ifileReadAhead, ifileReadAheadLength, ifileBufferSize, false);
+        return result;
+      }
+    }
+
     /**
      * Determine the number of segments to merge in a given pass. Assuming more
      * than factor segments, the first pass should attempt to bring the total
@@ -824,6 +1033,179 @@ public class TezMerger {
 
   }
   
+  private static class GroupMergeResult {
+    final TezCounter reads = new GenericCounter("reads", "reads");
+    final TezCounter writes = new GenericCounter("writes", "writes");
+    final TezCounter bytesRead = new GenericCounter("bytesRead", "bytesRead");
+    Segment segment;
+
+    void addTo(TezCounter readsCounter, TezCounter writesCounter,
+        TezCounter bytesReadCounter) {
+      if (readsCounter != null) {
+        readsCounter.increment(reads.getValue());
+      }
+      if (writesCounter != null) {
+        writesCounter.increment(writes.getValue());
+      }
+      if (bytesReadCounter != null) {
+        bytesReadCounter.increment(bytesRead.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reads an on-disk segment ahead of the merge. Blocks of records are read,
+   * decompressed and copied into batches on a background thread, at most one
+   * batch ahead of the batch being merged. The records of a batch remain
+   * valid until the batch after the next one is taken, which covers the
+   * record last returned to the consumer. The underlying reader is only
+   * closed by the merge thread, which keeps its counters single threaded.
+   */
+  static class PrefetchingReader extends Reader {
+    private final Reader reader;
+    private final ExecutorService pool;
+    private final int batchBytes;
+    private final long startPosition;
+    private final long length;
+
+    private Future<RecordBatch> pendingBatch;
+    private RecordBatch current;
+    private RecordBatch previous;
+    private int nextRecord = 0;
+
+    PrefetchingReader(Reader reader, ExecutorService pool, int batchBytes)
+        throws IOException {
+      super(null, reader.fileLength, null, null, null, false, 0, -1);
+      this.reader = reader;
+      this.pool = pool;
+      this.batchBytes = batchBytes;
+      this.startPosition = reader.getPosition();
+      this.length = reader.getLength();
+      fill(new RecordBatch());
+    }
+
+    private void fill(final RecordBatch batch) {
+      pendingBatch = pool.submit(new Callable<RecordBatch>() {
+        @Override
+        public RecordBatch call() throws IOException {
+          batch.fill(reader, batchBytes);
+          return batch;
+        }
+      });
+    }
+
+    private boolean advance() throws IOException {
+      if (pendingBatch == null) {
+        return false;
+      }
+      RecordBatch filled;
+      try {
+        filled = pendingBatch.get();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted while reading ahead", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Read ahead failed", e.getCause());
+      } finally {
+        pendingBatch = null;
+      }
+      RecordBatch recycled = previous;
+      previous = current;
+      current = filled;
+      nextRecord = 0;
+      if (!filled.eof) {
+        fill(recycled != null ? recycled : new RecordBatch());
+      }
+      return current.numRecords > 0;
+    }
+
+    @Override
+    public boolean nextRawKey(DataInputBuffer key) throws IOException {
+      if (current == null || nextRecord == current.numRecords) {
+        if (!advance()) {
+          return false;
+        }
+      }
+      int[] r = current.records;
+      int i = nextRecord * 4;
+      key.reset(current.data.getData(), r[i], r[i + 1]);
+      return true;
+    }
+
+    @Override
+    public void nextRawValue(DataInputBuffer value) throws IOException {
+      int[] r = current.records;
+      int i = nextRecord * 4;
+      value.reset(current.data.getData(), r[i + 2], r[i + 3]);
+      ++nextRecord;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+      return current == null ? startPosition : current.endPosition;
+    }
+
+    @Override
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (pendingBatch != null) {
+        try {
+          pendingBatch.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while reading ahead", e);
+        } catch (ExecutionException e) {
+          // the reader is closed regardless
+        }
+        pendingBatch = null;
+      }
+      current = null;
+      previous = null;
+      reader.close();
+    }
+  }
+
+  private static class RecordBatch {
+    final DataOutputBuffer data = new DataOutputBuffer();
+    final DataInputBuffer key = new DataInputBuffer();
+    final DataInputBuffer value = new DataInputBuffer();
+    // keyStart, keyLength, valueStart, valueLength of each record
+    int[] records = new int[4 * 1024];
+    int numRecords;
+    long endPosition;
+    boolean eof;
+
+    void fill(Reader reader, int batchBytes) throws IOException {
+      data.reset();
+      numRecords = 0;
+      while (data.getLength() < batchBytes) {
+        if (!reader.nextRawKey(key)) {
+          eof = true;
+          break;
+        }
+        reader.nextRawValue(value);
+        if (records.length < (numRecords + 1) * 4) {
+          int[] grown = new int[records.length * 2];
+          System.arraycopy(records, 0, grown, 0, records.length);
+          records = grown;
+        }
+        int i = numRecords * 4;
+        int keyLength = key.getLength() - key.getPosition();
+        records[i] = data.getLength();
+        records[i + 1] = keyLength;
+        data.write(key.getData(), key.getPosition(), keyLength);
+        int valueLength = value.getLength() - value.getPosition();
+        records[i + 2] = data.getLength();
+        records[i + 3] = valueLength;
+        data.write(value.getData(), value.getPosition(), valueLength);
+        ++numRecords;
+      }
+      endPosition = reader.getPosition();
+    }
+  }
+
   private static class EmptyIterator implements TezRawKeyValueIterator {
     final Progress progress;
 
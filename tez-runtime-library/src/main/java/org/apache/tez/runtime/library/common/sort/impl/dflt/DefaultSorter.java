@@ -26,6 +26,12 @@ import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -35,12 +41,17 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezUtils;
+import org.apache.tez.common.counters.GenericCounter;
+import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.runtime.api.TezOutputContext;
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
@@ -52,6 +63,8 @@ import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
 import org.apache.tez.runtime.library.common.sort.impl.TezMerger.Segment;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class DefaultSorter extends ExternalSorter implements IndexedSortable {
   
@@ -85,11 +98,38 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
 
   protected static final int VALSTART = 0;         // val offset in acct
   protected static final int KEYSTART = 1;         // key offset in acct
-  protected static final int PARTITION = 2;        // partition offset in acct
+  protected static final int PARTITION = 2;        // partition (and key prefix) offset in acct
   protected static final int VALLEN = 3;           // length of value
   protected static final int NMETA = 4;            // num meta ints
   protected static final int METASIZE = NMETA * 4; // size in bytes
 
+  // when normalized key prefixes are in use, the partition is kept in the
+  // top partitionBits of the PARTITION int and the key prefix in the rest
+  private final int partitionBits;
+
+  // partition first sorting: counting pass on the partition, then one sort
+  // per partition, optionally on a thread pool
+  private final boolean partitionFirstSort;
+  private final ExecutorService partitionSortPool;
+  // key comparators are not thread safe, so each pool thread has its own
+  private final ThreadLocal<RawComparator> partitionComparator;
+  // buckets smaller than this are not worth handing to the pool
+  private static final int MIN_PARALLEL_PARTITION_SORT = 1024;
+
+  // concurrent spills: the partitions of a spill are serialized into memory
+  // on spillPool and written to the spill file in order. Up to
+  // spillBufferLimit bytes of them are in flight, which are set aside from
+  // the sort memory; larger partitions are written directly. The end of the
+  // spill file is written by spillFileWriter while the next spill is sorted,
+  // its buffers counting towards the limit until written
+  private final ExecutorService spillPool;
+  private final ExecutorService spillFileWriter;
+  private final int spillBufferLimit;
+  private volatile Future<?> pendingSpillWrite;
+  private final AtomicLong pendingSpillBytes = new AtomicLong();
+  // serialized record lengths, approximately
+  private static final int APPROX_RECORD_OVERHEAD = 10;
+
   // spill accounting
   final int maxRec;
   final int softLimit;
@@ -131,8 +171,66 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
     indexCacheMemoryLimit = this.conf.getInt(TezJobConfig.TEZ_RUNTIME_INDEX_CACHE_MEMORY_LIMIT_BYTES,
                                        TezJobConfig.DEFAULT_TEZ_RUNTIME_INDEX_CACHE_MEMORY_LIMIT_BYTES);
 
+    // one spare bit keeps the packed partition non-negative
+    partitionBits = (Integer.SIZE - Integer.numberOfLeadingZeros(partitions)) + 1;
+
+    partitionFirstSort = this.conf.getBoolean(
+        TezJobConfig.TEZ_RUNTIME_SORT_PARTITION_FIRST,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SORT_PARTITION_FIRST);
+    final int partitionSortThreads = this.conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_SORT_PARTITION_FIRST_THREADS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SORT_PARTITION_FIRST_THREADS);
+    if (partitionFirstSort && partitionSortThreads > 1
+        && newPartitionComparator() != null) {
+      partitionSortPool = Executors.newFixedThreadPool(partitionSortThreads,
+          new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("PartitionSorter [" + TezUtils.cleanVertexName(
+              outputContext.getDestinationVertexName()) + "] #%d")
+          .build());
+      partitionComparator = new ThreadLocal<RawComparator>() {
+        @Override
+        protected RawComparator initialValue() {
+          return newPartitionComparator();
+        }
+      };
+    } else {
+      partitionSortPool = null;
+      partitionComparator = null;
+    }
+
+    final int spillThreads = this.conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_SORT_SPILL_THREADS,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SORT_SPILL_THREADS);
+    if (spillThreads > 1) {
+      final String vertexName = TezUtils.cleanVertexName(
+          outputContext.getDestinationVertexName());
+      spillPool = Executors.newFixedThreadPool(spillThreads,
+          new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("SpillWriter [" + vertexName + "] #%d").build());
+      spillFileWriter = Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("SpillFileWriter [" + vertexName + "]").build());
+    } else {
+      spillPool = null;
+      spillFileWriter = null;
+    }
+
     // buffers and accounting
     int maxMemUsage = sortmb << 20;
+    if (spillPool != null) {
+      final float spillBufferPercent = this.conf.getFloat(
+          TezJobConfig.TEZ_RUNTIME_SORT_SPILL_BUFFER_PERCENT,
+          TezJobConfig.DEFAULT_TEZ_RUNTIME_SORT_SPILL_BUFFER_PERCENT);
+      if (spillBufferPercent >= (float) 1.0 || spillBufferPercent <= (float) 0.0) {
+        throw new IOException("Invalid \""
+            + TezJobConfig.TEZ_RUNTIME_SORT_SPILL_BUFFER_PERCENT + "\": "
+            + spillBufferPercent);
+      }
+      spillBufferLimit = (int) (maxMemUsage * spillBufferPercent);
+      maxMemUsage -= spillBufferLimit;
+    } else {
+      spillBufferLimit = 0;
+    }
     maxMemUsage -= maxMemUsage % METASIZE;
     kvbuffer = new byte[maxMemUsage];
     bufvoid = kvbuffer.length;
@@ -298,7 +396,13 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
           distanceTo(keystart, valend, bufvoid));
 
       // write accounting info
-      kvmeta.put(kvindex + PARTITION, partition);
+      if (keyPrefix == null) {
+        kvmeta.put(kvindex + PARTITION, partition);
+      } else {
+        final int prefix = keyPrefix.getPrefix(kvbuffer, keystart, valstart - keystart);
+        kvmeta.put(kvindex + PARTITION,
+            (partition << (32 - partitionBits)) | (prefix >>> partitionBits));
+      }
       kvmeta.put(kvindex + KEYSTART, keystart);
       kvmeta.put(kvindex + VALSTART, valstart);
       kvmeta.put(kvindex + VALLEN, distanceTo(valstart, valend));
@@ -375,22 +479,34 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
     
   }
 
+  /**
+   * Returns the partition of the record at the given kvmeta offset.
+   */
+  int partitionFor(int kvoff) {
+    final int partition = kvmeta.get(kvoff + PARTITION);
+    return keyPrefix == null ? partition : partition >>> (32 - partitionBits);
+  }
+
   /**
    * Compare logical range, st i, j MOD offset capacity.
-   * Compare by partition, then by key.
+   * Compare by partition (and normalized key prefix, if any), then by key.
    * @see IndexedSortable#compare
    */
   public int compare(final int mi, final int mj) {
+    return compare(mi, mj, comparator);
+  }
+
+  private int compare(final int mi, final int mj, final RawComparator cmp) {
     final int kvi = offsetFor(mi);
     final int kvj = offsetFor(mj);
     final int kvip = kvmeta.get(kvi + PARTITION);
     final int kvjp = kvmeta.get(kvj + PARTITION);
-    // sort by partition
+    // sort by partition, then key prefix. Both are non-negative.
     if (kvip != kvjp) {
       return kvip - kvjp;
     }
     // sort by key
-    return comparator.compare(kvbuffer,
+    return cmp.compare(kvbuffer,
         kvmeta.get(kvi + KEYSTART),
         kvmeta.get(kvi + VALSTART) - kvmeta.get(kvi + KEYSTART),
         kvbuffer,
@@ -404,11 +520,121 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
    * @see IndexedSortable#swap
    */
   public void swap(final int mi, final int mj) {
+    swap(mi, mj, META_BUFFER_TMP);
+  }
+
+  private void swap(final int mi, final int mj, final byte[] tmp) {
     int iOff = (mi % maxRec) * METASIZE;
     int jOff = (mj % maxRec) * METASIZE;
-    System.arraycopy(kvbuffer, iOff, META_BUFFER_TMP, 0, METASIZE);
+    System.arraycopy(kvbuffer, iOff, tmp, 0, METASIZE);
     System.arraycopy(kvbuffer, jOff, kvbuffer, iOff, METASIZE);
-    System.arraycopy(META_BUFFER_TMP, 0, kvbuffer, jOff, METASIZE);
+    System.arraycopy(tmp, 0, kvbuffer, jOff, METASIZE);
+  }
+
+  /**
+   * Create a key comparator for a partition sort thread, or null if the
+   * comparator cannot be instantiated. The generic WritableComparator
+   * deserializes keys into shared instances and cannot be copied this way.
+   */
+  private RawComparator newPartitionComparator() {
+    if (comparator.getClass() == WritableComparator.class) {
+      return null;
+    }
+    try {
+      return ReflectionUtils.newInstance(comparator.getClass(), conf);
+    } catch (RuntimeException e) {
+      LOG.info("Unable to instantiate " + comparator.getClass().getName()
+          + " for concurrent partition sorts", e);
+      return null;
+    }
+  }
+
+  /**
+   * View of a single partition of the records being spilled, with its own
+   * swap buffer so that partitions can be sorted concurrently. Sorts run on
+   * the partition sort pool use the comparator of the pool thread.
+   */
+  private class PartitionSortable implements IndexedSortable, Callable<Void> {
+    private final byte[] metaTmp = new byte[METASIZE];
+    private final int start;
+    private final int end;
+    private final boolean pooled;
+    private RawComparator cmp;
+
+    PartitionSortable(int start, int end, boolean pooled) {
+      this.start = start;
+      this.end = end;
+      this.pooled = pooled;
+    }
+
+    @Override
+    public int compare(int mi, int mj) {
+      return DefaultSorter.this.compare(mi, mj, cmp);
+    }
+
+    @Override
+    public void swap(int mi, int mj) {
+      DefaultSorter.this.swap(mi, mj, metaTmp);
+    }
+
+    @Override
+    public Void call() {
+      cmp = pooled ? partitionComparator.get() : comparator;
+      sorter.sort(this, start, end, nullProgressable);
+      return null;
+    }
+  }
+
+  /**
+   * Sort the records in [mstart, mend) by grouping them per partition with
+   * an in-place counting pass (American flag sort on the partition), followed
+   * by an independent sort of each partition.
+   */
+  private void sortPartitionFirst(final int mstart, final int mend)
+      throws IOException, InterruptedException {
+    final int[] bucketStart = new int[partitions + 1];
+    for (int i = mstart; i < mend; ++i) {
+      ++bucketStart[partitionFor(offsetFor(i)) + 1];
+    }
+    bucketStart[0] = mstart;
+    for (int p = 0; p < partitions; ++p) {
+      bucketStart[p + 1] += bucketStart[p];
+    }
+    final int[] next = new int[partitions];
+    System.arraycopy(bucketStart, 0, next, 0, partitions);
+    for (int p = 0; p < partitions; ++p) {
+      final int bucketEnd = bucketStart[p + 1];
+      while (next[p] < bucketEnd) {
+        final int q = partitionFor(offsetFor(next[p]));
+        if (q == p) {
+          ++next[p];
+        } else {
+          swap(next[p], next[q]);
+          ++next[q];
+        }
+      }
+    }
+
+    List<Future<Void>> pending = new ArrayList<Future<Void>>();
+    for (int p = 0; p < partitions; ++p) {
+      final int size = bucketStart[p + 1] - bucketStart[p];
+      if (size < 2) {
+        continue;
+      }
+      if (partitionSortPool != null && size >= MIN_PARALLEL_PARTITION_SORT) {
+        pending.add(partitionSortPool.submit(
+            new PartitionSortable(bucketStart[p], bucketStart[p + 1], true)));
+      } else {
+        new PartitionSortable(bucketStart[p], bucketStart[p + 1], false).call();
+      }
+    }
+    try {
+      for (Future<Void> f : pending) {
+        f.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("Partition sort failed", e.getCause());
+    }
   }
 
   /**
@@ -627,6 +853,14 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
     } catch (InterruptedException e) {
       throw new IOException("Spill failed", e);
     }
+    if (partitionSortPool != null) {
+      partitionSortPool.shutdown();
+    }
+    if (spillPool != null) {
+      waitForPendingSpillWrite();
+      spillPool.shutdown();
+      spillFileWriter.shutdown();
+    }
     // release sort buffer before the merge
     //FIXME
     //kvbuffer = null;
@@ -636,7 +870,16 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
   }
 
   @Override
-  public void close() throws IOException { }
+  public void close() throws IOException {
+    // flush() is skipped when the task fails
+    if (partitionSortPool != null) {
+      partitionSortPool.shutdownNow();
+    }
+    if (spillPool != null) {
+      spillPool.shutdownNow();
+      spillFileWriter.shutdownNow();
+    }
+  }
 
   protected class SpillThread extends Thread {
 
@@ -719,12 +962,20 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
       throws IOException, InterruptedException {
     final int mstart = getMetaStart();
     final int mend = getMetaEnd();
-    sorter.sort(this, mstart, mend, nullProgressable);
+    if (partitionFirstSort) {
+      sortPartitionFirst(mstart, mend);
+    } else {
+      sorter.sort(this, mstart, mend, nullProgressable);
+    }
     spill(mstart, mend);
   }
 
   protected void spill(int mstart, int mend)
       throws IOException, InterruptedException {
+    if (spillPool != null) {
+      spillConcurrently(mstart, mend);
+      return;
+    }
 
     //approximate the length of the output file to be the length of the
     //buffer + header lengths for the partitions
@@ -752,7 +1003,7 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
             // spill directly
             DataInputBuffer key = new DataInputBuffer();
             while (spindex < mend &&
-                kvmeta.get(offsetFor(spindex) + PARTITION) == i) {
+                partitionFor(offsetFor(spindex)) == i) {
               final int kvoff = offsetFor(spindex);
               int keystart = kvmeta.get(kvoff + KEYSTART);
               int valstart = kvmeta.get(kvoff + VALSTART);
@@ -764,8 +1015,7 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
           } else {
             int spstart = spindex;
             while (spindex < mend &&
-                kvmeta.get(offsetFor(spindex)
-                          + PARTITION) == i) {
+                partitionFor(offsetFor(spindex)) == i) {
               ++spindex;
             }
             // Note: we would like to avoid the combiner if we've fewer
@@ -823,6 +1073,280 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
     }
   }
 
+  /**
+   * The IFile segment of one partition of a spill, serialized (and
+   * compressed) into memory by a spill worker.
+   */
+  private static class PartitionSpill {
+    final DataOutputBuffer data;
+    final long rawLength;
+    final long compressedLength;
+    final long records;
+
+    PartitionSpill(DataOutputBuffer data, long rawLength,
+        long compressedLength, long records) {
+      this.data = data;
+      this.rawLength = rawLength;
+      this.compressedLength = compressedLength;
+      this.records = records;
+    }
+  }
+
+  /**
+   * Combines and serializes the records [start, end) of a single partition.
+   */
+  private class PartitionSpillTask implements Callable<PartitionSpill> {
+    private final int start;
+    private final int end;
+    private final int valBufvoid;
+
+    PartitionSpillTask(int start, int end, int valBufvoid) {
+      this.start = start;
+      this.end = end;
+      this.valBufvoid = valBufvoid;
+    }
+
+    @Override
+    public PartitionSpill call() throws IOException {
+      // grown as written, compressed output is far smaller than the records
+      final DataOutputBuffer buffer = new DataOutputBuffer();
+      // counters are not thread safe, they are updated by the file writer
+      final TezCounter records = new GenericCounter("records", "records");
+      final Writer writer =
+          write(new FSDataOutputStream(buffer, null), records);
+      return new PartitionSpill(buffer, writer.getRawLength(),
+          writer.getCompressedLength(), records.getValue());
+    }
+
+    /**
+     * Write the records as an IFile segment to the stream.
+     */
+    Writer write(FSDataOutputStream out, TezCounter records)
+        throws IOException {
+      Writer writer = new Writer(conf, out, keyClass, valClass, codec, records, null);
+      if (combiner == null) {
+        final DataInputBuffer key = new DataInputBuffer();
+        final InMemValBytes value = new InMemValBytes(valBufvoid);
+        for (int spindex = start; spindex < end; ++spindex) {
+          final int kvoff = offsetFor(spindex);
+          int keystart = kvmeta.get(kvoff + KEYSTART);
+          int valstart = kvmeta.get(kvoff + VALSTART);
+          key.reset(kvbuffer, keystart, valstart - keystart);
+          value.reset(kvbuffer, valstart, getInMemVBytesLength(kvoff));
+          writer.append(key, value);
+        }
+      } else if (start != end) {
+        // neither the combiner nor the task counters it updates are thread
+        // safe, so partitions are combined one at a time
+        synchronized (combiner) {
+          runCombineProcessor(new MRResultIterator(start, end), writer);
+        }
+      }
+      writer.close();
+      return writer;
+    }
+  }
+
+  /**
+   * Serialize the partitions of a spill concurrently, and write them to the
+   * spill file in partition order as they complete. A serialized partition
+   * is only held in memory until it is written, and partitions are started
+   * only while the estimated size of those in flight, and of those still
+   * held by the previous spill's write, fits in spillBufferLimit, which is
+   * set aside from the sort memory. A partition estimated larger than that
+   * is written directly to the spill file instead. Once every partition is
+   * serialized the sort buffer is no longer referenced, and the rest of the
+   * spill file is written asynchronously while the next spill is sorted. At
+   * most one spill file write is outstanding.
+   */
+  private void spillConcurrently(int mstart, int mend)
+      throws IOException, InterruptedException {
+    final int valBufvoid = bufvoid;
+    final int[] partitionStart = new int[partitions + 1];
+    final long[] sizeEstimate = new long[partitions];
+    long size = 0;
+    int spindex = mstart;
+    for (int i = 0; i < partitions; ++i) {
+      partitionStart[i] = spindex;
+      sizeEstimate[i] = APPROX_HEADER_LENGTH;
+      while (spindex < mend && partitionFor(offsetFor(spindex)) == i) {
+        final int kvoff = offsetFor(spindex);
+        sizeEstimate[i] += kvmeta.get(kvoff + VALSTART)
+            - kvmeta.get(kvoff + KEYSTART) + getInMemVBytesLength(kvoff)
+            + APPROX_RECORD_OVERHEAD;
+        ++spindex;
+      }
+      size += sizeEstimate[i];
+    }
+    partitionStart[partitions] = spindex;
+
+    final int spillNumber = numSpills;
+    final List<Future<PartitionSpill>> futures =
+        new ArrayList<Future<PartitionSpill>>(partitions);
+    final TezSpillRecord spillRec = new TezSpillRecord(partitions);
+    final FSDataOutputStream out =
+        rfs.create(mapOutputFile.getSpillFileForWrite(spillNumber, size));
+    boolean handedOff = false;
+    try {
+      long inFlight = 0;
+      int written = 0;
+      for (int i = 0; i < partitions; ++i) {
+        final boolean direct = sizeEstimate[i] > spillBufferLimit;
+        // write out completed partitions until the next one fits, or all of
+        // them before one which is written directly
+        while (written < i && (direct || inFlight + pendingSpillBytes.get()
+            + sizeEstimate[i] > spillBufferLimit)) {
+          final PartitionSpill partitionSpill =
+              getPartitionSpill(futures.get(written), spillNumber);
+          futures.set(written, null);
+          // the previous spill updates the same counters and index cache
+          waitForPendingSpillWrite();
+          writePartition(out, spillRec, spillNumber, written, partitionSpill);
+          inFlight -= sizeEstimate[written];
+          ++written;
+        }
+        if (direct || pendingSpillBytes.get() + sizeEstimate[i]
+            > spillBufferLimit) {
+          waitForPendingSpillWrite();
+        }
+        final PartitionSpillTask task = new PartitionSpillTask(
+            partitionStart[i], partitionStart[i + 1], valBufvoid);
+        if (direct) {
+          writePartitionDirectly(out, spillRec, spillNumber, i, task);
+          futures.add(null);
+          ++written;
+        } else {
+          futures.add(spillPool.submit(task));
+          inFlight += sizeEstimate[i];
+        }
+      }
+      final List<PartitionSpill> remaining =
+          new ArrayList<PartitionSpill>(partitions - written);
+      for (int i = written; i < partitions; ++i) {
+        remaining.add(getPartitionSpill(futures.get(i), spillNumber));
+        futures.set(i, null);
+      }
+      waitForPendingSpillWrite();
+      final int firstRemaining = written;
+      for (PartitionSpill partitionSpill : remaining) {
+        pendingSpillBytes.addAndGet(partitionSpill.data.getData().length);
+      }
+      pendingSpillWrite = spillFileWriter.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          try {
+            for (int i = 0; i < remaining.size(); ++i) {
+              final PartitionSpill partitionSpill = remaining.set(i, null);
+              writePartition(out, spillRec, spillNumber, firstRemaining + i,
+                  partitionSpill);
+              pendingSpillBytes.addAndGet(
+                  -partitionSpill.data.getData().length);
+            }
+          } finally {
+            out.close();
+          }
+          finishSpill(spillNumber, spillRec);
+          return null;
+        }
+      });
+      handedOff = true;
+      ++numSpills;
+    } finally {
+      if (!handedOff) {
+        for (Future<PartitionSpill> future : futures) {
+          if (future != null) {
+            future.cancel(true);
+          }
+        }
+        out.close();
+      }
+    }
+  }
+
+  private static PartitionSpill getPartitionSpill(
+      Future<PartitionSpill> future, int spillNumber)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Spill " + spillNumber + " failed", e.getCause());
+    }
+  }
+
+  private void writePartition(FSDataOutputStream out, TezSpillRecord spillRec,
+      int spillNumber, int partition, PartitionSpill partitionSpill)
+      throws IOException {
+    long segmentStart = out.getPos();
+    out.write(partitionSpill.data.getData(), 0, partitionSpill.data.getLength());
+    spilledRecordsCounter.increment(partitionSpill.records);
+    partitionWritten(spillRec, spillNumber, partition, segmentStart,
+        partitionSpill.rawLength, partitionSpill.compressedLength);
+  }
+
+  /**
+   * Write a partition too large to be held in memory straight to the spill
+   * file, on the calling thread.
+   */
+  private void writePartitionDirectly(FSDataOutputStream out,
+      TezSpillRecord spillRec, int spillNumber, int partition,
+      PartitionSpillTask task) throws IOException {
+    long segmentStart = out.getPos();
+    Writer writer = task.write(out, spilledRecordsCounter);
+    partitionWritten(spillRec, spillNumber, partition, segmentStart,
+        writer.getRawLength(), writer.getCompressedLength());
+  }
+
+  private void partitionWritten(TezSpillRecord spillRec, int spillNumber,
+      int partition, long segmentStart, long rawLength,
+      long compressedLength) {
+    if (spillNumber > 0) {
+      additionalSpillBytesWritten.increment(compressedLength);
+      numAdditionalSpills.increment(1);
+      // Reset the value will be set during the final merge.
+      outputBytesWithOverheadCounter.setValue(0);
+    } else {
+      outputBytesWithOverheadCounter.increment(rawLength);
+    }
+    spillRec.putIndex(new TezIndexRecord(segmentStart, rawLength,
+        compressedLength), partition);
+  }
+
+  private void finishSpill(int spillNumber, TezSpillRecord spillRec)
+      throws IOException {
+    if (totalIndexCacheMemory >= indexCacheMemoryLimit) {
+      // create spill index file
+      Path indexFilename =
+          mapOutputFile.getSpillIndexFileForWrite(spillNumber, partitions
+              * MAP_OUTPUT_INDEX_RECORD_LENGTH);
+      spillRec.writeToFile(indexFilename, conf);
+    } else {
+      indexCacheList.add(spillRec);
+      totalIndexCacheMemory +=
+        spillRec.size() * MAP_OUTPUT_INDEX_RECORD_LENGTH;
+    }
+    LOG.info("Finished spill " + spillNumber);
+  }
+
+  /**
+   * Wait for the outstanding asynchronous spill file write, if any.
+   */
+  private void waitForPendingSpillWrite() throws IOException {
+    final Future<?> pending = pendingSpillWrite;
+    if (pending == null) {
+      return;
+    }
+    try {
+      pending.get();
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while waiting for a spill write", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Spill failed", e.getCause());
+    } finally {
+      pendingSpillWrite = null;
+      pendingSpillBytes.set(0);
+    }
+  }
+
   /**
    * Handles the degenerate case where serialization fails to fit in
    * the in-memory buffer, so we must spill the record from collect
@@ -830,6 +1354,8 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
    */
   private void spillSingleRecord(final Object key, final Object value,
                                  int partition) throws IOException {
+    // spill indices are cached in spill order
+    waitForPendingSpillWrite();
     long size = kvbuffer.length + partitions * APPROX_HEADER_LENGTH;
     FSDataOutputStream out = null;
     try {
@@ -0,0 +1,394 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.writers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.api.TezOutputContext;
+import org.apache.tez.runtime.library.common.Constants;
+import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
+import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
+import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
+
+/**
+ * Partitions key/value pairs without sorting them.
+ *
+ * Records are serialized into a single buffer and chained into a list per
+ * partition; the chains grow down from the end of the buffer while the data
+ * grows up from the start. A spill walks each chain in turn, so records of a
+ * partition keep the order in which they were written. Spills use the IFile
+ * and {@link TezSpillRecord} layout of the sorted outputs, and are combined
+ * by copying each partition of every spill, in spill order, into the final
+ * output. No key comparator or combiner is used.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class UnorderedPartitionedKVWriter extends ExternalSorter {
+
+  private static final Log LOG = LogFactory.getLog(UnorderedPartitionedKVWriter.class);
+
+  private static final int APPROX_HEADER_LENGTH = 150;
+
+  // record metadata, indexed from the end of the buffer
+  private static final int KEYSTART = 0;
+  private static final int VALSTART = 1;
+  private static final int VALEND = 2;
+  private static final int NEXT = 3;
+  private static final int NMETA = 4;
+  private static final int METASIZE = NMETA * 4;
+
+  private byte[] kvbuffer;
+  private IntBuffer kvmeta;
+  private final RecordBuffer bb = new RecordBuffer();
+  private int bufpos = 0;
+  private int numRecords = 0;
+  // first and last record of each partition, -1 if none
+  private final int[] partitionHead;
+  private final int[] partitionTail;
+
+  private int numSpills = 0;
+  private final int indexCacheMemoryLimit;
+  private final List<TezSpillRecord> indexCacheList = new ArrayList<TezSpillRecord>();
+  private int totalIndexCacheMemory = 0;
+
+  public UnorderedPartitionedKVWriter(TezOutputContext outputContext,
+      Configuration conf, int numOutputs, long initialMemoryAvailable)
+      throws IOException {
+    super(outputContext, conf, numOutputs, initialMemoryAvailable, false);
+
+    indexCacheMemoryLimit = this.conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_INDEX_CACHE_MEMORY_LIMIT_BYTES,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_INDEX_CACHE_MEMORY_LIMIT_BYTES);
+
+    long bufferSize = Math.min((long) availableMemoryMb << 20,
+        Integer.MAX_VALUE - 8);
+    bufferSize -= bufferSize % METASIZE;
+    kvbuffer = new byte[(int) bufferSize];
+    kvmeta = ByteBuffer.wrap(kvbuffer).asIntBuffer();
+    partitionHead = new int[partitions];
+    partitionTail = new int[partitions];
+    resetBuffer();
+
+    keySerializer.open(bb);
+    valSerializer.open(bb);
+    LOG.info("UnorderedPartitionedKVWriter: buffer size=" + bufferSize
+        + ", partitions=" + partitions);
+  }
+
+  @Override
+  public void write(Object key, Object value) throws IOException {
+    if (key.getClass() != keyClass) {
+      throw new IOException("Type mismatch in key from map: expected "
+                            + keyClass.getName() + ", received "
+                            + key.getClass().getName());
+    }
+    if (value.getClass() != valClass) {
+      throw new IOException("Type mismatch in value from map: expected "
+                            + valClass.getName() + ", received "
+                            + value.getClass().getName());
+    }
+    final int partition = partitioner.getPartition(key, value, partitions);
+    if (partition < 0 || partition >= partitions) {
+      throw new IOException("Illegal partition for " + key + " (" +
+          partition + ")" + ", TotalPartitions: " + partitions);
+    }
+    if (!collect(key, value, partition)) {
+      if (numRecords > 0) {
+        spill();
+      }
+      if (!collect(key, value, partition)) {
+        LOG.info("Record too large for in-memory buffer, spilling it alone");
+        spillSingleRecord(key, value, partition);
+      }
+    }
+    mapOutputRecordCounter.increment(1);
+  }
+
+  /**
+   * Serialize a record into the buffer.
+   *
+   * @return false if the record does not fit in the remaining space
+   */
+  private boolean collect(Object key, Object value, int partition)
+      throws IOException {
+    final int keystart = bufpos;
+    // the metadata of this record takes the next slot from the end
+    bb.limit = kvbuffer.length - (numRecords + 1) * METASIZE;
+    try {
+      keySerializer.serialize(key);
+      final int valstart = bufpos;
+      valSerializer.serialize(value);
+      final int meta = metaIndex(numRecords);
+      kvmeta.put(meta + KEYSTART, keystart);
+      kvmeta.put(meta + VALSTART, valstart);
+      kvmeta.put(meta + VALEND, bufpos);
+      kvmeta.put(meta + NEXT, -1);
+      if (partitionTail[partition] == -1) {
+        partitionHead[partition] = numRecords;
+      } else {
+        kvmeta.put(metaIndex(partitionTail[partition]) + NEXT, numRecords);
+      }
+      partitionTail[partition] = numRecords;
+      ++numRecords;
+      mapOutputByteCounter.increment(bufpos - keystart);
+      return true;
+    } catch (BufferFullException e) {
+      bufpos = keystart;
+      return false;
+    }
+  }
+
+  private int metaIndex(int record) {
+    return kvmeta.capacity() - (record + 1) * NMETA;
+  }
+
+  private void resetBuffer() {
+    bufpos = 0;
+    numRecords = 0;
+    Arrays.fill(partitionHead, -1);
+    Arrays.fill(partitionTail, -1);
+  }
+
+  private void spill() throws IOException {
+    final long size = bufpos + partitions * APPROX_HEADER_LENGTH;
+    final Path filename = mapOutputFile.getSpillFileForWrite(numSpills, size);
+    final TezSpillRecord spillRec = new TezSpillRecord(partitions);
+    final DataInputBuffer key = new DataInputBuffer();
+    final DataInputBuffer value = new DataInputBuffer();
+    FSDataOutputStream out = rfs.create(filename);
+    try {
+      for (int i = 0; i < partitions; ++i) {
+        long segmentStart = out.getPos();
+        Writer writer = new Writer(conf, out, keyClass, valClass, codec,
+            spilledRecordsCounter, null);
+        for (int r = partitionHead[i]; r != -1; r = kvmeta.get(metaIndex(r) + NEXT)) {
+          final int meta = metaIndex(r);
+          final int keystart = kvmeta.get(meta + KEYSTART);
+          final int valstart = kvmeta.get(meta + VALSTART);
+          key.reset(kvbuffer, keystart, valstart - keystart);
+          value.reset(kvbuffer, valstart, kvmeta.get(meta + VALEND) - valstart);
+          writer.append(key, value);
+        }
+        writer.close();
+        recordSegment(spillRec, i, segmentStart, writer);
+      }
+    } finally {
+      out.close();
+    }
+    LOG.info("Spilled " + numRecords + " records");
+    finishSpill(spillRec);
+    resetBuffer();
+  }
+
+  private void spillSingleRecord(Object key, Object value, int partition)
+      throws IOException {
+    final long size = partitions * APPROX_HEADER_LENGTH;
+    final Path filename = mapOutputFile.getSpillFileForWrite(numSpills, size);
+    final TezSpillRecord spillRec = new TezSpillRecord(partitions);
+    FSDataOutputStream out = rfs.create(filename);
+    try {
+      for (int i = 0; i < partitions; ++i) {
+        long segmentStart = out.getPos();
+        Writer writer = new Writer(conf, out, keyClass, valClass, codec,
+            spilledRecordsCounter, null);
+        if (i == partition) {
+          final long recordStart = out.getPos();
+          writer.append(key, value);
+          // Note that our map byte count will not be accurate with
+          // compression
+          mapOutputByteCounter.increment(out.getPos() - recordStart);
+        }
+        writer.close();
+        recordSegment(spillRec, i, segmentStart, writer);
+      }
+    } finally {
+      out.close();
+    }
+    finishSpill(spillRec);
+  }
+
+  private void recordSegment(TezSpillRecord spillRec, int partition,
+      long segmentStart, Writer writer) {
+    if (numSpills > 0) {
+      additionalSpillBytesWritten.increment(writer.getCompressedLength());
+      // Reset the value will be set during the final merge.
+      outputBytesWithOverheadCounter.setValue(0);
+    } else {
+      // Set this up for the first write only. Subsequent ones will be handled in the final merge.
+      outputBytesWithOverheadCounter.increment(writer.getRawLength());
+    }
+    spillRec.putIndex(new TezIndexRecord(segmentStart, writer.getRawLength(),
+        writer.getCompressedLength()), partition);
+  }
+
+  private void finishSpill(TezSpillRecord spillRec) throws IOException {
+    if (numSpills > 0) {
+      numAdditionalSpills.increment(1);
+    }
+    if (totalIndexCacheMemory >= indexCacheMemoryLimit) {
+      // create spill index file
+      Path indexFilename = mapOutputFile.getSpillIndexFileForWrite(numSpills,
+          partitions * Constants.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+      spillRec.writeToFile(indexFilename, conf);
+    } else {
+      indexCacheList.add(spillRec);
+      totalIndexCacheMemory +=
+          spillRec.size() * Constants.MAP_OUTPUT_INDEX_RECORD_LENGTH;
+    }
+    LOG.info("Finished spill " + numSpills);
+    ++numSpills;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    LOG.info("Starting flush of unordered output");
+    if (numRecords > 0 || numSpills == 0) {
+      spill();
+    }
+    // release the buffer before concatenating the spills
+    kvbuffer = null;
+    kvmeta = null;
+    mergeParts();
+    Path outputPath = mapOutputFile.getOutputFile();
+    fileOutputByteCounter.increment(rfs.getFileStatus(outputPath).getLen());
+  }
+
+  @Override
+  public void close() throws IOException {
+    kvbuffer = null;
+    kvmeta = null;
+  }
+
+  private void mergeParts() throws IOException {
+    final Path[] filename = new Path[numSpills];
+    long finalOutFileSize = 0;
+    for (int i = 0; i < numSpills; i++) {
+      filename[i] = mapOutputFile.getSpillFile(i);
+      finalOutFileSize += rfs.getFileStatus(filename[i]).getLen();
+    }
+    if (numSpills == 1) { //the spill is the final output
+      sameVolRename(filename[0],
+          mapOutputFile.getOutputFileForWriteInVolume(filename[0]));
+      if (indexCacheList.size() == 0) {
+        sameVolRename(mapOutputFile.getSpillIndexFile(0),
+          mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]));
+      } else {
+        indexCacheList.get(0).writeToFile(
+          mapOutputFile.getOutputIndexFileForWriteInVolume(filename[0]), conf);
+      }
+      return;
+    }
+
+    // read in paged indices
+    for (int i = indexCacheList.size(); i < numSpills; ++i) {
+      Path indexFileName = mapOutputFile.getSpillIndexFile(i);
+      indexCacheList.add(new TezSpillRecord(indexFileName, conf));
+    }
+
+    Path finalOutputFile = mapOutputFile.getOutputFileForWrite(
+        finalOutFileSize + partitions * APPROX_HEADER_LENGTH);
+    Path finalIndexFile = mapOutputFile.getOutputIndexFileForWrite(
+        partitions * Constants.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+
+    final TezSpillRecord spillRec = new TezSpillRecord(partitions);
+    final DataInputBuffer key = new DataInputBuffer();
+    final DataInputBuffer value = new DataInputBuffer();
+    FSDataOutputStream finalOut = rfs.create(finalOutputFile, true, 4096);
+    try {
+      for (int parts = 0; parts < partitions; parts++) {
+        long segmentStart = finalOut.getPos();
+        Writer writer = new Writer(conf, finalOut, keyClass, valClass, codec,
+            spilledRecordsCounter, null);
+        for (int i = 0; i < numSpills; i++) {
+          TezIndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
+          if (!indexRecord.hasData()) {
+            continue;
+          }
+          FSDataInputStream in = rfs.open(filename[i]);
+          in.seek(indexRecord.getStartOffset());
+          IFile.Reader reader = new IFile.Reader(in,
+              indexRecord.getPartLength(), codec, null,
+              additionalSpillBytesRead, ifileReadAhead, ifileReadAheadLength,
+              ifileBufferSize, IFile.getChecksumBlockSize(conf));
+          try {
+            while (reader.nextRawKey(key)) {
+              reader.nextRawValue(value);
+              writer.append(key, value);
+            }
+          } finally {
+            reader.close();
+          }
+        }
+        writer.close();
+        outputBytesWithOverheadCounter.increment(writer.getRawLength());
+        spillRec.putIndex(new TezIndexRecord(segmentStart,
+            writer.getRawLength(), writer.getCompressedLength()), parts);
+      }
+      spillRec.writeToFile(finalIndexFile, conf);
+    } finally {
+      finalOut.close();
+    }
+    for (int i = 0; i < numSpills; i++) {
+      rfs.delete(filename[i], true);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class BufferFullException extends IOException {
+  }
+
+  /**
+   * Appends serialized records to the buffer, up to the start of the
+   * metadata of the record being written.
+   */
+  private class RecordBuffer extends OutputStream {
+    int limit;
+    private final byte[] scratch = new byte[1];
+
+    @Override
+    public void write(int v) throws IOException {
+      scratch[0] = (byte) v;
+      write(scratch, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (bufpos + len > limit) {
+        throw new BufferFullException();
+      }
+      System.arraycopy(b, off, kvbuffer, bufpos, len);
+      bufpos += len;
+    }
+  }
+}
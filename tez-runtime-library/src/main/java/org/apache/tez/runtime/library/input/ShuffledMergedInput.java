@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezUtils;
@@ -37,8 +38,10 @@ import org.apache.tez.runtime.api.Event;
 import org.apache.tez.runtime.api.LogicalInput;
 import org.apache.tez.runtime.api.TezInputContext;
 import org.apache.tez.runtime.library.api.KeyValuesReader;
+import org.apache.tez.runtime.library.api.RawKeyValuesReader;
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.MemoryUpdateCallbackHandler;
+import org.apache.tez.runtime.library.common.RawValuesIterator;
 import org.apache.tez.runtime.library.common.ValuesIterator;
 import org.apache.tez.runtime.library.common.shuffle.impl.Shuffle;
 import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
@@ -224,6 +227,60 @@ public class ShuffledMergedInput implements LogicalInput {
     return new ShuffledMergedKeyValuesReader(valuesIter);
   }
 
+  /**
+   * Get a reader over the serialized keys and values of the Input, grouped
+   * with the raw key comparator. Nothing is deserialized. This method blocks
+   * like {@link #getReader()}.
+   *
+   * NOTE: Only one of the readers of an Input can be consumed, since they
+   * share the underlying sorted input.
+   *
+   * @return a raw KVReader over the sorted input.
+   */
+  @SuppressWarnings("rawtypes")
+  public RawKeyValuesReader getRawReader() throws IOException {
+    TezRawKeyValueIterator rawIterLocal;
+    synchronized (this) {
+      rawIterLocal = rawIter;
+      if (this.numInputs == 0) {
+        return new RawKeyValuesReader() {
+          @Override
+          public boolean next() throws IOException {
+            return false;
+          }
+
+          @Override
+          public DataInputBuffer getCurrentRawKey() throws IOException {
+            throw new RuntimeException("No data available in Input");
+          }
+
+          @Override
+          public boolean nextRawValue() throws IOException {
+            return false;
+          }
+
+          @Override
+          public DataInputBuffer getCurrentRawValue() throws IOException {
+            throw new RuntimeException("No data available in Input");
+          }
+        };
+      }
+    }
+    if (rawIterLocal == null) {
+      try {
+        waitForInputReady();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for input ready", e);
+      }
+    }
+    synchronized (this) {
+      return new RawValuesIterator(rawIter,
+          (RawComparator) ConfigUtils.getIntermediateInputKeyComparator(conf),
+          inputKeyCounter, inputValueCounter);
+    }
+  }
+
   @Override
   public void handleEvents(List<Event> inputEvents) {
     synchronized (this) {
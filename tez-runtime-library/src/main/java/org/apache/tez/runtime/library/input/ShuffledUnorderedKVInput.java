@@ -43,6 +43,7 @@ import org.apache.tez.runtime.library.api.KeyValueReader;
 import org.apache.tez.runtime.library.common.ConfigUtils;
 import org.apache.tez.runtime.library.common.MemoryUpdateCallbackHandler;
 import org.apache.tez.runtime.library.common.readers.ShuffledUnorderedKVReader;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.shuffle.common.ShuffleEventHandler;
 import org.apache.tez.runtime.library.shuffle.common.impl.ShuffleInputEventHandlerImpl;
 import org.apache.tez.runtime.library.shuffle.common.impl.ShuffleManager;
@@ -125,13 +126,14 @@ public class ShuffledUnorderedKVInput implements LogicalInput {
 
       this.inputManager = new SimpleFetchedInputAllocator(inputContext.getUniqueIdentifier(), conf,
           inputContext.getTotalMemoryAvailableToTask(),
-          memoryUpdateCallbackHandler.getMemoryAssigned());
+          memoryUpdateCallbackHandler.getMemoryAssigned(), inputContext.getCounters());
 
       this.shuffleManager = new ShuffleManager(inputContext, conf, numInputs, ifileBufferSize,
           ifileReadAhead, ifileReadAheadLength, codec, inputManager);
 
       this.inputEventHandler = new ShuffleInputEventHandlerImpl(inputContext, shuffleManager,
-          inputManager, codec, ifileReadAhead, ifileReadAheadLength);
+          inputManager, codec, ifileReadAhead, ifileReadAheadLength,
+          IFile.getChecksumBlockSize(conf));
 
       ////// End of Initial configuration
 
@@ -195,6 +197,9 @@ public class ShuffledUnorderedKVInput implements LogicalInput {
 
   @Override
   public synchronized List<Event> close() throws Exception {
+    if (this.kvReader != null) {
+      this.kvReader.close();
+    }
     if (this.shuffleManager != null) {
       this.shuffleManager.shutdown();
     }
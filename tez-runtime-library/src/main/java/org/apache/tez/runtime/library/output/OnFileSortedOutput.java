@@ -39,6 +39,11 @@ import org.apache.tez.runtime.api.events.CompositeDataMovementEvent;
 import org.apache.tez.runtime.api.events.VertexManagerEvent;
 import org.apache.tez.runtime.library.api.KeyValueWriter;
 import org.apache.tez.runtime.library.common.MemoryUpdateCallbackHandler;
+import org.apache.tez.runtime.library.common.TezRuntimeUtils;
+import org.apache.tez.runtime.library.common.combine.AdaptiveCombiner;
+import org.apache.tez.runtime.library.common.combine.Combiner;
+import org.apache.tez.runtime.library.common.combine.HashPreAggregationBuffer;
+import org.apache.tez.runtime.library.common.combine.PreAggregator;
 import org.apache.tez.runtime.library.common.sort.impl.ExternalSorter;
 import org.apache.tez.runtime.library.common.sort.impl.PipelinedSorter;
 import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
@@ -61,6 +66,8 @@ public class OnFileSortedOutput implements LogicalOutput {
   private static final Log LOG = LogFactory.getLog(OnFileSortedOutput.class);
 
   protected ExternalSorter sorter;
+  // folds records ahead of the sorter, if a pre-aggregator is configured
+  protected HashPreAggregationBuffer preAggregationBuffer;
   protected Configuration conf;
   protected int numOutputs;
   protected TezOutputContext outputContext;
@@ -68,7 +75,7 @@ public class OnFileSortedOutput implements LogicalOutput {
   private long startTime;
   private long endTime;
   private boolean sendEmptyPartitionDetails;
-  private final AtomicBoolean isStarted = new AtomicBoolean(false);
+  protected final AtomicBoolean isStarted = new AtomicBoolean(false);
 
   @Override
   public synchronized List<Event> initialize(TezOutputContext outputContext)
@@ -103,6 +110,20 @@ public class OnFileSortedOutput implements LogicalOutput {
         sorter = new DefaultSorter(outputContext, conf, numOutputs,
             memoryUpdateCallbackHandler.getMemoryAssigned());
       }
+      PreAggregator preAggregator =
+          TezRuntimeUtils.instantiatePreAggregator(conf);
+      if (preAggregator != null) {
+        // an adaptive combiner decides whether pre-aggregation pays off
+        Combiner combiner = sorter.getCombiner();
+        preAggregationBuffer = new HashPreAggregationBuffer(conf,
+            preAggregator, new KeyValueWriter() {
+              @Override
+              public void write(Object key, Object value) throws IOException {
+                sorter.write(key, value);
+              }
+            }, combiner instanceof AdaptiveCombiner ?
+                (AdaptiveCombiner) combiner : null);
+      }
       isStarted.set(true);
     }
   }
@@ -110,6 +131,9 @@ public class OnFileSortedOutput implements LogicalOutput {
   @Override
   public synchronized KeyValueWriter getWriter() throws IOException {
     Preconditions.checkState(isStarted.get(), "Cannot get writer before starting the Output");
+    if (preAggregationBuffer != null) {
+      return preAggregationBuffer;
+    }
     return new KeyValueWriter() {
       @Override
       public void write(Object key, Object value) throws IOException {
@@ -131,6 +155,9 @@ public class OnFileSortedOutput implements LogicalOutput {
   @Override
   public synchronized List<Event> close() throws IOException {
     if (sorter != null) {
+      if (preAggregationBuffer != null) {
+        preAggregationBuffer.flush();
+      }
       sorter.flush();
       sorter.close();
       this.endTime = System.nanoTime();
@@ -19,17 +19,26 @@
 package org.apache.tez.runtime.library.output;
 
 import org.apache.tez.runtime.api.LogicalOutput;
+import org.apache.tez.runtime.library.common.writers.UnorderedPartitionedKVWriter;
 
 /**
  * <code>OnFileUnorderedPartitionedKVOutput</code> is a {@link LogicalOutput}
  * which can be used to write Key-Value pairs. The key-value pairs are written
  * to the correct partition based on the configured Partitioner.
  * 
- * This currently acts as a usable placeholder for writing unordered output (the data is sorted,
- * which should be functionally correct since there's no guarantees on order without a sort).
- * TEZ-661 to add a proper implementation.
- * 
+ * The output is not sorted. Records of a partition are written in the order
+ * in which they are received, in the same file layout as
+ * {@link OnFileSortedOutput}, and are consumed with the unordered inputs.
  */
 public class OnFileUnorderedPartitionedKVOutput extends OnFileSortedOutput {
 
-}
\ No newline at end of file
+  @Override
+  public synchronized void start() throws Exception {
+    if (!isStarted.get()) {
+      memoryUpdateCallbackHandler.validateUpdateReceived();
+      sorter = new UnorderedPartitionedKVWriter(outputContext, conf, numOutputs,
+          memoryUpdateCallbackHandler.getMemoryAssigned());
+      isStarted.set(true);
+    }
+  }
+}
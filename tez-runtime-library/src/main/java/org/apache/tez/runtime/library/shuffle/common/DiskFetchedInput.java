@@ -18,15 +18,17 @@
 
 package org.apache.tez.runtime.library.shuffle.common;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.task.local.output.TezTaskOutputFiles;
@@ -37,7 +39,7 @@ public class DiskFetchedInput extends FetchedInput {
 
   private static final Log LOG = LogFactory.getLog(DiskFetchedInput.class);
   
-  private final FileSystem localFS;
+  private final LocalFileSystem localFS;
   private final Path tmpOutputPath;
   private final Path outputPath;
 
@@ -57,14 +59,22 @@ public class DiskFetchedInput extends FetchedInput {
   }
 
   @Override
-  public OutputStream getOutputStream() throws IOException {
-    return localFS.create(tmpOutputPath);
+  public FileOutputStream getOutputStream() throws IOException {
+    return ShuffleUtils.createLocalOutputFile(localFS, tmpOutputPath);
   }
 
   @Override
   public InputStream getInputStream() throws IOException {
     return localFS.open(outputPath);
   }
+
+  /**
+   * Returns the local file holding the committed data, for readers which
+   * map it.
+   */
+  public File getLocalFile() {
+    return localFS.pathToFile(outputPath);
+  }
   
   @Override
   public void commit() throws IOException {
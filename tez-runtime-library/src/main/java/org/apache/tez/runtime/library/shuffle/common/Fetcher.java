@@ -24,6 +24,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -31,6 +32,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,6 +50,7 @@ import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.security.SecureShuffleUtils;
 import org.apache.tez.runtime.library.common.shuffle.impl.ShuffleHeader;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
 import org.apache.tez.runtime.library.shuffle.common.FetchedInput.Type;
 
 import com.google.common.base.Preconditions;
@@ -70,8 +73,15 @@ public class Fetcher implements Callable<FetchResult> {
 
   private boolean ifileReadAhead = TezJobConfig.TEZ_RUNTIME_IFILE_READAHEAD_DEFAULT;
   private int ifileReadAheadLength = TezJobConfig.TEZ_RUNTIME_IFILE_READAHEAD_BYTES_DEFAULT;
+  private final int ifileChecksumBlockSize;
   
   private final SecretKey shuffleSecret;
+  private final Configuration conf;
+
+  // transfer buffers are shared by the fetchers of an input, a fetcher holds
+  // on to one for the duration of call()
+  private Queue<ByteBuffer> transferBufferPool;
+  private ByteBuffer transferBuffer;
 
   private final FetcherCallback fetcherCallback;
   private final FetchedInputAllocator inputManager;
@@ -104,6 +114,8 @@ public class Fetcher implements Callable<FetchResult> {
     this.inputManager = inputManager;
     this.shuffleSecret = shuffleSecret;
     this.appId = appId;
+    this.conf = conf;
+    this.ifileChecksumBlockSize = IFile.getChecksumBlockSize(conf);
     this.pathToAttemptMap = new HashMap<String, InputAttemptIdentifier>();
 
     this.fetcherIdentifier = fetcherIdGen.getAndIncrement();
@@ -131,6 +143,29 @@ public class Fetcher implements Callable<FetchResult> {
 
   @Override
   public FetchResult call() throws Exception {
+    try {
+      return doFetch();
+    } finally {
+      if (transferBuffer != null && transferBufferPool != null) {
+        transferBufferPool.offer(transferBuffer);
+      }
+      transferBuffer = null;
+    }
+  }
+
+  private ByteBuffer getTransferBuffer() {
+    if (transferBuffer == null) {
+      if (transferBufferPool != null) {
+        transferBuffer = transferBufferPool.poll();
+      }
+      if (transferBuffer == null) {
+        transferBuffer = ShuffleUtils.allocateTransferBuffer(conf);
+      }
+    }
+    return transferBuffer;
+  }
+
+  private FetchResult doFetch() throws Exception {
     if (srcAttempts.size() == 0) {
       return new FetchResult(host, port, partition, srcAttempts);
     }
@@ -269,10 +304,10 @@ public class Fetcher implements Callable<FetchResult> {
       if (fetchedInput.getType() == Type.MEMORY) {
         ShuffleUtils.shuffleToMemory((MemoryFetchedInput) fetchedInput,
             input, (int) decompressedLength, (int) compressedLength, codec,
-            ifileReadAhead, ifileReadAheadLength, LOG);
+            ifileReadAhead, ifileReadAheadLength, ifileChecksumBlockSize, LOG);
       } else {
         ShuffleUtils.shuffleToDisk((DiskFetchedInput) fetchedInput, input,
-            compressedLength, LOG);
+            compressedLength, getTransferBuffer(), LOG);
       }
 
       // Inform the shuffle scheduler
@@ -526,6 +561,11 @@ public class Fetcher implements Callable<FetchResult> {
       return this;
     }
 
+    public FetcherBuilder setTransferBufferPool(Queue<ByteBuffer> transferBufferPool) {
+      fetcher.transferBufferPool = transferBufferPool;
+      return this;
+    }
+
     public FetcherBuilder assignWork(String host, int port, int partition,
         List<InputAttemptIdentifier> inputs) {
       fetcher.host = host;
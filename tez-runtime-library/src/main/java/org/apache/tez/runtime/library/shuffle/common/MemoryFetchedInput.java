@@ -19,37 +19,67 @@
 package org.apache.tez.runtime.library.shuffle.common;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import org.apache.hadoop.io.BoundedByteArrayOutputStream;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 
 import com.google.common.base.Preconditions;
 
 public class MemoryFetchedInput extends FetchedInput {
 
-  private BoundedByteArrayOutputStream byteStream;
+  // may be larger than actualSize when taken from a ShuffleBufferPool
+  private byte[] buffer;
 
   public MemoryFetchedInput(long actualSize, long compressedSize,
       InputAttemptIdentifier inputAttemptIdentifier,
       FetchedInputCallback callbackHandler) {
+    this(actualSize, compressedSize, inputAttemptIdentifier, callbackHandler,
+        new byte[(int) actualSize]);
+  }
+
+  public MemoryFetchedInput(long actualSize, long compressedSize,
+      InputAttemptIdentifier inputAttemptIdentifier,
+      FetchedInputCallback callbackHandler, byte[] buffer) {
     super(Type.MEMORY, actualSize, compressedSize, inputAttemptIdentifier, callbackHandler);
-    this.byteStream = new BoundedByteArrayOutputStream((int) actualSize);
+    Preconditions.checkArgument(buffer.length >= actualSize,
+        "Buffer smaller than the input");
+    this.buffer = buffer;
   }
 
   @Override
   public OutputStream getOutputStream() {
-    return byteStream;
+    return new OutputStream() {
+      private int count = 0;
+
+      @Override
+      public void write(int b) throws EOFException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws EOFException {
+        if (count + len > actualSize) {
+          throw new EOFException("Reached the limit of the buffer");
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+      }
+    };
   }
 
   @Override
   public InputStream getInputStream() {
-    return new ByteArrayInputStream(byteStream.getBuffer());
+    return new ByteArrayInputStream(buffer, 0, (int) actualSize);
   }
 
+  /**
+   * @return the buffer holding the input, only the first actualSize bytes are
+   *         valid
+   */
   public byte[] getBytes() {
-    return byteStream.getBuffer();
+    return buffer;
   }
   
   @Override
@@ -75,8 +105,9 @@ public class MemoryFetchedInput extends FetchedInput {
         "FetchedInput can only be freed after it is committed or aborted");
     if (state == State.COMMITTED) { // ABORTED would have already called cleanup
       state = State.FREED;
-      this.byteStream = null;
+      // the allocator may take the buffer back when notified
       notifyFreedResource();
+      this.buffer = null;
     }
   }
 
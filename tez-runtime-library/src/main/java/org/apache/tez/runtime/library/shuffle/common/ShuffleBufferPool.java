@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.shuffle.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.GenericCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A pool of byte arrays backing in-memory shuffle inputs.
+ *
+ * Arrays are handed out in size classes: every power of two is split into
+ * four classes, which bounds the space lost to rounding to a quarter of the
+ * request. Released arrays are kept for reuse by later requests of the same
+ * class, as long as the arrays in use and the pooled arrays together fit in
+ * the limit of the owning allocator. A miss which would exceed the limit
+ * first evicts pooled arrays of other classes.
+ *
+ * When the pool is disabled, arrays of exactly the requested size are
+ * allocated, and released arrays are left to the garbage collector.
+ */
+@Private
+public class ShuffleBufferPool {
+
+  private static final Log LOG = LogFactory.getLog(ShuffleBufferPool.class);
+
+  public static final String SHUFFLE_BUFFER_POOL_GRP_NAME = "Shuffle Buffer Pool";
+
+  public static enum BufferPoolCounter {
+    POOL_HITS, POOL_MISSES, FRAGMENTED_BYTES
+  }
+
+  @VisibleForTesting
+  static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+  private final boolean enabled;
+  private final long maxBytes;
+
+  private final Map<Integer, LinkedList<byte[]>> pooledBuffers =
+      new HashMap<Integer, LinkedList<byte[]>>();
+  // arrays handed out and not yet released, guards against foreign arrays and
+  // double releases
+  private final Set<byte[]> allocatedBuffers =
+      Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+  private long pooledBytes = 0;
+  private long allocatedBytes = 0;
+
+  private final TezCounter hits;
+  private final TezCounter misses;
+  private final TezCounter fragmentedBytes;
+
+  /**
+   * @param conf
+   *          configuration
+   * @param maxBytes
+   *          limit on the memory held by arrays in use and pooled arrays
+   * @param counters
+   *          counters to report pool statistics to, may be null
+   */
+  public ShuffleBufferPool(Configuration conf, long maxBytes,
+      TezCounters counters) {
+    this.enabled = conf.getBoolean(
+        TezJobConfig.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED);
+    this.maxBytes = maxBytes;
+    this.hits = findCounter(counters, BufferPoolCounter.POOL_HITS);
+    this.misses = findCounter(counters, BufferPoolCounter.POOL_MISSES);
+    this.fragmentedBytes = findCounter(counters, BufferPoolCounter.FRAGMENTED_BYTES);
+    if (enabled) {
+      LOG.info("ShuffleBufferPool: maxBytes=" + maxBytes);
+    }
+  }
+
+  private static TezCounter findCounter(TezCounters counters,
+      BufferPoolCounter counter) {
+    if (counters == null) {
+      return new GenericCounter(counter.toString(), counter.toString());
+    }
+    return counters.findCounter(SHUFFLE_BUFFER_POOL_GRP_NAME, counter.toString());
+  }
+
+  /**
+   * Round a requested size up to its size class.
+   */
+  @VisibleForTesting
+  static int sizeClass(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return MIN_BUFFER_SIZE;
+    }
+    long step = Integer.highestOneBit(size - 1) >> 2;
+    return (int) Math.min((size + step - 1) & -step, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the length of the array {@link #allocate(int)} hands out for a
+   * request of size bytes. Owners account for this much memory, since it
+   * is larger than the request when the pool is enabled.
+   */
+  public int getAllocationSize(int size) {
+    return enabled ? sizeClass(size) : size;
+  }
+
+  /**
+   * Get an array of at least size bytes. Only the first size bytes are
+   * meaningful to the caller.
+   */
+  public synchronized byte[] allocate(int size) {
+    if (!enabled) {
+      return new byte[size];
+    }
+    final int capacity = sizeClass(size);
+    fragmentedBytes.increment(capacity - size);
+    LinkedList<byte[]> buffers = pooledBuffers.get(capacity);
+    byte[] buffer;
+    if (buffers != null && !buffers.isEmpty()) {
+      hits.increment(1);
+      buffer = buffers.removeFirst();
+      pooledBytes -= capacity;
+    } else {
+      misses.increment(1);
+      evict(allocatedBytes + pooledBytes + capacity - maxBytes);
+      buffer = new byte[capacity];
+    }
+    allocatedBytes += capacity;
+    allocatedBuffers.add(buffer);
+    return buffer;
+  }
+
+  /**
+   * Return an array obtained from {@link #allocate(int)}. Arrays which were
+   * not handed out by this pool are ignored.
+   */
+  public synchronized void release(byte[] buffer) {
+    if (!enabled || buffer == null || !allocatedBuffers.remove(buffer)) {
+      return;
+    }
+    final int capacity = buffer.length;
+    allocatedBytes -= capacity;
+    if (allocatedBytes + pooledBytes + capacity > maxBytes) {
+      return;
+    }
+    LinkedList<byte[]> buffers = pooledBuffers.get(capacity);
+    if (buffers == null) {
+      buffers = new LinkedList<byte[]>();
+      pooledBuffers.put(capacity, buffers);
+    }
+    buffers.addFirst(buffer);
+    pooledBytes += capacity;
+  }
+
+  private void evict(long bytes) {
+    Iterator<LinkedList<byte[]>> iter = pooledBuffers.values().iterator();
+    while (bytes > 0 && iter.hasNext()) {
+      LinkedList<byte[]> buffers = iter.next();
+      while (bytes > 0 && !buffers.isEmpty()) {
+        int capacity = buffers.removeFirst().length;
+        pooledBytes -= capacity;
+        bytes -= capacity;
+      }
+      if (buffers.isEmpty()) {
+        iter.remove();
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  @VisibleForTesting
+  synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+}
@@ -18,14 +18,22 @@
 
 package org.apache.tez.runtime.library.shuffle.common;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.crypto.SecretKey;
 
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputByteBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
@@ -34,6 +42,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.security.JobTokenIdentifier;
 import org.apache.tez.common.security.JobTokenSecretManager;
 import org.apache.tez.runtime.library.common.sort.impl.IFileInputStream;
@@ -76,9 +85,9 @@ public class ShuffleUtils {
   public static void shuffleToMemory(MemoryFetchedInput fetchedInput,
       InputStream input, int decompressedLength, int compressedLength,
       CompressionCodec codec, boolean ifileReadAhead, int ifileReadAheadLength,
-      Log LOG) throws IOException {
+      int ifileChecksumBlockSize, Log LOG) throws IOException {
     IFileInputStream checksumIn = new IFileInputStream(input, compressedLength,
-        ifileReadAhead, ifileReadAheadLength);
+        ifileReadAhead, ifileReadAheadLength, ifileChecksumBlockSize);
 
     input = checksumIn;
 
@@ -92,9 +101,9 @@ public class ShuffleUtils {
     byte[] shuffleData = fetchedInput.getBytes();
 
     try {
-      IOUtils.readFully(input, shuffleData, 0, shuffleData.length);
-      // metrics.inputBytes(shuffleData.length);
-      LOG.info("Read " + shuffleData.length + " bytes from input for "
+      IOUtils.readFully(input, shuffleData, 0, decompressedLength);
+      // metrics.inputBytes(decompressedLength);
+      LOG.info("Read " + decompressedLength + " bytes from input for "
           + fetchedInput.getInputAttemptIdentifier());
     } catch (IOException ioe) {
       // Close the streams
@@ -105,24 +114,19 @@ public class ShuffleUtils {
   }
   
   public static void shuffleToDisk(DiskFetchedInput fetchedInput,
-      InputStream input, long compressedLength, Log LOG)
-      throws IOException {
+      InputStream input, long compressedLength, ByteBuffer transferBuffer,
+      Log LOG) throws IOException {
     // Copy data to local-disk
     OutputStream output = fetchedInput.getOutputStream();
     long bytesLeft = compressedLength;
     try {
-      final int BYTES_TO_READ = 64 * 1024;
-      byte[] buf = new byte[BYTES_TO_READ];
-      while (bytesLeft > 0) {
-        int n = input.read(buf, 0, (int) Math.min(bytesLeft, BYTES_TO_READ));
-        if (n < 0) {
-          throw new IOException("read past end of stream reading "
-              + fetchedInput.getInputAttemptIdentifier());
-        }
-        output.write(buf, 0, n);
-        bytesLeft -= n;
-        // metrics.inputBytes(n);
+      bytesLeft -= transferToChannel(input, getChannel(output),
+          compressedLength, transferBuffer);
+      if (bytesLeft > 0) {
+        throw new IOException("read past end of stream reading "
+            + fetchedInput.getInputAttemptIdentifier());
       }
+      // metrics.inputBytes(compressedLength);
 
       LOG.info("Read " + (compressedLength - bytesLeft)
           + " bytes from input for " + fetchedInput.getInputAttemptIdentifier());
@@ -144,6 +148,106 @@ public class ShuffleUtils {
     }
   }
   
+  /**
+   * Write data which was received in-line with an event straight to disk.
+   */
+  public static void shuffleToDisk(DiskFetchedInput fetchedInput,
+      ByteBuffer data, Log LOG) throws IOException {
+    OutputStream output = fetchedInput.getOutputStream();
+    int length = data.remaining();
+    try {
+      WritableByteChannel channel = getChannel(output);
+      while (data.hasRemaining()) {
+        channel.write(data);
+      }
+      LOG.info("Read " + length + " bytes from input for "
+          + fetchedInput.getInputAttemptIdentifier());
+      output.close();
+    } catch (IOException ioe) {
+      IOUtils.cleanup(LOG, output);
+      throw ioe;
+    }
+  }
+
+  /**
+   * Allocate the buffer a fetcher reuses for all its transfers to disk.
+   */
+  public static ByteBuffer allocateTransferBuffer(Configuration conf) {
+    int size = conf.getInt(
+        TezJobConfig.TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_SIZE,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_SIZE);
+    if (conf.getBoolean(TezJobConfig.TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_DIRECT,
+        TezJobConfig.DEFAULT_TEZ_RUNTIME_SHUFFLE_TRANSFER_BUFFER_DIRECT)) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    return ByteBuffer.allocate(size);
+  }
+
+  /**
+   * Create a file for a fetched input directly on the local disk. Fetched
+   * inputs are IFile segments which carry their own checksum, so the
+   * checksum file system is bypassed, and the returned stream exposes a
+   * {@link java.nio.channels.FileChannel}.
+   */
+  public static FileOutputStream createLocalOutputFile(LocalFileSystem localFS,
+      Path path) throws IOException {
+    File file = localFS.pathToFile(path);
+    File parent = file.getParentFile();
+    if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Mkdirs failed to create " + parent);
+    }
+    return new FileOutputStream(file);
+  }
+
+  public static WritableByteChannel getChannel(OutputStream output) {
+    if (output instanceof FileOutputStream) {
+      return ((FileOutputStream) output).getChannel();
+    }
+    return Channels.newChannel(output);
+  }
+
+  /**
+   * Copy up to length bytes from the input to the channel, through the given
+   * transfer buffer. A heap buffer is filled straight from the stream; a
+   * direct buffer is handed to the channel without an intermediate copy.
+   * 
+   * @return the number of bytes copied, less than length only if the input
+   *         ended early
+   */
+  public static long transferToChannel(InputStream input,
+      WritableByteChannel output, long length, ByteBuffer transferBuffer)
+      throws IOException {
+    // not closed, that would close the input
+    ReadableByteChannel in =
+        transferBuffer.hasArray() ? null : Channels.newChannel(input);
+    long bytesLeft = length;
+    while (bytesLeft > 0) {
+      transferBuffer.clear();
+      if (bytesLeft < transferBuffer.capacity()) {
+        transferBuffer.limit((int) bytesLeft);
+      }
+      int n;
+      if (in == null) {
+        n = input.read(transferBuffer.array(), transferBuffer.arrayOffset(),
+            transferBuffer.limit());
+        if (n > 0) {
+          transferBuffer.position(n);
+        }
+      } else {
+        n = in.read(transferBuffer);
+      }
+      if (n < 0) {
+        break;
+      }
+      transferBuffer.flip();
+      while (transferBuffer.hasRemaining()) {
+        output.write(transferBuffer);
+      }
+      bytesLeft -= n;
+    }
+    return length - bytesLeft;
+  }
+
   // TODO NEWTEZ handle ssl shuffle
   public static StringBuilder constructBaseURIForShuffleHandler(String host, int port, int partition, ApplicationId appId) {
     StringBuilder sb = new StringBuilder("http://");
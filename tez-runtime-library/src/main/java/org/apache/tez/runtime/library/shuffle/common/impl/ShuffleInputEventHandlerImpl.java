@@ -56,17 +56,20 @@ public class ShuffleInputEventHandlerImpl implements ShuffleEventHandler {
   private final CompressionCodec codec;
   private final boolean ifileReadAhead;
   private final int ifileReadAheadLength;
+  private final int ifileChecksumBlockSize;
   
   
   public ShuffleInputEventHandlerImpl(TezInputContext inputContext,
       ShuffleManager shuffleManager,
       FetchedInputAllocator inputAllocator, CompressionCodec codec,
-      boolean ifileReadAhead, int ifileReadAheadLength) {
+      boolean ifileReadAhead, int ifileReadAheadLength,
+      int ifileChecksumBlockSize) {
     this.shuffleManager = shuffleManager;
     this.inputAllocator = inputAllocator;
     this.codec = codec;
     this.ifileReadAhead = ifileReadAhead;
     this.ifileReadAheadLength = ifileReadAheadLength;
+    this.ifileChecksumBlockSize = ifileChecksumBlockSize;
   }
 
   @Override
@@ -131,12 +134,13 @@ public class ShuffleInputEventHandlerImpl implements ShuffleEventHandler {
     switch (fetchedInput.getType()) {
     case DISK:
       ShuffleUtils.shuffleToDisk((DiskFetchedInput) fetchedInput, dataProto
-          .getData().newInput(), dataProto.getCompressedLength(), LOG);
+          .getData().asReadOnlyByteBuffer(), LOG);
       break;
     case MEMORY:
       ShuffleUtils.shuffleToMemory((MemoryFetchedInput) fetchedInput,
           dataProto.getData().newInput(), dataProto.getRawLength(),
-          dataProto.getCompressedLength(), codec, ifileReadAhead, ifileReadAheadLength, LOG);
+          dataProto.getCompressedLength(), codec, ifileReadAhead, ifileReadAheadLength,
+          ifileChecksumBlockSize, LOG);
       break;
     case WAIT:
     default:
@@ -21,13 +21,16 @@ package org.apache.tez.runtime.library.shuffle.common.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -88,6 +91,9 @@ public class ShuffleManager implements FetcherCallback {
   private final FetchedInputAllocator inputManager;
 
   private final ListeningExecutorService fetcherExecutor;
+  // disk transfer buffers, at most one per concurrently running fetcher
+  private final Queue<ByteBuffer> transferBufferPool =
+      new ConcurrentLinkedQueue<ByteBuffer>();
 
   private final ExecutorService schedulerRawExecutor;
   private final ListeningExecutorService schedulerExecutor;
@@ -305,6 +311,7 @@ public class ShuffleManager implements FetcherCallback {
       fetcherBuilder.setCompressionParameters(codec);
     }
     fetcherBuilder.setIFileParams(ifileReadAhead, ifileReadAheadLength);
+    fetcherBuilder.setTransferBufferPool(transferBufferPool);
 
     // Remove obsolete inputs from the list being given to the fetcher. Also
     // remove from the obsolete list.
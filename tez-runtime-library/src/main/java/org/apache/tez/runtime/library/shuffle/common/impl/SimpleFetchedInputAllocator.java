@@ -26,6 +26,7 @@ import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.library.common.Constants;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
@@ -35,6 +36,7 @@ import org.apache.tez.runtime.library.shuffle.common.FetchedInput;
 import org.apache.tez.runtime.library.shuffle.common.FetchedInputAllocator;
 import org.apache.tez.runtime.library.shuffle.common.FetchedInputCallback;
 import org.apache.tez.runtime.library.shuffle.common.MemoryFetchedInput;
+import org.apache.tez.runtime.library.shuffle.common.ShuffleBufferPool;
 
 
 /**
@@ -61,8 +63,15 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
   
   private volatile long usedMemory = 0;
 
+  private final ShuffleBufferPool bufferPool;
+
   public SimpleFetchedInputAllocator(String uniqueIdentifier, Configuration conf,
       long maxTaskAvailableMemory, long memoryAvailable) {
+    this(uniqueIdentifier, conf, maxTaskAvailableMemory, memoryAvailable, null);
+  }
+
+  public SimpleFetchedInputAllocator(String uniqueIdentifier, Configuration conf,
+      long maxTaskAvailableMemory, long memoryAvailable, TezCounters counters) {
     this.conf = conf;    
     this.maxAvailableTaskMemory = maxTaskAvailableMemory;
     this.initialMemoryAvailable = memoryAvailable;
@@ -103,6 +112,7 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
     }
 
     this.maxSingleShuffleLimit = (long) (memoryLimit * singleShuffleMemoryLimitPercent);
+    this.bufferPool = new ShuffleBufferPool(conf, memoryLimit, counters);
     
     LOG.info("SimpleInputManager -> " + "MemoryLimit: " + 
         this.memoryLimit + ", maxSingleMemLimit: " + this.maxSingleShuffleLimit);
@@ -127,14 +137,16 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
   public synchronized FetchedInput allocate(long actualSize, long compressedSize,
       InputAttemptIdentifier inputAttemptIdentifier) throws IOException {
     if (actualSize > maxSingleShuffleLimit
-        || this.usedMemory + actualSize > this.memoryLimit) {
+        || this.usedMemory + bufferPool.getAllocationSize((int) actualSize)
+            > this.memoryLimit) {
       return new DiskFetchedInput(actualSize, compressedSize,
           inputAttemptIdentifier, this, conf, localDirAllocator,
           fileNameAllocator);
     } else {
-      this.usedMemory += actualSize;
+      this.usedMemory += bufferPool.getAllocationSize((int) actualSize);
       LOG.info("Used memory after allocating " + actualSize  + " : " + usedMemory);
-      return new MemoryFetchedInput(actualSize, compressedSize, inputAttemptIdentifier, this);
+      return new MemoryFetchedInput(actualSize, compressedSize, inputAttemptIdentifier, this,
+          bufferPool.allocate((int) actualSize));
     }
   }
 
@@ -167,6 +179,7 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
       break;
     case MEMORY:
       unreserve(fetchedInput.getActualSize());
+      bufferPool.release(((MemoryFetchedInput) fetchedInput).getBytes());
       break;
     default:
       throw new TezUncheckedException("InputType: " + fetchedInput.getType()
@@ -175,7 +188,7 @@ public class SimpleFetchedInputAllocator implements FetchedInputAllocator,
   }
 
   private synchronized void unreserve(long size) {
-    this.usedMemory -= size;
+    this.usedMemory -= bufferPool.getAllocationSize((int) size);
     LOG.info("Used memory after freeing " + size  + " : " + usedMemory);
   }
 
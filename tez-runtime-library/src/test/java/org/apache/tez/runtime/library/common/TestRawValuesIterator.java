@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.common.counters.GenericCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+import org.junit.Test;
+
+public class TestRawValuesIterator {
+
+  /**
+   * Serves serialized IntWritable pairs, reusing its buffers like the merged
+   * inputs do.
+   */
+  private static class IntIterator implements TezRawKeyValueIterator {
+    private final int[][] records;
+    private int index = -1;
+    private final DataOutputBuffer keyOut = new DataOutputBuffer();
+    private final DataOutputBuffer valueOut = new DataOutputBuffer();
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+
+    IntIterator(int[][] records) {
+      this.records = records;
+    }
+
+    @Override
+    public DataInputBuffer getKey() {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (++index == records.length) {
+        return false;
+      }
+      keyOut.reset();
+      new IntWritable(records[index][0]).write(keyOut);
+      key.reset(keyOut.getData(), 0, keyOut.getLength());
+      valueOut.reset();
+      new IntWritable(records[index][1]).write(valueOut);
+      value.reset(valueOut.getData(), 0, valueOut.getLength());
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Progress getProgress() {
+      return null;
+    }
+  }
+
+  private static final int[][] RECORDS = {
+    { 1, 10 }, { 1, 11 }, { 2, 20 }, { 3, 30 }, { 3, 31 }, { 3, 32 }
+  };
+
+  private static int read(DataInputBuffer buffer) throws IOException {
+    IntWritable writable = new IntWritable();
+    writable.readFields(buffer);
+    return writable.get();
+  }
+
+  private static RawValuesIterator create(TezCounter keys, TezCounter values) {
+    return new RawValuesIterator(new IntIterator(RECORDS),
+        WritableComparator.get(IntWritable.class), keys, values);
+  }
+
+  @Test
+  public void testAllValues() throws IOException {
+    TezCounter keys = new GenericCounter("keys", "keys");
+    TezCounter values = new GenericCounter("values", "values");
+    RawValuesIterator iter = create(keys, values);
+    int record = 0;
+    while (iter.next()) {
+      int key = read(iter.getCurrentRawKey());
+      while (iter.nextRawValue()) {
+        assertEquals(RECORDS[record][0], key);
+        assertEquals(RECORDS[record][1], read(iter.getCurrentRawValue()));
+        record++;
+      }
+    }
+    assertEquals(RECORDS.length, record);
+    assertEquals(3, keys.getValue());
+    assertEquals(RECORDS.length, values.getValue());
+    assertFalse(iter.next());
+  }
+
+  @Test
+  public void testSkippedValues() throws IOException {
+    RawValuesIterator iter = create(null, null);
+    assertTrue(iter.next());
+    assertEquals(1, read(iter.getCurrentRawKey()));
+    assertTrue(iter.next());
+    assertEquals(2, read(iter.getCurrentRawKey()));
+    assertTrue(iter.nextRawValue());
+    assertEquals(20, read(iter.getCurrentRawValue()));
+    assertTrue(iter.next());
+    assertEquals(3, read(iter.getCurrentRawKey()));
+    assertTrue(iter.nextRawValue());
+    assertEquals(30, read(iter.getCurrentRawValue()));
+    assertFalse(iter.next());
+    assertFalse(iter.nextRawValue());
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.common.sort.impl.IFile.Writer;
+import org.apache.tez.runtime.library.common.sort.impl.TezRawKeyValueIterator;
+import org.junit.Test;
+
+public class TestAdaptiveCombiner {
+
+  /** Serves the records start to start + count, group of them per key. */
+  private static class IntIterator implements TezRawKeyValueIterator {
+    private final int end;
+    private final int group;
+    private int index;
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+
+    IntIterator(int start, int count, int group) {
+      this.index = start - 1;
+      this.end = start + count;
+      this.group = group;
+    }
+
+    @Override
+    public DataInputBuffer getKey() {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (++index == end) {
+        return false;
+      }
+      out.reset();
+      new IntWritable(index / group).write(out);
+      int keyLength = out.getLength();
+      new IntWritable(index).write(out);
+      key.reset(out.getData(), 0, keyLength);
+      value.reset(out.getData(), keyLength, out.getLength() - keyLength);
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Progress getProgress() {
+      return null;
+    }
+  }
+
+  /** Keeps the first record of every key. */
+  private static class FirstValueCombiner implements Combiner {
+    int runs = 0;
+
+    @Override
+    public void combine(TezRawKeyValueIterator rawIter, Writer writer)
+        throws IOException {
+      runs++;
+      IntWritable key = new IntWritable();
+      DataInputBuffer keyIn = new DataInputBuffer();
+      int previous = -1;
+      while (rawIter.next()) {
+        DataInputBuffer rawKey = rawIter.getKey();
+        keyIn.reset(rawKey.getData(), rawKey.getPosition(),
+            rawKey.getLength() - rawKey.getPosition());
+        key.readFields(keyIn);
+        if (key.get() != previous) {
+          writer.append(rawKey, rawIter.getValue());
+          previous = key.get();
+        }
+      }
+    }
+  }
+
+  private static Configuration createConf() {
+    Configuration conf = new Configuration();
+    conf.setLong(TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS, 100);
+    return conf;
+  }
+
+  private static Writer createWriter(Configuration conf) throws IOException {
+    return new Writer(conf, new FSDataOutputStream(new DataOutputBuffer(), null),
+        IntWritable.class, IntWritable.class, null, null, null);
+  }
+
+  @Test
+  public void testTurnedOff() throws Exception {
+    Configuration conf = createConf();
+    // every key is distinct, nothing is combined
+    FirstValueCombiner delegate = new FirstValueCombiner();
+    AdaptiveCombiner combiner = new AdaptiveCombiner(delegate, conf);
+
+    Writer writer = createWriter(conf);
+    combiner.combine(new IntIterator(0, 60, 1), writer);
+    assertEquals(60, writer.getNumRecordsWritten());
+    assertTrue(combiner.isEnabled());
+    assertFalse(combiner.isSampled());
+
+    combiner.combine(new IntIterator(60, 60, 1), writer);
+    assertEquals(120, writer.getNumRecordsWritten());
+    assertFalse(combiner.isEnabled());
+    assertEquals(1.0f, combiner.getReductionRatio(), 0.0f);
+
+    // the records are still written, without the combiner
+    combiner.combine(new IntIterator(120, 60, 1), writer);
+    assertEquals(180, writer.getNumRecordsWritten());
+    assertEquals(2, delegate.runs);
+    writer.close();
+  }
+
+  @Test
+  public void testKeptOn() throws Exception {
+    Configuration conf = createConf();
+    // ten records for every key
+    FirstValueCombiner delegate = new FirstValueCombiner();
+    AdaptiveCombiner combiner = new AdaptiveCombiner(delegate, conf);
+
+    Writer writer = createWriter(conf);
+    for (int i = 0; i < 5; i++) {
+      combiner.combine(new IntIterator(i * 100, 100, 10), writer);
+    }
+    assertEquals(50, writer.getNumRecordsWritten());
+    assertTrue(combiner.isEnabled());
+    assertTrue(combiner.isSampled());
+    assertEquals(0.1f, combiner.getReductionRatio(), 0.001f);
+    assertEquals(5, delegate.runs);
+    writer.close();
+  }
+}
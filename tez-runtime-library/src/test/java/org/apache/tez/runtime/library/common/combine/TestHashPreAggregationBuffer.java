@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.combine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.api.KeyValueWriter;
+import org.junit.Test;
+
+public class TestHashPreAggregationBuffer {
+
+  private static class IntSum implements PreAggregator {
+    @Override
+    public Object aggregate(Object aggregate, Object value) {
+      IntWritable sum = (IntWritable) aggregate;
+      sum.set(sum.get() + ((IntWritable) value).get());
+      return sum;
+    }
+  }
+
+  /** Adds up what is written to it per key, and counts the records. */
+  private static class SumWriter implements KeyValueWriter {
+    final Map<String, Integer> sums = new HashMap<String, Integer>();
+    int records = 0;
+
+    @Override
+    public void write(Object key, Object value) throws IOException {
+      records++;
+      String word = key.toString();
+      Integer sum = sums.get(word);
+      sums.put(word, (sum == null ? 0 : sum) + ((IntWritable) value).get());
+    }
+  }
+
+  private static Configuration createConf(int maxEntries) {
+    Configuration conf = new Configuration();
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_CLASS,
+        Text.class.getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_VALUE_CLASS,
+        IntWritable.class.getName());
+    conf.setInt(TezJobConfig.TEZ_RUNTIME_PRE_AGGREGATOR_MAX_ENTRIES,
+        maxEntries);
+    return conf;
+  }
+
+  private static void write(KeyValueWriter writer, int records, int keys)
+      throws IOException {
+    // the key and value objects are reused, like a processor does
+    Text key = new Text();
+    IntWritable value = new IntWritable();
+    for (int i = 0; i < records; i++) {
+      key.set("word" + (i % keys));
+      value.set(i);
+      writer.write(key, value);
+    }
+  }
+
+  private static void verify(SumWriter out, int records, int keys) {
+    assertEquals(keys, out.sums.size());
+    for (int k = 0; k < keys; k++) {
+      int expected = 0;
+      for (int i = k; i < records; i += keys) {
+        expected += i;
+      }
+      assertEquals(expected, (int) out.sums.get("word" + k));
+    }
+  }
+
+  @Test
+  public void testAggregate() throws IOException {
+    SumWriter out = new SumWriter();
+    HashPreAggregationBuffer buffer =
+        new HashPreAggregationBuffer(createConf(1024), new IntSum(), out);
+    write(buffer, 10000, 100);
+    assertEquals(0, out.records);
+    buffer.flush();
+    assertEquals(100, out.records);
+    verify(out, 10000, 100);
+  }
+
+  @Test
+  public void testFlushWhenFull() throws IOException {
+    SumWriter out = new SumWriter();
+    HashPreAggregationBuffer buffer =
+        new HashPreAggregationBuffer(createConf(64), new IntSum(), out);
+    write(buffer, 10000, 100);
+    buffer.flush();
+    assertTrue(out.records > 100);
+    verify(out, 10000, 100);
+  }
+
+  @Test
+  public void testTurnedOff() throws IOException {
+    Configuration conf = createConf(64);
+    conf.setBoolean(TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE, true);
+    conf.setLong(TezJobConfig.TEZ_RUNTIME_COMBINER_ADAPTIVE_MIN_RECORDS, 100);
+    SumWriter out = new SumWriter();
+    HashPreAggregationBuffer buffer =
+        new HashPreAggregationBuffer(conf, new IntSum(), out);
+    // every key is distinct
+    write(buffer, 1000, 1000);
+    assertFalse(buffer.isEnabled());
+    buffer.flush();
+    assertEquals(1000, out.records);
+    verify(out, 1000, 1000);
+  }
+
+  @Test
+  public void testStartedByCombiner() throws IOException {
+    AdaptiveCombiner combiner = mock(AdaptiveCombiner.class);
+    when(combiner.isSampled()).thenReturn(false);
+    when(combiner.getReductionRatio()).thenReturn(0.1f);
+    SumWriter out = new SumWriter();
+    HashPreAggregationBuffer buffer = new HashPreAggregationBuffer(
+        createConf(1024), new IntSum(), out, combiner);
+    // records pass through until the combiner has been sampled
+    write(buffer, 10000, 100);
+    assertFalse(buffer.isEnabled());
+    assertEquals(10000, out.records);
+
+    when(combiner.isSampled()).thenReturn(true);
+    write(buffer, 10000, 100);
+    assertTrue(buffer.isEnabled());
+    buffer.flush();
+    assertTrue(out.records < 20000);
+    SumWriter expected = new SumWriter();
+    write(expected, 10000, 100);
+    write(expected, 10000, 100);
+    assertEquals(expected.sums, out.sums);
+  }
+
+  @Test
+  public void testNotStartedByCombiner() throws IOException {
+    AdaptiveCombiner combiner = mock(AdaptiveCombiner.class);
+    when(combiner.isSampled()).thenReturn(true);
+    when(combiner.getReductionRatio()).thenReturn(1.0f);
+    SumWriter out = new SumWriter();
+    HashPreAggregationBuffer buffer = new HashPreAggregationBuffer(
+        createConf(1024), new IntSum(), out, combiner);
+    write(buffer, 10000, 100);
+    assertFalse(buffer.isEnabled());
+    buffer.flush();
+    assertEquals(10000, out.records);
+  }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common.shuffle.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.api.TezInputContext;
+import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.apache.tez.runtime.library.common.sort.impl.IFileInputStream;
+import org.apache.tez.runtime.library.testutils.KVDataGen;
+import org.apache.tez.runtime.library.testutils.KVDataGen.KVPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMergeManager {
+
+  private static final long MEMORY = 64 * 1024 * 1024;
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private Path workDir;
+  private MergeManager merger;
+
+  @Before
+  public void setup() throws IOException {
+    conf = new Configuration();
+    conf.set("fs.defaultFS", "file:///");
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_INPUT_KEY_CLASS,
+        Text.class.getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_INPUT_VALUE_CLASS,
+        IntWritable.class.getName());
+    conf.setLong(TezJobConfig.TEZ_RUNTIME_SHUFFLE_FETCH_COALESCE_OUTPUT_BYTES,
+        1024 * 1024);
+    localFs = FileSystem.getLocal(conf);
+    workDir = new Path(
+        new Path(System.getProperty("test.build.data", "/tmp")),
+        TestMergeManager.class.getName())
+        .makeQualified(localFs.getUri(), localFs.getWorkingDirectory());
+    localFs.delete(workDir, true);
+
+    TezCounters counters = new TezCounters();
+    TezInputContext inputContext = mock(TezInputContext.class);
+    doReturn("uid").when(inputContext).getUniqueIdentifier();
+    doReturn(counters).when(inputContext).getCounters();
+    doReturn(MEMORY).when(inputContext).getTotalMemoryAvailableToTask();
+    merger = new MergeManager(conf, localFs,
+        new LocalDirAllocator(TezJobConfig.LOCAL_DIRS), inputContext, null,
+        counters.findCounter(TaskCounter.SPILLED_RECORDS),
+        counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS),
+        counters.findCounter(TaskCounter.MERGED_MAP_OUTPUTS),
+        null, MEMORY, null, false, 0);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    localFs.delete(workDir, true);
+  }
+
+  @Test
+  public void testMergeFetchedOutputs() throws IOException {
+    int numInputs = 3;
+    List<MapOutput> inputs = new ArrayList<MapOutput>();
+    for (int i = 0; i < numInputs; i++) {
+      List<KVPair> data = new ArrayList<KVPair>();
+      for (int j = 0; j < 100; j++) {
+        data.add(record(j * numInputs + i));
+      }
+      MapOutput mapOutput = fetch(i, data, false);
+      assertTrue(merger.canCoalesce(mapOutput));
+      inputs.add(mapOutput);
+    }
+
+    MapOutput merged = merger.mergeFetchedOutputs(inputs);
+    List<KVPair> expected = new ArrayList<KVPair>();
+    for (int i = 0; i < 100 * numInputs; i++) {
+      expected.add(record(i));
+    }
+    verify(merged, expected);
+  }
+
+  @Test
+  public void testRepeatedKeysNotCoalesced() throws IOException {
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    MapOutput plain = fetch(0, data, false);
+    assertTrue(merger.canCoalesce(plain));
+    MapOutput repeated = fetch(1, data, true);
+    assertFalse(merger.canCoalesce(repeated));
+  }
+
+  private static KVPair record(int i) {
+    return new KVPair(new Text(String.format("key%05d", i)),
+        new IntWritable(i));
+  }
+
+  /**
+   * Write the records to an IFile, and fetch it into memory like a Fetcher.
+   */
+  private MapOutput fetch(int index, List<KVPair> data, boolean rle)
+      throws IOException {
+    Path path = new Path(workDir, "output" + index);
+    IFile.Writer writer = new IFile.Writer(conf, localFs, path,
+        Text.class, IntWritable.class, null, null, null);
+    writer.setRLE(rle);
+    for (KVPair kvp : data) {
+      writer.append(kvp.getKey(), kvp.getvalue());
+    }
+    writer.close();
+    long compressedLength = writer.getCompressedLength();
+    int decompressedLength = (int) writer.getRawLength();
+
+    MapOutput mapOutput = merger.reserve(new InputAttemptIdentifier(index, 0),
+        decompressedLength, compressedLength, 0);
+    assertEquals(MapOutput.Type.MEMORY, mapOutput.getType());
+    InputStream in = new IFileInputStream(localFs.open(path),
+        compressedLength);
+    try {
+      IOUtils.readFully(in, mapOutput.getMemory(), 0, decompressedLength);
+    } finally {
+      in.close();
+    }
+    return mapOutput;
+  }
+
+  private void verify(MapOutput mapOutput, List<KVPair> expected)
+      throws IOException {
+    InMemoryReader reader = new InMemoryReader(null,
+        mapOutput.getAttemptIdentifier(), mapOutput.getMemory(), 0,
+        (int) mapOutput.getSize());
+    DataInputBuffer keyIn = new DataInputBuffer();
+    DataInputBuffer valueIn = new DataInputBuffer();
+    Text key = new Text();
+    IntWritable value = new IntWritable();
+    int numRecords = 0;
+    while (reader.nextRawKey(keyIn)) {
+      reader.nextRawValue(valueIn);
+      key.readFields(keyIn);
+      value.readFields(valueIn);
+      assertEquals(expected.get(numRecords).getKey(), key);
+      assertEquals(expected.get(numRecords).getvalue(), value);
+      numRecords++;
+    }
+    assertEquals(expected.size(), numRecords);
+    reader.close();
+  }
+}
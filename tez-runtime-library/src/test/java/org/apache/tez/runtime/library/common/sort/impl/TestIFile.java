@@ -19,21 +19,31 @@
 package org.apache.tez.runtime.library.common.sort.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.runtime.library.common.InputAttemptIdentifier;
 import org.apache.tez.runtime.library.common.shuffle.impl.InMemoryReader;
 import org.apache.tez.runtime.library.common.sort.impl.IFile.Reader;
@@ -102,6 +112,178 @@ public class TestIFile {
     reader.close();
   }
 
+  @Test
+  public void testRepeatedKeysMappedReaderNoRLE() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    writeTestFile(outputPath, false, data);
+
+    File file = MappedIFileReader.getLocalFile(localFs, outputPath);
+    // a small window, so that records straddle refills
+    for (int bufferSize : new int[] { -1, 16 }) {
+      IFile.Reader reader = new MappedIFileReader(file, 0, file.length(),
+          null, null, bufferSize, 0);
+      readAndVerify(reader, data);
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testMappedReaderChecksumError() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    writeTestFile(outputPath, false, data);
+
+    File file = MappedIFileReader.getLocalFile(localFs, outputPath);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(file.length() / 2);
+    int b = raf.read();
+    raf.seek(file.length() / 2);
+    raf.write(b ^ 0xff);
+    raf.close();
+
+    IFile.Reader reader = new MappedIFileReader(file, 0, file.length(),
+        null, null, -1, 0);
+    try {
+      // the whole file fits in the first window
+      reader.nextRawKey(new DataInputBuffer());
+      fail("Expected a checksum error");
+    } catch (ChecksumException e) {
+      // expected
+    } finally {
+      reader.disableChecksumValidation();
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testChecksumBlocks() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    for (int blockSize : new int[] { 1, 7, 16, 1024 }) {
+      Configuration conf = new Configuration(defaultConf);
+      conf.setInt(TezJobConfig.TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE,
+          blockSize);
+      Writer writer = writeTestFile(conf, outputPath, false, data);
+      long length = localFs.getFileStatus(outputPath).getLen();
+      assertEquals(writer.getCompressedLength(), length);
+      assertEquals(writer.getRawLength(),
+          IFileInputStream.getDataLength(length, blockSize));
+
+      IFile.Reader reader = new IFile.Reader(localFs.open(outputPath), length,
+          null, null, null, false, 0, -1, blockSize);
+      readAndVerify(reader, data);
+      reader.close();
+
+      File file = MappedIFileReader.getLocalFile(localFs, outputPath);
+      reader = new MappedIFileReader(file, 0, length, null, null, 16,
+          blockSize);
+      readAndVerify(reader, data);
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testChecksumBlockError() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    Configuration conf = new Configuration(defaultConf);
+    conf.setInt(TezJobConfig.TEZ_RUNTIME_IFILE_CHECKSUM_BLOCK_SIZE, 16);
+    writeTestFile(conf, outputPath, false, data);
+
+    // corrupt the first byte of the third block
+    File file = MappedIFileReader.getLocalFile(localFs, outputPath);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(2 * (16 + 4));
+    int b = raf.read();
+    raf.seek(2 * (16 + 4));
+    raf.write(b ^ 0xff);
+    raf.close();
+
+    // bypassing the checksums of the local filesystem
+    IFileInputStream in = new IFileInputStream(new FileInputStream(file),
+        file.length(), false, 0, 16);
+    byte[] buf = new byte[16];
+    // the first two blocks are fine
+    assertEquals(16, in.read(buf, 0, buf.length));
+    assertEquals(16, in.read(buf, 0, buf.length));
+    try {
+      in.read(buf, 0, buf.length);
+      fail("Expected a checksum error");
+    } catch (ChecksumException e) {
+      assertEquals(32, e.getPos());
+    } finally {
+      in.disableChecksumValidation();
+      in.close();
+    }
+  }
+
+  @Test
+  public void testFrontCodedKeys() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    long plainLength = writeTestFile(outputPath, false, data).getRawLength();
+
+    Configuration conf = new Configuration(defaultConf);
+    conf.setBoolean(TezJobConfig.TEZ_RUNTIME_IFILE_FRONT_CODE_KEYS, true);
+    Writer writer = writeTestFile(conf, outputPath, false, data);
+    // the keys share the prefix "key"
+    assertTrue(writer.getRawLength() < plainLength);
+
+    IFile.Reader reader = new IFile.Reader(localFs, outputPath, null, null,
+        null, false, 0, -1);
+    readAndVerify(reader, data);
+    reader.close();
+
+    FSDataInputStream inStream = localFs.open(outputPath);
+    byte[] bytes = new byte[(int) writer.getRawLength()];
+    readDataToMem(inStream, bytes);
+    inStream.close();
+    reader = new InMemoryReader(null, new InputAttemptIdentifier(0, 0), bytes,
+        0, bytes.length);
+    readAndVerify(reader, data);
+
+    File file = MappedIFileReader.getLocalFile(localFs, outputPath);
+    for (int bufferSize : new int[] { -1, 16 }) {
+      reader = new MappedIFileReader(file, 0, file.length(), null, null,
+          bufferSize, 0);
+      readAndVerify(reader, data);
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testCompressedInMemReader() throws IOException {
+    String outputFileName = "ifile.out";
+    Path outputPath = new Path(workDir, outputFileName);
+    List<KVPair> data = KVDataGen.generateTestData(true);
+    CompressionCodec codec =
+        ReflectionUtils.newInstance(DefaultCodec.class, defaultConf);
+
+    Writer writer = new IFile.Writer(defaultConf, localFs, outputPath,
+        Text.class, IntWritable.class, codec, null, null);
+    for (KVPair kvp : data) {
+      writer.append(kvp.getKey(), kvp.getvalue());
+    }
+    writer.close();
+
+    // as fetched, checksum included
+    FSDataInputStream inStream = localFs.open(outputPath);
+    byte[] bytes = new byte[(int) writer.getCompressedLength()];
+    readDataToMem(inStream, bytes);
+    inStream.close();
+
+    InMemoryReader inMemReader = new InMemoryReader(null,
+        new InputAttemptIdentifier(0, 0), bytes, 0, bytes.length, codec, 0);
+    readAndVerify(inMemReader, data);
+    inMemReader.close();
+  }
+
   @Ignore // TEZ-500
   @Test
   public void testRepeatedKeysInMemReaderRLE() throws IOException {
@@ -186,8 +368,13 @@ public class TestIFile {
 
   private Writer writeTestFile(Path outputPath, boolean useRle, List<KVPair> data)
       throws IOException {
+    return writeTestFile(defaultConf, outputPath, useRle, data);
+  }
+
+  private Writer writeTestFile(Configuration conf, Path outputPath,
+      boolean useRle, List<KVPair> data) throws IOException {
 
-    IFile.Writer writer = new IFile.Writer(defaultConf, localFs, outputPath,
+    IFile.Writer writer = new IFile.Writer(conf, localFs, outputPath,
         Text.class, IntWritable.class, null, null, null);
     writer.setRLE(useRle);
 
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestLoserTree {
+
+  /** A sorted run of ints, positioned at its current element. */
+  private static class Run {
+    final int[] values;
+    int pos = 0;
+
+    Run(int[] values) {
+      this.values = values;
+    }
+
+    int current() {
+      return values[pos];
+    }
+
+    boolean next() {
+      return ++pos < values.length;
+    }
+  }
+
+  private static class RunTree extends LoserTree<Run> {
+    long comparisons = 0;
+
+    @Override
+    protected boolean lessThan(Run a, Run b) {
+      comparisons++;
+      return a.current() < b.current();
+    }
+  }
+
+  private static List<Integer> merge(RunTree tree) {
+    List<Integer> merged = new ArrayList<Integer>();
+    Run top;
+    while ((top = tree.top()) != null) {
+      merged.add(top.current());
+      if (top.next()) {
+        tree.adjustTop();
+      } else {
+        assertTrue(top == tree.pop());
+      }
+    }
+    return merged;
+  }
+
+  @Test
+  public void testMerge() {
+    Random random = new Random(0x10e5L);
+    for (int k : new int[] { 1, 2, 3, 7, 8, 10, 100 }) {
+      RunTree tree = new RunTree();
+      tree.initialize(k);
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int i = 0; i < k; i++) {
+        int[] values = new int[1 + random.nextInt(50)];
+        for (int j = 0; j < values.length; j++) {
+          values[j] = random.nextInt(1000);
+          expected.add(values[j]);
+        }
+        Arrays.sort(values);
+        tree.put(new Run(values));
+      }
+      Collections.sort(expected);
+      assertEquals(k, tree.size());
+      assertEquals(expected, merge(tree));
+      assertEquals(0, tree.size());
+      assertNull(tree.pop());
+    }
+  }
+
+  @Test
+  public void testComparisonsPerRecord() {
+    final int k = 64;
+    final int records = 1000;
+    RunTree tree = new RunTree();
+    tree.initialize(k);
+    for (int i = 0; i < k; i++) {
+      int[] values = new int[records];
+      for (int j = 0; j < records; j++) {
+        values[j] = j * k + i;
+      }
+      tree.put(new Run(values));
+    }
+    tree.top();
+    tree.comparisons = 0;
+    merge(tree);
+    // log2(64) comparisons to replay each record
+    assertTrue(tree.comparisons <= 6L * k * records);
+  }
+
+  @Test
+  public void testRunnerUp() {
+    RunTree tree = new RunTree();
+    tree.initialize(3);
+    Run a = new Run(new int[] { 1, 5 });
+    Run b = new Run(new int[] { 3 });
+    Run c = new Run(new int[] { 2, 4 });
+    tree.put(a);
+    tree.put(b);
+    tree.put(c);
+    assertTrue(a == tree.top());
+    assertTrue(c == tree.runnerUp());
+    a.next();
+    tree.adjustTop();
+    assertTrue(c == tree.top());
+    assertTrue(b == tree.runnerUp());
+    tree.pop();
+    tree.pop();
+    assertTrue(a == tree.top());
+    assertNull(tree.runnerUp());
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common.sort.impl;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.runtime.library.common.ConfigUtils;
+import org.junit.Test;
+
+public class TestNormalizedKeyPrefix {
+
+  private final Random random = new Random(1234);
+
+  @Test
+  public void testTextPrefix() throws IOException {
+    String[] samples = new String[] { "", "a", "ab", "ab\u0000", "abc", "abcd",
+        "abcde", "abce", "ÿþ", "zzzz", "key-00001", "key-00002" };
+    for (String x : samples) {
+      for (String y : samples) {
+        assertConsistent(new Text(x), new Text(y), Text.class);
+      }
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertConsistent(new Text(randomString()), new Text(randomString()), Text.class);
+    }
+  }
+
+  @Test
+  public void testBytesWritablePrefix() throws IOException {
+    for (int i = 0; i < 1000; i++) {
+      assertConsistent(new BytesWritable(randomBytes()),
+          new BytesWritable(randomBytes()), BytesWritable.class);
+    }
+  }
+
+  @Test
+  public void testIntAndLongWritablePrefix() throws IOException {
+    int[] ints = new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    for (int x : ints) {
+      for (int y : ints) {
+        assertConsistent(new IntWritable(x), new IntWritable(y), IntWritable.class);
+      }
+    }
+    long[] longs = new long[] { Long.MIN_VALUE, -1L << 32, -1, 0, 1, 1L << 32,
+        Long.MAX_VALUE };
+    for (long x : longs) {
+      for (long y : longs) {
+        assertConsistent(new LongWritable(x), new LongWritable(y), LongWritable.class);
+      }
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertConsistent(new IntWritable(random.nextInt()),
+          new IntWritable(random.nextInt()), IntWritable.class);
+      assertConsistent(new LongWritable(random.nextLong()),
+          new LongWritable(random.nextLong()), LongWritable.class);
+    }
+  }
+
+  @Test
+  public void testPrefixOnlyForDefaultComparator() {
+    Configuration conf = new Configuration(false);
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_CLASS, Text.class.getName());
+    assertNull(ConfigUtils.getIntermediateOutputKeyPrefix(conf));
+
+    conf.setBoolean(TezJobConfig.TEZ_RUNTIME_SORT_NORMALIZED_KEY_PREFIX_ENABLED, true);
+    assertTrue(ConfigUtils.getIntermediateOutputKeyPrefix(conf)
+        instanceof NormalizedKeyPrefix.Writables.TextPrefix);
+
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_COMPARATOR_CLASS,
+        Text.Comparator.class.getName());
+    assertTrue(ConfigUtils.getIntermediateOutputKeyPrefix(conf)
+        instanceof NormalizedKeyPrefix.Writables.TextPrefix);
+
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_COMPARATOR_CLASS,
+        ReverseTextComparator.class.getName());
+    assertNull(ConfigUtils.getIntermediateOutputKeyPrefix(conf));
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void assertConsistent(WritableComparable x, WritableComparable y,
+      Class<? extends WritableComparable> keyClass) throws IOException {
+    NormalizedKeyPrefix prefix = NormalizedKeyPrefix.Writables.forKeyClass(keyClass);
+    WritableComparator comparator = WritableComparator.get(keyClass);
+    DataOutputBuffer bx = new DataOutputBuffer();
+    x.write(bx);
+    DataOutputBuffer by = new DataOutputBuffer();
+    y.write(by);
+    long px = prefix.getPrefix(bx.getData(), 0, bx.getLength()) & 0xffffffffL;
+    long py = prefix.getPrefix(by.getData(), 0, by.getLength()) & 0xffffffffL;
+    int cmp = comparator.compare(bx.getData(), 0, bx.getLength(),
+        by.getData(), 0, by.getLength());
+    if (px < py) {
+      assertTrue(x + " vs " + y, cmp < 0);
+    } else if (px > py) {
+      assertTrue(x + " vs " + y, cmp > 0);
+    }
+    if (cmp == 0) {
+      assertTrue(x + " vs " + y, px == py);
+    }
+  }
+
+  private String randomString() {
+    StringBuilder sb = new StringBuilder("prefix");
+    int len = random.nextInt(8);
+    for (int i = 0; i < len; i++) {
+      sb.append((char) ('a' + random.nextInt(3)));
+    }
+    return sb.toString();
+  }
+
+  private byte[] randomBytes() {
+    byte[] b = new byte[random.nextInt(8)];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) random.nextInt(4) == 0 ? (byte) 0xff : (byte) random.nextInt(3);
+    }
+    return b;
+  }
+
+  public static class ReverseTextComparator extends Text.Comparator {
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return -super.compare(b1, s1, l1, b2, s2, l2);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.runtime.library.common.sort.impl.dflt;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.api.TezOutputContext;
+import org.apache.tez.runtime.library.api.Partitioner;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+import org.apache.tez.runtime.library.common.sort.impl.TezIndexRecord;
+import org.apache.tez.runtime.library.common.sort.impl.TezSpillRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDefaultSorter {
+
+  private static Configuration defaultConf = new Configuration();
+  private static FileSystem localFs = null;
+  private static Path workDir = null;
+
+  static {
+    defaultConf.set("fs.defaultFS", "file:///");
+    try {
+      localFs = FileSystem.getLocal(defaultConf);
+      workDir = new Path(
+          new Path(System.getProperty("test.build.data", "/tmp")),
+          TestDefaultSorter.class.getName())
+          .makeQualified(localFs.getUri(), localFs.getWorkingDirectory());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static class ModPartitioner implements Partitioner {
+    @Override
+    public int getPartition(Object key, Object value, int numPartitions) {
+      return ((IntWritable) value).get() % numPartitions;
+    }
+  }
+
+  @Before
+  @After
+  public void cleanup() throws Exception {
+    localFs.delete(workDir, true);
+  }
+
+  private void testConcurrentSpill(int partitions, long memory,
+      int numRecords) throws IOException {
+    Configuration conf = new Configuration(defaultConf);
+    conf.setStrings(TezJobConfig.LOCAL_DIRS, workDir.toString());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_KEY_CLASS, Text.class.getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_VALUE_CLASS,
+        IntWritable.class.getName());
+    conf.set(TezJobConfig.TEZ_RUNTIME_PARTITIONER_CLASS, ModPartitioner.class.getName());
+    conf.setInt(TezJobConfig.TEZ_RUNTIME_SORT_SPILL_THREADS, 4);
+
+    TezCounters counters = new TezCounters();
+    TezOutputContext outputContext = mock(TezOutputContext.class);
+    when(outputContext.getCounters()).thenReturn(counters);
+    when(outputContext.getUniqueIdentifier()).thenReturn("attempt_1");
+    when(outputContext.getDestinationVertexName()).thenReturn("v2");
+
+    DefaultSorter sorter = new DefaultSorter(outputContext, conf, partitions,
+        memory);
+    Text key = new Text();
+    IntWritable value = new IntWritable();
+    for (int i = 0; i < numRecords; i++) {
+      key.set(String.format("key%07d", i));
+      value.set(i);
+      sorter.write(key, value);
+    }
+    sorter.flush();
+    sorter.close();
+
+    assertEquals(numRecords,
+        counters.findCounter(TaskCounter.OUTPUT_RECORDS).getValue());
+    Path outputFile = sorter.getMapOutput().getOutputFile();
+    TezSpillRecord spillRecord =
+        new TezSpillRecord(sorter.getMapOutput().getOutputIndexFile(), conf);
+    assertEquals(partitions, spillRecord.size());
+
+    DataInputBuffer keyIn = new DataInputBuffer();
+    DataInputBuffer valueIn = new DataInputBuffer();
+    int total = 0;
+    for (int p = 0; p < partitions; p++) {
+      TezIndexRecord indexRecord = spillRecord.getIndex(p);
+      FSDataInputStream in = localFs.open(outputFile);
+      in.seek(indexRecord.getStartOffset());
+      IFile.Reader reader = new IFile.Reader(in, indexRecord.getPartLength(),
+          null, null, null, false, 0, -1);
+      int expected = p;
+      while (reader.nextRawKey(keyIn)) {
+        reader.nextRawValue(valueIn);
+        key.readFields(keyIn);
+        value.readFields(valueIn);
+        assertEquals(expected, value.get());
+        assertEquals(String.format("key%07d", expected), key.toString());
+        expected += partitions;
+        total++;
+      }
+      reader.close();
+    }
+    assertEquals(numRecords, total);
+  }
+
+  @Test
+  public void testPartitionsWithinSpillBuffer() throws IOException {
+    // about 6MB of records through a 4MB buffer, in small partitions
+    testConcurrentSpill(20, 4 << 20, 200000);
+  }
+
+  @Test
+  public void testPartitionLargerThanSpillBuffer() throws IOException {
+    // every spill is a single partition, written on the spilling thread
+    testConcurrentSpill(1, 1 << 20, 100000);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.shuffle.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.library.shuffle.common.ShuffleBufferPool.BufferPoolCounter;
+import org.junit.Test;
+
+public class TestShuffleBufferPool {
+
+  private static long getCounter(TezCounters counters, BufferPoolCounter counter) {
+    return counters.findCounter(ShuffleBufferPool.SHUFFLE_BUFFER_POOL_GRP_NAME,
+        counter.toString()).getValue();
+  }
+
+  private static ShuffleBufferPool createPool(long maxBytes, TezCounters counters) {
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezJobConfig.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED, true);
+    return new ShuffleBufferPool(conf, maxBytes, counters);
+  }
+
+  @Test
+  public void testSizeClasses() {
+    assertEquals(ShuffleBufferPool.MIN_BUFFER_SIZE, ShuffleBufferPool.sizeClass(1));
+    assertEquals(4096, ShuffleBufferPool.sizeClass(4096));
+    assertEquals(5120, ShuffleBufferPool.sizeClass(4097));
+    assertEquals(5120, ShuffleBufferPool.sizeClass(5000));
+    assertEquals(8192, ShuffleBufferPool.sizeClass(8192));
+    assertEquals(10240, ShuffleBufferPool.sizeClass(8193));
+    assertEquals(1280 * 1024, ShuffleBufferPool.sizeClass(1024 * 1024 + 1));
+    for (int size = 1; size < 1 << 20; size += 997) {
+      int capacity = ShuffleBufferPool.sizeClass(size);
+      assertEquals(capacity, ShuffleBufferPool.sizeClass(capacity));
+      assertEquals(true, capacity >= size);
+      assertEquals(true, size <= 4096 || capacity - size < size / 4 + 1);
+    }
+  }
+
+  @Test
+  public void testReuse() {
+    TezCounters counters = new TezCounters();
+    ShuffleBufferPool pool = createPool(1 << 20, counters);
+
+    assertEquals(5120, pool.getAllocationSize(5000));
+    byte[] b1 = pool.allocate(5000);
+    assertEquals(5120, b1.length);
+    pool.release(b1);
+    assertEquals(5120, pool.getPooledBytes());
+
+    byte[] b2 = pool.allocate(4500);
+    assertSame(b1, b2);
+    byte[] b3 = pool.allocate(4500);
+    assertNotSame(b2, b3);
+
+    assertEquals(1, getCounter(counters, BufferPoolCounter.POOL_HITS));
+    assertEquals(2, getCounter(counters, BufferPoolCounter.POOL_MISSES));
+    assertEquals(120 + 620 + 620,
+        getCounter(counters, BufferPoolCounter.FRAGMENTED_BYTES));
+
+    // double and foreign releases are ignored
+    pool.release(b2);
+    pool.release(b2);
+    pool.release(new byte[5120]);
+    assertEquals(5120, pool.getPooledBytes());
+    assertEquals(5120, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testEviction() {
+    ShuffleBufferPool pool = createPool(3 * 4096, null);
+
+    byte[] b1 = pool.allocate(4096);
+    byte[] b2 = pool.allocate(4096);
+    pool.release(b1);
+    pool.release(b2);
+    assertEquals(2 * 4096, pool.getPooledBytes());
+
+    // a miss evicts pooled arrays to stay within the limit
+    pool.allocate(2 * 4096);
+    assertEquals(4096, pool.getPooledBytes());
+    assertEquals(2 * 4096, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testDisabled() {
+    ShuffleBufferPool pool = new ShuffleBufferPool(new Configuration(), 1 << 20, null);
+    assertEquals(5000, pool.getAllocationSize(5000));
+    byte[] b1 = pool.allocate(5000);
+    assertEquals(5000, b1.length);
+    pool.release(b1);
+    assertEquals(0, pool.getPooledBytes());
+    assertNotSame(b1, pool.allocate(5000));
+  }
+}
@@ -85,4 +85,38 @@ public class TestSimpleFetchedInputAllocator {
     assertEquals(FetchedInput.Type.DISK, fi5.getType());
   }
 
+  @Test
+  public void testPooledAllocationAccounting() throws IOException {
+    String localDirs = "/tmp/" + this.getClass().getName();
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezJobConfig.TEZ_RUNTIME_SHUFFLE_BUFFER_POOL_ENABLED, true);
+    conf.setFloat(TezJobConfig.TEZ_RUNTIME_SHUFFLE_INPUT_BUFFER_PERCENT, 1.0f);
+    conf.setFloat(TezJobConfig.TEZ_RUNTIME_SHUFFLE_MEMORY_LIMIT_PERCENT, 1.0f);
+    conf.setStrings(TezJobConfig.LOCAL_DIRS, localDirs);
+
+    // requests of 1MB + 1 byte take 1.25MB arrays from the pool
+    long memoryLimit = 3584 * 1024;
+    long requestSize = 1024 * 1024 + 1;
+    long compressedSize = 1l;
+    SimpleFetchedInputAllocator inputManager = new SimpleFetchedInputAllocator(
+        UUID.randomUUID().toString(), conf, memoryLimit, memoryLimit);
+
+    FetchedInput fi1 = inputManager.allocate(requestSize, compressedSize, new InputAttemptIdentifier(1, 1));
+    assertEquals(FetchedInput.Type.MEMORY, fi1.getType());
+    FetchedInput fi2 = inputManager.allocate(requestSize, compressedSize, new InputAttemptIdentifier(2, 1));
+    assertEquals(FetchedInput.Type.MEMORY, fi2.getType());
+
+    // three requests fit in the limit, but their arrays do not
+    FetchedInput fi3 = inputManager.allocate(requestSize, compressedSize, new InputAttemptIdentifier(3, 1));
+    assertEquals(FetchedInput.Type.DISK, fi3.getType());
+
+    // freeing an array gives back all of its memory
+    fi1.abort();
+    fi1.free();
+    FetchedInput fi4 = inputManager.allocate(requestSize, compressedSize, new InputAttemptIdentifier(4, 1));
+    assertEquals(FetchedInput.Type.MEMORY, fi4.getType());
+    FetchedInput fi5 = inputManager.allocate(requestSize, compressedSize, new InputAttemptIdentifier(5, 1));
+    assertEquals(FetchedInput.Type.DISK, fi5.getType());
+  }
+
 }